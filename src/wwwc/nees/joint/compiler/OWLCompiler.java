@@ -142,6 +142,7 @@ public class OWLCompiler {
             try {
                 bean.generateSourceCode(target, resolver);
                 bean.generateImplSourceCode(target, resolver);
+                File hydrator = bean.generateHydratorSourceCode(target, resolver);
                 URI uri = bean.getURI();
                 String pkg = resolver.getPackageName(uri);
                 String className = resolver.getSimpleName(uri);
@@ -154,6 +155,9 @@ public class OWLCompiler {
                     logger.debug("Saving {}", className);
                     content.add(className);
                     content.add(className + "Impl");
+                    if (hydrator != null) {
+                        content.add(className + "Hydrator");
+                    }
                     if (!anon) {
                         concepts.add(className);
                         conceptsMapping.add(uri.stringValue() + " = " + className);
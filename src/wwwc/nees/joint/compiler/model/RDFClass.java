@@ -345,6 +345,86 @@ public class RDFClass extends RDFEntity {
         return source;
     }
 
+    public File generateHydratorSourceCode(File dir, JavaNameResolver resolver)
+            throws Exception {
+        if (isDatatype()) {
+            return null;
+        }
+        File source = createHydratorSourceFile(dir, resolver);
+        JavaMessageBuilder builder = new JavaMessageBuilder(source, resolver);
+        String pkg = resolver.getPackageName(this.getURI());
+        String simple = resolver.getSimpleName(getURI());
+        String simpleImpl = simple + "Impl";
+        if (pkg == null) {
+            builder.imports(simpleImpl);
+        } else {
+            builder.pkg(pkg);
+            builder.imports(pkg + '.' + simpleImpl);
+        }
+        builder.imports("java.util.List");
+        builder.imports("java.util.Map");
+        builder.imports("org.openrdf.model.Value");
+        builder.imports("wwwc.nees.joint.module.kao.retrieve.HydrationContext");
+        builder.imports("wwwc.nees.joint.module.kao.retrieve.Hydrator");
+        builder.className(simple + "Hydrator");
+        builder.implement("Hydrator");
+
+        //same properties, in the same order, of the concrete class
+        List<JavaPropertyBuilder> props = new ArrayList<JavaPropertyBuilder>();
+        List<String> predicates = new ArrayList<String>();
+        Set<String> fields = new HashSet<String>();
+        List<String> listProperties = new ArrayList<String>();
+        for (RDFProperty prop : getProperties()) {
+            if (listProperties.contains(prop.toString())) {
+                continue;
+            }
+            listProperties.add(prop.toString());
+            JavaPropertyBuilder prop1 = builder.property(builder.getPropertyName(
+                    this, prop));
+            String className = builder.getPropertyClassName(this, prop);
+            if (this.isFunctional(prop)) {
+                prop1.type(className);
+            } else {
+                prop1.setOf(className);
+            }
+            if (fields.add(prop1.getAccessorName())) {
+                props.add(prop1);
+                predicates.add(builder.getType(prop.getURI()).stringValue());
+            }
+        }
+
+        builder.code("\n\tpublic void hydrate(Object instance, Map<String, List<Value>> properties,\n");
+        builder.code("\t\t\tHydrationContext context) throws Exception {\n");
+        builder.code("\t\t" + simpleImpl + " impl = (" + simpleImpl + ") instance;\n");
+        builder.code("\t\tObject value;\n");
+        builder.code("\t\tfor (Map.Entry<String, List<Value>> entry : properties.entrySet()) {\n");
+        builder.code("\t\t\tswitch (entry.getKey()) {\n");
+        for (int i = 0; i < props.size(); i++) {
+            props.get(i).hydrateImpl(predicates.get(i));
+        }
+        builder.code("\t\t\t}\n");
+        builder.code("\t\t}\n");
+        for (int i = 0; i < props.size(); i++) {
+            if (props.get(i).isMultiValued()) {
+                props.get(i).emptySetImpl(predicates.get(i));
+            }
+        }
+        builder.code("\t}\n\n");
+
+        builder.code("\tpublic String dehydrate(Object instance, String field, List<Value> values,\n");
+        builder.code("\t\t\tHydrationContext context) throws Exception {\n");
+        builder.code("\t\t" + simpleImpl + " impl = (" + simpleImpl + ") instance;\n");
+        builder.code("\t\tswitch (field) {\n");
+        for (int i = 0; i < props.size(); i++) {
+            props.get(i).dehydrateImpl(predicates.get(i));
+        }
+        builder.code("\t\t}\n");
+        builder.code("\t\treturn null;\n");
+        builder.code("\t}\n");
+        builder.close();
+        return source;
+    }
+
     public List<RDFProperty> getFunctionalDatatypeProperties() {
         List<RDFProperty> list = new ArrayList<RDFProperty>();
         for (RDFProperty property : getProperties()) {
@@ -211,4 +211,15 @@ public class RDFEntity implements Comparable<RDFEntity> {
 		folder.mkdirs();
 		return new File(folder, simple + "Impl.java");
 	}
+
+	protected File createHydratorSourceFile(File dir, JavaNameResolver resolver) {
+		String pkg = resolver.getPackageName(getURI());
+		String simple = resolver.getSimpleName(getURI());
+		File folder = dir;
+		if (pkg != null) {
+			folder = new File(dir, pkg.replace('.', '/'));
+		}
+		folder.mkdirs();
+		return new File(folder, simple + "Hydrator.java");
+	}
 }
@@ -56,7 +56,8 @@ public class JavaCompiler {
 
 	final Logger logger = LoggerFactory.getLogger(JavaCompiler.class);
         final JointApiBuilder apiBuilder = new JointApiBuilder();
-	private String version = "5";
+	// the hydrators switch on strings, which needs Java 7 or later
+	private String version = "8";
 	private boolean useTools = true;
 
 	public String getVersion() {
@@ -43,6 +43,7 @@ public class JavaPropertyBuilder extends JavaSourceBuilder {
     private String type;
     private String extype;
     private boolean isInterface;
+    private boolean multiValued;
 
     public JavaPropertyBuilder(String name, boolean isInterface,
             Map<String, String> imports, StringBuilder sb) {
@@ -60,6 +61,7 @@ public class JavaPropertyBuilder extends JavaSourceBuilder {
     }
 
     public JavaPropertyBuilder setOf(String type) {
+        this.multiValued = true;
         this.type = imports("java.util.Set") + "<" + imports(type) + ">";
         if (Object.class.getName().equals(type)) {
             this.extype = imports("java.util.Set") + "<?>";
@@ -81,9 +83,7 @@ public class JavaPropertyBuilder extends JavaSourceBuilder {
             sb.append(type).append(" get");
         }
         
-        if(name.startsWith("Learner")){
-            name = name.substring(7);
-        }
+        name = withoutLearnerPrefix(name);
         
         String cap = name.substring(0, 1).toUpperCase();
         
@@ -100,9 +100,7 @@ public class JavaPropertyBuilder extends JavaSourceBuilder {
         }
         sb.append("void set");
         
-        if(name.startsWith("Learner")){
-            name = name.substring(7);
-        }
+        name = withoutLearnerPrefix(name);
         
         sb.append(cap).append(name.substring(1));
         sb.append("(");
@@ -137,17 +135,16 @@ public class JavaPropertyBuilder extends JavaSourceBuilder {
             sb.append(type).append(" get");
         }
         
-        if(name.startsWith("Learner")){
-            name = name.substring(7);
-        }
+        name = withoutLearnerPrefix(name);
         
         String cap = name.substring(0, 1).toUpperCase();
         sb.append(cap).append(name.substring(1));
         sb.append("(){\n");
         if (!this.variable.equalsIgnoreCase("uri") && !this.variable.equalsIgnoreCase("lazyLoaded")
                 && !this.variable.equalsIgnoreCase("innerModifiedFields")) {
-            sb.append("\t\tif(!this.isLazyLoaded())\n");
-            sb.append("\t\t\t LazyLoader.loadObject(this, this.getClass().getName());\n");
+            sb.append("\t\tif(!this.isLazyLoaded(\"").append(cap).append(name.substring(1)).append("\"))\n");
+            sb.append("\t\t\t LazyLoader.loadObject(this, this.getClass().getName(), \"");
+            sb.append(cap).append(name.substring(1)).append("\");\n");
         }
         sb.append("\t\treturn this.");
         sb.append(variable);
@@ -162,9 +159,7 @@ public class JavaPropertyBuilder extends JavaSourceBuilder {
             sb.append("public ");
         }
         
-        if(name.startsWith("Learner")){
-            name = name.substring(7);
-        }
+        name = withoutLearnerPrefix(name);
         
         sb.append("void set");
         sb.append(cap).append(name.substring(1));
@@ -173,8 +168,9 @@ public class JavaPropertyBuilder extends JavaSourceBuilder {
         sb.append(" ").append(var(name)).append("){\n");
         if (!this.variable.equalsIgnoreCase("uri") && !this.variable.equalsIgnoreCase("lazyLoaded")
                 && !this.variable.equalsIgnoreCase("innerModifiedFields")) {
-            sb.append("\t\tif(!this.isLazyLoaded())\n");
-            sb.append("\t\t\t LazyLoader.loadObject(this, this.getClass().getName());\n");
+            sb.append("\t\tif(!this.isLazyLoaded(\"").append(cap).append(name.substring(1)).append("\"))\n");
+            sb.append("\t\t\t LazyLoader.loadObject(this, this.getClass().getName(), \"");
+            sb.append(cap).append(name.substring(1)).append("\");\n");
             sb.append("\t\t this.innerModifiedFields.add(\"");
             sb.append(cap).append(name.substring(1));
             sb.append("\");\n");
@@ -188,6 +184,96 @@ public class JavaPropertyBuilder extends JavaSourceBuilder {
         sb.append(";\n\t}\n");
     }
 
+    /**
+     * Name used by the accessors of the concrete class, which is also the name
+     * kept in its inner modified fields.
+     */
+    public String getAccessorName() {
+        String accessor = withoutLearnerPrefix(name);
+        return accessor.substring(0, 1).toUpperCase() + accessor.substring(1);
+    }
+
+    /**
+     * Removes the "Learner" prefix of the property names, which is left out of
+     * the accessors.
+     */
+    private static String withoutLearnerPrefix(String name) {
+        if (name.startsWith("Learner")) {
+            return name.substring(7);
+        }
+        return name;
+    }
+
+    public boolean isMultiValued() {
+        return multiValued;
+    }
+
+    /**
+     * Case of the hydrator switch which sets the values of the predicate.
+     */
+    public void hydrateImpl(String predicate) {
+        sb.append("\t\t\tcase \"").append(predicate).append("\":\n");
+        if (multiValued) {
+            sb.append("\t\t\t\timpl.set").append(getAccessorName());
+            sb.append("((").append(imports("java.util.Set"));
+            sb.append(") context.toSet(entry.getValue()));\n");
+        } else {
+            String boxed = boxed(type);
+            sb.append("\t\t\t\tvalue = context.toObject(entry.getValue(), ");
+            sb.append(boxed).append(".class);\n");
+            sb.append("\t\t\t\tif (value != null)\n");
+            sb.append("\t\t\t\t\timpl.set").append(getAccessorName());
+            sb.append("((").append(boxed).append(") value);\n");
+        }
+        sb.append("\t\t\t\tbreak;\n");
+    }
+
+    /**
+     * Sets an empty set when the multi valued predicate has no values.
+     */
+    public void emptySetImpl(String predicate) {
+        sb.append("\t\tif (!properties.containsKey(\"").append(predicate);
+        sb.append("\"))\n");
+        sb.append("\t\t\timpl.set").append(getAccessorName());
+        sb.append("(new ").append(imports("java.util.HashSet")).append("());\n");
+    }
+
+    /**
+     * Case of the dehydrator switch which converts the field values.
+     */
+    public void dehydrateImpl(String predicate) {
+        sb.append("\t\tcase \"").append(getAccessorName()).append("\":\n");
+        sb.append("\t\t\tcontext.toValues(impl.");
+        if ("boolean".equals(type)) {
+            sb.append("is");
+        } else {
+            sb.append("get");
+        }
+        sb.append(getAccessorName()).append("(), values);\n");
+        sb.append("\t\t\treturn \"").append(predicate).append("\";\n");
+    }
+
+    private String boxed(String type) {
+        if ("boolean".equals(type)) {
+            return "Boolean";
+        } else if ("int".equals(type)) {
+            return "Integer";
+        } else if ("char".equals(type)) {
+            return "Character";
+        } else if ("byte".equals(type)) {
+            return "Byte";
+        } else if ("short".equals(type)) {
+            return "Short";
+        } else if ("long".equals(type)) {
+            return "Long";
+        } else if ("float".equals(type)) {
+            return "Float";
+        } else if ("double".equals(type)) {
+            return "Double";
+        }
+        return type;
+    }
+
     public void toStringOverride() {
         String cap = name.substring(0, 1).toUpperCase();
         sb.append("\t");
@@ -4,8 +4,18 @@
  */
 package wwwc.nees.joint.model;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import wwwc.nees.joint.module.kao.retrieve.FetchGroup;
 
 /**
  * Utility methods for the Code Generator -- upper class for each concrete class
@@ -19,6 +29,15 @@ public class JOINTResource {
     protected String URI;
     protected boolean LazyLoaded;
     protected List<String> innerModifiedFields;
+    // Siblings loaded together with this instance, if it is not loaded
+    private transient FetchGroup fetchGroup;
+    // Fields not retrieved yet, loaded on their first access
+    private transient Set<String> deferredFields;
+    // Values of the properties in the repository when the instance was
+    // loaded (or last saved), by predicate
+    private transient Map<String, List<Value>> loadedValues;
+    // Graphs from which the loaded values were read, empty for all of them
+    private transient Set<String> loadedContexts;
 
     public String getURI() {
         return this.URI;
@@ -41,6 +60,155 @@ public class JOINTResource {
         this.LazyLoaded = (boolean) LazyLoaded;
     }
 
+    /**
+     * Checks if a single field of the instance is loaded: the instance must
+     * be loaded and the field must not have been deferred by a partial
+     * retrieval.
+     *
+     * @param field the name of the field (e.g. <code>FoafName</code>)
+     * @return <code>true</code> if the field can be read
+     */
+    public boolean isLazyLoaded(String field) {
+        if (!this.LazyLoaded) {
+            return false;
+        }
+        return this.deferredFields == null || !this.deferredFields.contains(field);
+    }
+
+    /**
+     * Marks fields as not retrieved, so they are loaded on their first
+     * access.
+     *
+     * @param fields the names of the fields
+     */
+    public void deferFields(Collection<String> fields) {
+        if (fields.isEmpty()) {
+            return;
+        }
+        if (this.deferredFields == null) {
+            this.deferredFields = new HashSet<>();
+        }
+        this.deferredFields.addAll(fields);
+    }
+
+    /**
+     * Marks a deferred field as loaded.
+     *
+     * @param field the name of the field
+     * @return <code>true</code> if the field was deferred
+     */
+    public boolean undeferField(String field) {
+        return this.deferredFields != null && this.deferredFields.remove(field);
+    }
+
+    /**
+     * Keeps the values of the properties loaded from the repository, so the
+     * updates only send the values which were changed.
+     *
+     * @param values the values of the properties, by predicate; the
+     * properties without values are left out
+     * @param contexts the graphs from which the values were read
+     */
+    public void keepLoadedValues(Map<String, List<Value>> values, URI... contexts) {
+        this.loadedValues = new HashMap<>(values);
+        this.loadedContexts = contextsOf(contexts);
+    }
+
+    /**
+     * Keeps the values of a single property, loaded or saved in the
+     * repository. It has no effect if the instance has no loaded values.
+     *
+     * @param predicate the IRI of the property
+     * @param values the values of the property
+     */
+    public void keepLoadedValues(String predicate, List<Value> values) {
+        if (this.loadedValues != null) {
+            this.loadedValues.put(predicate, values);
+        }
+    }
+
+    /**
+     * Retrieves the values of a property when the instance was loaded.
+     *
+     * @param predicate the IRI of the property
+     * @return the values or <code>null</code> if the instance was not loaded
+     * from the repository
+     */
+    public List<Value> loadedValues(String predicate) {
+        if (this.loadedValues == null) {
+            return null;
+        }
+        List<Value> values = this.loadedValues.get(predicate);
+        return (values == null) ? Collections.<Value>emptyList() : values;
+    }
+
+    /**
+     * Checks if the loaded values were read from the same graphs in which
+     * the instance is being saved, so they can be compared with its values.
+     *
+     * @param contexts the graphs in which the instance is saved
+     * @return <code>false</code> if the instance was not loaded from the
+     * repository or was loaded from other graphs
+     */
+    public boolean isLoadedFrom(URI... contexts) {
+        return this.loadedValues != null && this.loadedContexts.equals(contextsOf(contexts));
+    }
+
+    /**
+     * Forgets the loaded values, after the instance was deleted from the
+     * repository, so the next update replaces the values of its modified
+     * properties.
+     */
+    public void forgetLoadedValues() {
+        this.loadedValues = null;
+        this.loadedContexts = null;
+    }
+
+    /**
+     * Copies the loaded values and the modified fields of the instance, to be
+     * restored if the transaction which saves it is rolled back.
+     *
+     * @return a resource holding the copied state
+     */
+    public JOINTResource saveState() {
+        JOINTResource state = new JOINTResource();
+        state.loadedValues = (this.loadedValues == null) ? null : new HashMap<>(this.loadedValues);
+        state.loadedContexts = this.loadedContexts;
+        state.innerModifiedFields = (this.innerModifiedFields == null) ? null
+                : new ArrayList<>(this.innerModifiedFields);
+        return state;
+    }
+
+    /**
+     * Restores the state copied by {@link #saveState()}, keeping the fields
+     * modified since then.
+     *
+     * @param state the copied state
+     */
+    public void restoreState(JOINTResource state) {
+        this.loadedValues = state.loadedValues;
+        this.loadedContexts = state.loadedContexts;
+        if (state.innerModifiedFields != null) {
+            List<String> modifiedFields = new ArrayList<>(state.innerModifiedFields);
+            if (this.innerModifiedFields != null) {
+                for (String field : this.innerModifiedFields) {
+                    if (!modifiedFields.contains(field)) {
+                        modifiedFields.add(field);
+                    }
+                }
+            }
+            this.innerModifiedFields = modifiedFields;
+        }
+    }
+
+    private static Set<String> contextsOf(URI... contexts) {
+        Set<String> graphs = new HashSet<>();
+        for (URI context : contexts) {
+            graphs.add(context.stringValue());
+        }
+        return graphs;
+    }
+
     public List<String> getInnerModifiedFields() {
         return this.innerModifiedFields;
     }
@@ -49,6 +217,18 @@ public class JOINTResource {
         this.innerModifiedFields = (List<String>) innerModifiedFields;
     }
     
+    /**
+     * Retrieves the group of instances loaded together with this one (not a
+     * bean property, so it is not serialized with the instance).
+     */
+    public FetchGroup fetchGroup() {
+        return this.fetchGroup;
+    }
+
+    public void joinFetchGroup(FetchGroup fetchGroup) {
+        this.fetchGroup = fetchGroup;
+    }
+
     @Override
     public boolean equals(Object object){
         return this.URI.equals(object.toString());
@@ -1,11 +1,21 @@
 package wwwc.nees.joint.module.kao;
 
+import wwwc.nees.joint.module.kao.retrieve.GraphFanOut;
+import wwwc.nees.joint.module.kao.retrieve.InstancePage;
+import wwwc.nees.joint.module.kao.retrieve.MergePolicy;
 import wwwc.nees.joint.module.kao.retrieve.QueryRunner;
+import wwwc.nees.joint.module.kao.retrieve.ResultCursor;
 import wwwc.nees.joint.module.kao.retrieve.RetrieveOperations;
 import wwwc.nees.joint.module.kao.retrieve.SPARQLQueryRunnerImpl;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.codehaus.jettison.json.JSONObject;
@@ -19,6 +29,9 @@ import org.openrdf.repository.Repository;
 import org.openrdf.repository.RepositoryConnection;
 import org.openrdf.repository.RepositoryException;
 import wwwc.nees.joint.module.kao.retrieve.Feature;
+import wwwc.nees.joint.module.kao.cache.InstanceCache;
+import wwwc.nees.joint.module.kao.cache.QueryResultCache;
+import wwwc.nees.joint.module.kao.id.IdGenerator;
 
 /**
  * Abstract class KAO, for operations in the persistence with SESAME and Alibaba
@@ -32,14 +45,14 @@ public abstract class AbstractKAO {
     // -------------------------------------------------------------------------
     // Variable to connect with the repository
     private final Repository repository;
-    // Variable to do operations in the repository
-    private RepositoryConnection connection;
     // Variable with the desired class to be implemented
-    private Class<?> classe;
+    private volatile Class<?> classe;
     // Interface to perform queries in the repository
     private final QueryRunner queryRunner;
-    // URI[] of graph to save triples
-    private URI[] contexts;
+    // Number of instances written per transaction by the bulk operations
+    private volatile int batchSize = 1000;
+    // Generator of the IDs of createWithUniqueID
+    private volatile IdGenerator idGenerator = CreateOperations.DEFAULT_ID_GENERATOR;
 
     // CONSTRUCTOR
     // -------------------------------------------------------------------------
@@ -58,11 +71,23 @@ public abstract class AbstractKAO {
         this.repository = RepositoryFactory.getRepository();
         // Creates a QueryRunner with SPARQL implementation
         this.queryRunner = new SPARQLQueryRunnerImpl();
-        this.contexts = new URI[]{};
     }
 
     // METHODS
     // -------------------------------------------------------------------------
+    /**
+     * Opens a session in the current thread: until it is closed, the
+     * operations of every KAO used by the thread share its connection and
+     * transaction, and the writes are queued until the session is flushed or
+     * committed.
+     *
+     * @return the new session, to be closed by the caller
+     * @throws RepositoryException if the connection cannot be opened
+     */
+    public Session openSession() throws RepositoryException {
+        return Session.open(this.repository);
+    }
+
     /**
      * Creates a new instance in the repository with the specified name.
      *
@@ -84,26 +109,40 @@ public abstract class AbstractKAO {
      * will be performed.
      * @return T the new instance.
      */
+    @SuppressWarnings("unchecked")
     public <T> T create(String instanceURI, java.net.URI... contexts) {
-        setContexts(contexts);
+        URI[] graphs = toContexts(contexts);
 
         Object ob = null;
+        Session session = Session.current();
+        if (session != null) {
+            // The designation is added when the session is flushed
+            try {
+                ob = session.queueCreate(instanceURI, this.classe, graphs);
+            } catch (Exception e) {
+                session.setRollbackOnly();
+                Logger.getLogger(AbstractKAO.class
+                        .getName()).log(Level.SEVERE, null, e);
+            }
+            return (T) ob;
+        }
         try {
-            connection = this.repository.getConnection();
+            RepositoryConnection connection = this.openConnection();
             try {
-                connection.begin();
+                this.begin(connection);
 
-                ob = new CreateOperations().create(connection, instanceURI, this.classe, this.getContexts());
+                ob = new CreateOperations().create(connection, instanceURI, this.classe, graphs);
 
-                connection.commit();
+                this.commit(connection);
+                invalidateQueries(graphs);
             } catch (Exception e) {
                 // If throws any exception rollback
-                connection.rollback();
+                this.rollback(connection);
                 Logger
                         .getLogger(AbstractKAO.class
                                 .getName()).log(Level.SEVERE, null, e);
             } finally {
-                connection.close();
+                this.close(connection);
             }
         } catch (RepositoryException eR) {
             // If throws repository Exception the the connection is not inialized
@@ -113,6 +152,57 @@ public abstract class AbstractKAO {
         return (T) ob;
     }
 
+    /**
+     * Creates new instances in the repository with the specified uris, adding
+     * them in batches: each batch is added at once, in its own transaction.
+     * If a batch fails, it is rolled back and the next ones are not created.
+     *
+     * @param instancesURI the URIs of the instances.
+     * @param contexts <code>URI</code> represent the graphs in which the query
+     * will be performed.
+     * @return <code>List</code> with the created instances.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> createAll(Collection<String> instancesURI, java.net.URI... contexts) {
+        URI[] graphs = toContexts(contexts);
+        List<T> created = new ArrayList<>();
+
+        try {
+            RepositoryConnection connection = this.openConnection();
+            try {
+                List<String> all = new ArrayList<>(instancesURI);
+                //one transaction per batch
+                for (int i = 0; i < all.size(); i += this.batchSize) {
+                    List<String> batch = all.subList(i, Math.min(i + this.batchSize, all.size()));
+                    this.begin(connection);
+                    try {
+                        List<T> instances = new CreateOperations().createAll(connection,
+                                batch, (Class<T>) this.classe, graphs);
+
+                        // Saves the batch in the repository
+                        this.commit(connection);
+                        created.addAll(instances);
+                        invalidateQueries(graphs);
+                    } catch (Exception e) {
+                        // If throws any exception rollback the current batch
+                        this.rollback(connection);
+                        Logger
+                                .getLogger(AbstractKAO.class
+                                        .getName()).log(Level.SEVERE, null, e);
+                        break;
+                    }
+                }
+            } finally {
+                this.close(connection);
+            }
+        } catch (RepositoryException eR) {
+            // If throws repository Exception the the connection is not inialized
+            Logger.getLogger(AbstractKAO.class
+                    .getName()).log(Level.SEVERE, null, eR);
+        }
+        return created;
+    }
+
     /**
      * Creates a new instance with a unique ID in the repository with the
      * specified prefix.
@@ -125,24 +215,26 @@ public abstract class AbstractKAO {
      */
     public <T> T createWithUniqueID(String ontologyURI, String instancePrefix, java.net.URI... contexts) {
 
-        setContexts(contexts);
+        URI[] graphs = toContexts(contexts);
 
         Object ob = null;
         try {
-            connection = this.repository.getConnection();
+            RepositoryConnection connection = this.openConnection();
             try {
-                connection.begin();
-                ob = new CreateOperations().createWithUniqueID(connection, ontologyURI, instancePrefix, this.classe, this.getContexts());
-                connection.commit();
+                this.begin(connection);
+                ob = new CreateOperations().createWithUniqueID(connection, ontologyURI, instancePrefix, this.classe,
+                        this.idGenerator, graphs);
+                this.commit(connection);
+                invalidateQueries(graphs);
 
             } catch (Exception e) {
                 // If throws any exception rollback
-                connection.rollback();
+                this.rollback(connection);
                 Logger
                         .getLogger(AbstractKAO.class
                                 .getName()).log(Level.SEVERE, null, e);
             } finally {
-                connection.close();
+                this.close(connection);
             }
         } catch (RepositoryException eR) {
             // If throws repository Exception the the connection is not inialized
@@ -166,28 +258,35 @@ public abstract class AbstractKAO {
     }
 
     public void delete(String instanceURI, java.net.URI... contexts) {
-        setContexts(contexts);
+        URI[] graphs = toContexts(contexts);
+        Session session = Session.current();
+        if (session != null) {
+            // The instance is removed when the session is flushed
+            session.queueDelete(instanceURI, graphs);
+            return;
+        }
 
         try {
-            connection = this.repository.getConnection();
+            RepositoryConnection connection = this.openConnection();
 
             try {
                 //gets connection
-                connection.begin();
+                this.begin(connection);
                 //removes the quads that have the corresponding subject 
 //                removeOpe.remove(ontologyURI, instanceName, con, this.getContexts());
-                new RemoveOperations().remove_SPARQLUpdate(connection, instanceURI, this.getContexts());
+                new RemoveOperations().remove_SPARQLUpdate(connection, instanceURI, graphs);
 
                 // Saves the object in the repository
-                connection.commit();
+                this.commit(connection);
+                invalidate(Collections.singletonList(instanceURI), true, graphs);
             } catch (RepositoryException | MalformedQueryException | UpdateExecutionException e) {
                 // If throws any exception rollback
-                connection.rollback();
+                this.rollback(connection);
                 Logger
                         .getLogger(AbstractKAO.class
                                 .getName()).log(Level.SEVERE, null, e);
             } finally {
-                connection.close();
+                this.close(connection);
             }
         } catch (RepositoryException eR) {
             // If throws repository Exception the the connection is not inialized
@@ -203,30 +302,88 @@ public abstract class AbstractKAO {
      * @param contexts the graphs in which the instance is removed.
      */
     public <T> void delete(T instance, java.net.URI... contexts) {
+        Session session = Session.current();
+        if (session != null) {
+            // The instance is removed when the session is flushed
+            URI[] graphs = toContexts(contexts);
+            session.queueDelete(instance.toString(), graphs);
+            return;
+        }
         try {
-            setContexts(contexts);
+            URI[] graphs = toContexts(contexts);
 
-            connection = this.repository.getConnection();
+            RepositoryConnection connection = this.openConnection();
 
             try {
                 //gets connection
-                connection.begin();
+                this.begin(connection);
 
-                new RemoveOperations().remove_SPARQLUpdate(connection, instance.toString(), this.getContexts());
+                new RemoveOperations().remove_SPARQLUpdate(connection, instance.toString(), graphs);
 //                removeOpe.remove(instance, con, this.getContexts());
 
                 // Saves the object in the repository
-                connection.commit();
+                this.commit(connection);
+                invalidate(Collections.singletonList(instance.toString()), true, graphs);
 
             } catch (RepositoryException | MalformedQueryException | UpdateExecutionException e) {
                 // If throws any exception rollback
-                connection.rollback();
+                this.rollback(connection);
                 Logger
                         .getLogger(AbstractKAO.class
                                 .getName()).log(Level.SEVERE, null, e);
             } finally {
-                connection.close();
+                this.close(connection);
+
+            }
+        } catch (RepositoryException eR) {
+            // If throws repository Exception the the connection is not inialized
+            Logger.getLogger(AbstractKAO.class
+                    .getName()).log(Level.SEVERE, null, eR);
+        }
+    }
+
+    /**
+     * Removes many instances of the repository, passing the instances or their
+     * URIs. Each batch is removed with a single update request, in its own
+     * transaction. If a batch fails, it is rolled back and the next ones are
+     * not removed.
+     *
+     * @param instances the instances, or their URIs
+     * @param contexts <code>URI</code> represent the graphs in which the query
+     * will be performed.
+     */
+    public void deleteAll(Collection<?> instances, java.net.URI... contexts) {
+        URI[] graphs = toContexts(contexts);
+
+        try {
+            RepositoryConnection connection = this.openConnection();
+            try {
+                List<?> all = new ArrayList<>(instances);
+                //one transaction per batch
+                for (int i = 0; i < all.size(); i += this.batchSize) {
+                    List<?> batch = all.subList(i, Math.min(i + this.batchSize, all.size()));
+                    this.begin(connection);
+                    try {
+                        List<String> instancesURI = new ArrayList<>();
+                        for (Object instance : batch) {
+                            instancesURI.add(instance.toString());
+                        }
+                        new RemoveOperations().removeAll(connection, instancesURI, graphs);
 
+                        // Saves the batch in the repository
+                        this.commit(connection);
+                        invalidate(instancesURI, true, graphs);
+                    } catch (Exception e) {
+                        // If throws any exception rollback the current batch
+                        this.rollback(connection);
+                        Logger
+                                .getLogger(AbstractKAO.class
+                                        .getName()).log(Level.SEVERE, null, e);
+                        break;
+                    }
+                }
+            } finally {
+                this.close(connection);
             }
         } catch (RepositoryException eR) {
             // If throws repository Exception the the connection is not inialized
@@ -254,27 +411,101 @@ public abstract class AbstractKAO {
      * @param contexts the graphs in which the instance is removed.
      * @return T the desired instance.
      */
+    @SuppressWarnings("unchecked")
     public <T> T retrieveInstance(String instanceURI, java.net.URI... contexts) {
         Object ob = null;
         try {
-            setContexts(contexts);
-            connection = this.repository.getConnection();
+            URI[] graphs = toContexts(contexts);
+            // Returns the instance already retrieved in the session, if any
+            Session session = Session.current();
+            if (session != null) {
+                ob = session.lookup(instanceURI, graphs);
+                if (classe.isInstance(ob)) {
+                    return (T) ob;
+                }
+                ob = null;
+            } else {
+                // Or a copy of the instance in the shared cache, if enabled
+                ob = this.retrieveCachedInstance(instanceURI, graphs);
+                if (ob != null) {
+                    return (T) ob;
+                }
+            }
+            RepositoryConnection connection = this.openConnection();
             try {
                 //gets connection
-                connection.begin();
+                TransactionHandler.beginRead(connection);
 
-                ob = new RetrieveOperations().retrieveInstance(connection, instanceURI, classe, this.getContexts());
+                ob = new RetrieveOperations().retrieveInstance(connection, instanceURI, classe, graphs);
+                if (session != null && ob != null) {
+                    session.register(ob, graphs);
+                }
 
-                // Saves the object in the repository
-                connection.commit();
+                // Ends the read transaction, if any
+                TransactionHandler.endRead(connection, true);
+            } catch (Exception e) {
+                // If throws any exception rollback
+                TransactionHandler.endRead(connection, false);
+                Logger
+                        .getLogger(AbstractKAO.class
+                                .getName()).log(Level.SEVERE, null, e);
+            } finally {
+                this.close(connection);
+
+            }
+        } catch (RepositoryException eR) {
+            // If throws repository Exception the the connection is not inialized
+            Logger.getLogger(AbstractKAO.class
+                    .getName()).log(Level.SEVERE, null, eR);
+        }
+        return (T) ob;
+    }
+
+    /**
+     * Retrieves an instance with only the values of the given properties. The
+     * other properties are deferred, each one loaded on the first access to
+     * its getter or setter.
+     *
+     * @param instanceURI a <code>String</code> with the instance URI
+     * @param properties the IRIs of the properties retrieved now
+     * @param contexts <code>URI</code> represent the graphs in which the query
+     * will be performed.
+     * @return T the desired instance.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T retrieveInstance(String instanceURI, Set<String> properties, java.net.URI... contexts) {
+        Object ob = null;
+        try {
+            URI[] graphs = toContexts(contexts);
+            // Returns the instance already retrieved in the session, if any
+            Session session = Session.current();
+            if (session != null) {
+                ob = session.lookup(instanceURI, graphs);
+                if (classe.isInstance(ob)) {
+                    return (T) ob;
+                }
+                ob = null;
+            }
+            RepositoryConnection connection = this.openConnection();
+            try {
+                //gets connection
+                TransactionHandler.beginRead(connection);
+
+                ob = new RetrieveOperations().retrieveInstance(connection, instanceURI, classe, properties, graphs);
+                if (session != null && ob != null) {
+                    session.register(ob, graphs);
+                }
+
+                // Ends the read transaction, if any
+                TransactionHandler.endRead(connection, true);
             } catch (Exception e) {
                 // If throws any exception rollback
-                connection.rollback();
+                TransactionHandler.endRead(connection, false);
                 Logger
                         .getLogger(AbstractKAO.class
                                 .getName()).log(Level.SEVERE, null, e);
             } finally {
-                connection.close();
+                this.close(connection);
 
             }
         } catch (RepositoryException eR) {
@@ -293,28 +524,118 @@ public abstract class AbstractKAO {
      * @return <code>List</code> a List with the instances.
      */
     public <T> List<T> retrieveAllInstances(java.net.URI... contexts) {
-        setContexts(contexts);
+        URI[] graphs = toContexts(contexts);
         // Creates a new java.util.List
         List<T> listInstances = new ArrayList<>();
 
         try {
-            connection = this.repository.getConnection();
+            RepositoryConnection connection = this.openConnection();
             try {
                 //gets connection
-                connection.begin();
+                TransactionHandler.beginRead(connection);
 
-                listInstances = (List<T>) new RetrieveOperations().retrieveAllInstances(connection, classe, this.getContexts());
+                listInstances = (List<T>) new RetrieveOperations().retrieveAllInstances(connection, classe, graphs);
 
-                // Saves the object in the repository
-                connection.commit();
+                // Ends the read transaction, if any
+                TransactionHandler.endRead(connection, true);
+            } catch (Exception e) {
+                // If throws any exception rollback
+                TransactionHandler.endRead(connection, false);
+                Logger
+                        .getLogger(AbstractKAO.class
+                                .getName()).log(Level.SEVERE, null, e);
+            } finally {
+                this.close(connection);
+
+            }
+        } catch (RepositoryException eR) {
+            // If throws repository Exception the the connection is not inialized
+            Logger.getLogger(AbstractKAO.class
+                    .getName()).log(Level.SEVERE, null, eR);
+        }
+
+        return listInstances;
+    }
+
+    /**
+     * Retrieves all the instances of the class, passed in the constructor,
+     * with only the values of the given properties. The other properties are
+     * deferred, each one loaded on the first access to its getter or setter.
+     *
+     * @param properties the IRIs of the properties retrieved now
+     * @param contexts <code>URI</code> represent the graphs in which the query
+     * will be performed.
+     * @return <code>List</code> a List with the instances.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> retrieveAllInstances(Set<String> properties, java.net.URI... contexts) {
+        URI[] graphs = toContexts(contexts);
+        // Creates a new java.util.List
+        List<T> listInstances = new ArrayList<>();
+
+        try {
+            RepositoryConnection connection = this.openConnection();
+            try {
+                //gets connection
+                TransactionHandler.beginRead(connection);
+
+                listInstances = (List<T>) new RetrieveOperations().retrieveAllInstances(connection, classe, properties, graphs);
+
+                // Ends the read transaction, if any
+                TransactionHandler.endRead(connection, true);
+            } catch (Exception e) {
+                // If throws any exception rollback
+                TransactionHandler.endRead(connection, false);
+                Logger
+                        .getLogger(AbstractKAO.class
+                                .getName()).log(Level.SEVERE, null, e);
+            } finally {
+                this.close(connection);
+
+            }
+        } catch (RepositoryException eR) {
+            // If throws repository Exception the the connection is not inialized
+            Logger.getLogger(AbstractKAO.class
+                    .getName()).log(Level.SEVERE, null, eR);
+        }
+
+        return listInstances;
+    }
+
+    /**
+     * Retrieves all the instances of the class, passed in the constructor,
+     * querying the graphs in parallel and merging the values of each instance
+     * found in more than one graph into a single instance.
+     *
+     * @param policy the merge of the values found in many graphs
+     * @param contexts <code>URI</code> represent the graphs in which the query
+     * will be performed.
+     * @return <code>List</code> a List with the instances, one per URI.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> List<T> retrieveAllInstances(MergePolicy policy, java.net.URI... contexts) {
+        URI[] graphs = toContexts(contexts);
+        // Creates a new java.util.List
+        List<T> listInstances = new ArrayList<>();
+
+        try {
+            RepositoryConnection connection = this.openConnection();
+            try {
+                //gets connection
+                TransactionHandler.beginRead(connection);
+
+                listInstances = (List<T>) new GraphFanOut(this.repository).retrieveAllInstances(connection, classe, policy, graphs);
+
+                // Ends the read transaction, if any
+                TransactionHandler.endRead(connection, true);
             } catch (Exception e) {
                 // If throws any exception rollback
-                connection.rollback();
+                TransactionHandler.endRead(connection, false);
                 Logger
                         .getLogger(AbstractKAO.class
                                 .getName()).log(Level.SEVERE, null, e);
             } finally {
-                connection.close();
+                this.close(connection);
 
             }
         } catch (RepositoryException eR) {
@@ -326,6 +647,136 @@ public abstract class AbstractKAO {
         return listInstances;
     }
 
+    /**
+     * Retrieves an instance with the values of all the graphs, queried in
+     * parallel and merged into a single instance. The merged instance is not
+     * kept in the session nor in the instance cache.
+     *
+     * @param instanceURI a <code>String</code> with the instance URI
+     * @param policy the merge of the values found in many graphs
+     * @param contexts <code>URI</code> represent the graphs in which the query
+     * will be performed.
+     * @return T the desired instance.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T retrieveInstance(String instanceURI, MergePolicy policy, java.net.URI... contexts) {
+        Object ob = null;
+        try {
+            URI[] graphs = toContexts(contexts);
+            RepositoryConnection connection = this.openConnection();
+            try {
+                //gets connection
+                TransactionHandler.beginRead(connection);
+
+                ob = new GraphFanOut(this.repository).retrieveInstance(connection, instanceURI, classe, policy, graphs);
+
+                // Ends the read transaction, if any
+                TransactionHandler.endRead(connection, true);
+            } catch (Exception e) {
+                // If throws any exception rollback
+                TransactionHandler.endRead(connection, false);
+                Logger
+                        .getLogger(AbstractKAO.class
+                                .getName()).log(Level.SEVERE, null, e);
+            } finally {
+                this.close(connection);
+
+            }
+        } catch (RepositoryException eR) {
+            // If throws repository Exception the the connection is not inialized
+            Logger.getLogger(AbstractKAO.class
+                    .getName()).log(Level.SEVERE, null, eR);
+        }
+        return (T) ob;
+    }
+
+    /**
+     * Retrieves a page of the instances of the class, passed in the
+     * constructor, ordered by their URIs.
+     *
+     * @param pageSize the maximum number of instances of the page
+     * @param continuationToken the token of the previous page, or
+     * <code>null</code> for the first page
+     * @param contexts <code>URI</code> represent the graphs in which the query
+     * will be performed.
+     * @return <code>InstancePage</code> with the instances and the token of
+     * the next page.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> InstancePage<T> retrieveInstances(int pageSize, String continuationToken, java.net.URI... contexts) {
+        URI[] graphs = toContexts(contexts);
+        InstancePage<T> page = new InstancePage<>(new ArrayList<T>(), null);
+
+        try {
+            RepositoryConnection connection = this.openConnection();
+            try {
+                //gets connection
+                TransactionHandler.beginRead(connection);
+
+                page = (InstancePage<T>) new RetrieveOperations().retrieveInstances(connection, classe, pageSize, continuationToken, graphs);
+
+                // Ends the read transaction, if any
+                TransactionHandler.endRead(connection, true);
+            } catch (Exception e) {
+                // If throws any exception rollback
+                TransactionHandler.endRead(connection, false);
+                Logger
+                        .getLogger(AbstractKAO.class
+                                .getName()).log(Level.SEVERE, null, e);
+            } finally {
+                this.close(connection);
+
+            }
+        } catch (RepositoryException eR) {
+            // If throws repository Exception the the connection is not inialized
+            Logger.getLogger(AbstractKAO.class
+                    .getName()).log(Level.SEVERE, null, eR);
+        }
+
+        return page;
+    }
+
+    /**
+     * Retrieves all the instances of the class, passed in the constructor, as
+     * a cursor which hydrates them in pages. The connection stays open until
+     * the cursor is exhausted or closed, so only one page of instances is kept
+     * in memory.
+     *
+     * @param contexts <code>URI</code> represent the graphs in which the query
+     * will be performed.
+     * @return <code>ResultCursor</code> a closeable java.util.Iterator with
+     * the instances, also available as a <code>Stream</code>.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> ResultCursor<T> streamAllInstances(java.net.URI... contexts) {
+        URI[] graphs = toContexts(contexts);
+
+        try {
+            RepositoryConnection con = this.openConnection();
+            try {
+                //gets connection
+                TransactionHandler.beginRead(con);
+
+                ResultCursor<T> cursor = (ResultCursor<T>) new RetrieveOperations().streamAllInstances(con, classe, graphs);
+
+                // The cursor ends the read and closes the connection when closed
+                return Session.isSessionConnection(con) ? cursor : cursor.releaseOnClose(con);
+            } catch (Exception e) {
+                // If throws any exception rollback
+                TransactionHandler.endRead(con, false);
+                this.close(con);
+                Logger
+                        .getLogger(AbstractKAO.class
+                                .getName()).log(Level.SEVERE, null, e);
+            }
+        } catch (RepositoryException eR) {
+            // If throws repository Exception the the connection is not inialized
+            Logger.getLogger(AbstractKAO.class
+                    .getName()).log(Level.SEVERE, null, eR);
+        }
+        return ResultCursor.empty();
+    }
+
     /**
      * Saves the uncommitted changes in the repository and close the connection
      * with it.
@@ -335,27 +786,38 @@ public abstract class AbstractKAO {
      * will be updated.
      */
     public <T> T update(T instance, java.net.URI... contexts) {
-        setContexts(contexts);
+        URI[] graphs = toContexts(contexts);
         Object ob = null;
+        Session session = Session.current();
+        if (session != null) {
+            // The changes are saved when the session is flushed
+            session.queueUpdate(instance, classe, graphs);
+            return instance;
+        }
 
         try {
             //gets connection
-            connection = this.repository.getConnection();
+            RepositoryConnection connection = this.openConnection();
             try {
-                connection.begin();
+                this.begin(connection);
 
-                ob = new UpdateOperations().updateDettachedInstance(connection, instance, classe, this.getContexts());
+                UpdateOperations updateOp = new UpdateOperations();
+                updateOp.writeAll(connection, Collections.singletonList(instance), classe, graphs);
 
                 // Saves the object in the repository
-                connection.commit();
+                this.commit(connection);
+                //the instance keeps its changes until they are committed
+                updateOp.markSaved();
+                ob = instance;
+                invalidate(Collections.singletonList(instance.toString()), false, graphs);
             } catch (Exception e) {
                 // If throws any exception rollback
-                connection.rollback();
+                this.rollback(connection);
                 Logger
                         .getLogger(AbstractKAO.class
                                 .getName()).log(Level.SEVERE, null, e);
             } finally {
-                connection.close();
+                this.close(connection);
 
             }
         } catch (RepositoryException eR) {
@@ -366,6 +828,73 @@ public abstract class AbstractKAO {
         return (T) ob;
     }
 
+    /**
+     * Saves the uncommitted changes of many instances in the repository. The
+     * changes of each batch are sent in a single update request, in its own
+     * transaction. If a batch fails, it is rolled back and the next ones are
+     * not saved.
+     *
+     * @param instances the objects which will be updated
+     * @param contexts <code>URI</code> represent the graphs in which the query
+     * will be performed.
+     * @return <code>List</code> with the saved instances.
+     */
+    public <T> List<T> updateAll(Collection<T> instances, java.net.URI... contexts) {
+        URI[] graphs = toContexts(contexts);
+        List<T> saved = new ArrayList<>();
+        Session session = Session.current();
+        if (session != null) {
+            // The changes are saved when the session is flushed
+            for (T instance : instances) {
+                session.queueUpdate(instance, classe, graphs);
+            }
+            saved.addAll(instances);
+            return saved;
+        }
+
+        try {
+            RepositoryConnection connection = this.openConnection();
+            try {
+                List<T> all = new ArrayList<>(instances);
+                //one transaction per batch
+                for (int i = 0; i < all.size(); i += this.batchSize) {
+                    List<T> batch = all.subList(i, Math.min(i + this.batchSize, all.size()));
+                    this.begin(connection);
+                    try {
+                        UpdateOperations updateOp = new UpdateOperations();
+                        updateOp.writeAll(connection, batch, classe, graphs);
+
+                        // Saves the batch in the repository
+                        this.commit(connection);
+                        //the instances keep their changes until they are
+                        //committed
+                        updateOp.markSaved();
+                        saved.addAll(batch);
+                        List<String> instancesURI = new ArrayList<>();
+                        for (Object instance : batch) {
+                            instancesURI.add(instance.toString());
+                        }
+                        invalidate(instancesURI, false, graphs);
+                    } catch (Exception e) {
+                        // If throws any exception rollback the current batch
+                        this.rollback(connection);
+                        Logger
+                                .getLogger(AbstractKAO.class
+                                        .getName()).log(Level.SEVERE, null, e);
+                        break;
+                    }
+                }
+            } finally {
+                this.close(connection);
+            }
+        } catch (RepositoryException eR) {
+            // If throws repository Exception the the connection is not inialized
+            Logger.getLogger(AbstractKAO.class
+                    .getName()).log(Level.SEVERE, null, eR);
+        }
+        return saved;
+    }
+
     /**
      * Performs queries in the repository, returning a single result.
      *
@@ -374,21 +903,37 @@ public abstract class AbstractKAO {
      * @return object <code>Object</code> result.
      */
     public Object executeSPARQLquerySingleResult(String query) {
+        // Returns the results in the query cache, if enabled and they have
+        // no instances
+        QueryResultCache cache = queryCache(query);
+        String key = null;
+        long generation = 0;
+        if (cache != null) {
+            key = QueryResultCache.key("single", query);
+            QueryResultCache.CachedResult cached = cache.get(key);
+            if (cached != null) {
+                return cached.getValue();
+            }
+            generation = cache.generation();
+        }
         Object object = null;
         try {
             //retrieves a connection with the repository
-            connection = this.repository.getConnection();
+            RepositoryConnection connection = this.openConnection();
             try {
                 //starts a transaction
-                connection.begin();
+                TransactionHandler.beginRead(connection);
                 //performs the query
                 object = this.queryRunner.executeQueryAsSingleResult(connection, query);
-                connection.commit();
+                TransactionHandler.endRead(connection, true);
+                if (cache != null) {
+                    cache.put(generation, key, query, object);
+                }
             } catch (Exception ex) {
-                connection.rollback();
+                TransactionHandler.endRead(connection, false);
                 Logger.getLogger(AbstractKAO.class.getName()).log(Level.SEVERE, null, ex);
             } finally {
-                connection.close();
+                this.close(connection);
             }
         } catch (RepositoryException ex) {
             Logger.getLogger(AbstractKAO.class.getName()).log(Level.SEVERE, null, ex);
@@ -407,22 +952,38 @@ public abstract class AbstractKAO {
      * @return <code>List</code> a java.util.List with the results.
      */
     public List executeSPARQLqueryResultList(String query, java.net.URI... contexts) {
-        setContexts(contexts);
+        URI[] graphs = toContexts(contexts);
+        // Returns a copy of the results in the query cache, if enabled and
+        // they have no instances
+        QueryResultCache cache = queryCache(query);
+        String key = null;
+        long generation = 0;
+        if (cache != null) {
+            key = QueryResultCache.key("list", query, graphs);
+            QueryResultCache.CachedResult cached = cache.get(key);
+            if (cached != null) {
+                return new ArrayList<>((List<?>) cached.getValue());
+            }
+            generation = cache.generation();
+        }
         List<Object> objects = null;
         try {
             //retrieves a connection with the repository
-            connection = this.repository.getConnection();
+            RepositoryConnection connection = this.openConnection();
             try {
                 //starts a transaction
-                connection.begin();
+                TransactionHandler.beginRead(connection);
                 //performs the query
-                objects = this.queryRunner.executeQueryAsList(connection, query, this.getContexts());
-                connection.commit();
+                objects = this.queryRunner.executeQueryAsList(connection, query, graphs);
+                TransactionHandler.endRead(connection, true);
+                if (cache != null) {
+                    cache.put(generation, key, query, objects, graphs);
+                }
             } catch (Exception ex) {
-                connection.rollback();
+                TransactionHandler.endRead(connection, false);
                 Logger.getLogger(AbstractKAO.class.getName()).log(Level.SEVERE, null, ex);
             } finally {
-                connection.close();
+                this.close(connection);
             }
         } catch (RepositoryException ex) {
             Logger.getLogger(AbstractKAO.class.getName()).log(Level.SEVERE, null, ex);
@@ -432,22 +993,22 @@ public abstract class AbstractKAO {
     }
 
     public List executeSPARQLqueryResultList2(String query, java.net.URI... contexts) {
-        setContexts(contexts);
+        URI[] graphs = toContexts(contexts);
         List<Object> objects = null;
         try {
             //retrieves a connection with the repository
-            connection = this.repository.getConnection();
+            RepositoryConnection connection = this.openConnection();
             try {
                 //starts a transaction
-                connection.begin();
+                TransactionHandler.beginRead(connection);
                 //performs the query
-                objects = this.queryRunner.executeQueryAsList2(connection, query, this.getContexts());
-                connection.commit();
+                objects = this.queryRunner.executeQueryAsList2(connection, query, graphs);
+                TransactionHandler.endRead(connection, true);
             } catch (Exception ex) {
-                connection.rollback();
+                TransactionHandler.endRead(connection, false);
                 Logger.getLogger(AbstractKAO.class.getName()).log(Level.SEVERE, null, ex);
             } finally {
-                connection.close();
+                this.close(connection);
             }
         } catch (RepositoryException ex) {
             Logger.getLogger(AbstractKAO.class.getName()).log(Level.SEVERE, null, ex);
@@ -456,21 +1017,36 @@ public abstract class AbstractKAO {
     }
 
     public String executeSPARQLtupleQueryAsJSONString(String query) {
+        // Returns the results in the query cache, if enabled
+        QueryResultCache cache = queryCache(query);
+        String key = null;
+        long generation = 0;
+        if (cache != null) {
+            key = QueryResultCache.key("json", query);
+            QueryResultCache.CachedResult cached = cache.get(key);
+            if (cached != null) {
+                return (String) cached.getValue();
+            }
+            generation = cache.generation();
+        }
         String results = null;
         try {
             //retrieves a connection with the repository
-            connection = this.repository.getConnection();
+            RepositoryConnection connection = this.openConnection();
             try {
                 //starts a transaction
-                connection.begin();
+                TransactionHandler.beginRead(connection);
                 //performs the query
                 results = this.queryRunner.executeTupleQueryAsJSON(connection, query).replaceAll("=", ":");
-                connection.commit();
+                TransactionHandler.endRead(connection, true);
+                if (cache != null) {
+                    cache.put(generation, key, query, results);
+                }
             } catch (RepositoryException | MalformedQueryException | QueryEvaluationException | TupleQueryResultHandlerException ex) {
-                connection.rollback();
+                TransactionHandler.endRead(connection, false);
                 Logger.getLogger(AbstractKAO.class.getName()).log(Level.SEVERE, null, ex);
             } finally {
-                connection.close();
+                this.close(connection);
             }
         } catch (RepositoryException ex) {
             Logger.getLogger(AbstractKAO.class.getName()).log(Level.SEVERE, null, ex);
@@ -478,6 +1054,55 @@ public abstract class AbstractKAO {
         return results;
     }
 
+    /**
+     * Performs query in the repository, streaming the results to the sink in
+     * the SPARQL 1.1 JSON results format, with UTF-8 encoding. The stream is
+     * flushed but not closed.
+     *
+     * @param query the String with the query to be performed.
+     * @param out the stream where the results are written
+     * @return <code>true</code> if all the results were written,
+     * <code>false</code> if the query failed, maybe after part of them was
+     * written, so the output must be discarded
+     */
+    public boolean executeSPARQLtupleQueryAsJSONString(String query, OutputStream out) {
+        return this.executeSPARQLtupleQueryAsJSONString(query, new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Performs query in the repository, streaming the results to the sink in
+     * the SPARQL 1.1 JSON results format. The writer is flushed but not
+     * closed.
+     *
+     * @param query the String with the query to be performed.
+     * @param out the writer where the results are written
+     * @return <code>true</code> if all the results were written,
+     * <code>false</code> if the query failed, maybe after part of them was
+     * written, so the output must be discarded
+     */
+    public boolean executeSPARQLtupleQueryAsJSONString(String query, Writer out) {
+        try {
+            //retrieves a connection with the repository
+            RepositoryConnection connection = this.openConnection();
+            try {
+                //starts a transaction
+                TransactionHandler.beginRead(connection);
+                //performs the query
+                this.queryRunner.executeTupleQueryAsJSON(connection, query, out);
+                TransactionHandler.endRead(connection, true);
+                return true;
+            } catch (RepositoryException | MalformedQueryException | QueryEvaluationException | TupleQueryResultHandlerException ex) {
+                TransactionHandler.endRead(connection, false);
+                Logger.getLogger(AbstractKAO.class.getName()).log(Level.SEVERE, null, ex);
+            } finally {
+                this.close(connection);
+            }
+        } catch (RepositoryException ex) {
+            Logger.getLogger(AbstractKAO.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return false;
+    }
+
     /**
      * Performs query in the repository, returning the results in an adapted
      * format from JSON-LD specification
@@ -504,18 +1129,18 @@ public abstract class AbstractKAO {
         JSONObject results = null;
         try {
             //retrieves a connection with the repository
-            connection = this.repository.getConnection();
+            RepositoryConnection connection = this.openConnection();
             try {
                 //starts a transaction
-                connection.begin();
+                TransactionHandler.beginRead(connection);
                 //performs the query
                 results = this.queryRunner.executeGraphQueryAsJSONLD(connection, query, features);
-                connection.commit();
+                TransactionHandler.endRead(connection, true);
             } catch (Exception ex) {
-                connection.rollback();
+                TransactionHandler.endRead(connection, false);
                 Logger.getLogger(AbstractKAO.class.getName()).log(Level.SEVERE, null, ex);
             } finally {
-                connection.close();
+                this.close(connection);
             }
         } catch (RepositoryException ex) {
             Logger.getLogger(AbstractKAO.class.getName()).log(Level.SEVERE, null, ex);
@@ -523,6 +1148,46 @@ public abstract class AbstractKAO {
         return results;
     }
 
+    /**
+     * Performs query in the repository, writing the results to the sink in an
+     * adapted format from JSON-LD specification, with UTF-8 encoding. With
+     * the feature <code>STREAM</code> the results are written as they arrive,
+     * without nesting and with the graph as array, and a subject whose
+     * statements are not consecutive results in many nodes. Else they are
+     * built in memory, as by {@link #executeSPARQLgraphQueryAsJSONLDString(String, Feature...)},
+     * before being written. The stream is flushed but not closed.
+     *
+     * @param query the String with the query to be performed.
+     * @param out the stream where the results are written
+     * @param features the features of the output
+     * @return <code>true</code> if all the results were written,
+     * <code>false</code> if the query failed, maybe after part of them was
+     * written, so the output must be discarded
+     */
+    public boolean executeSPARQLgraphQueryAsJSONLDString(String query, OutputStream out, Feature... features) {
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        try {
+            //retrieves a connection with the repository
+            RepositoryConnection connection = this.openConnection();
+            try {
+                //starts a transaction
+                TransactionHandler.beginRead(connection);
+                //performs the query
+                this.queryRunner.executeGraphQueryAsJSONLD(connection, query, writer, features);
+                TransactionHandler.endRead(connection, true);
+                return true;
+            } catch (Exception ex) {
+                TransactionHandler.endRead(connection, false);
+                Logger.getLogger(AbstractKAO.class.getName()).log(Level.SEVERE, null, ex);
+            } finally {
+                this.close(connection);
+            }
+        } catch (RepositoryException ex) {
+            Logger.getLogger(AbstractKAO.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return false;
+    }
+
     /**
      * Performs queries in the repository, returning a java.util.Iterator with
      * the results.
@@ -531,11 +1196,32 @@ public abstract class AbstractKAO {
      * @param contexts <code>URI</code> represent the graphs in which the query
      * will be performed.
      *
-     * @return <code>Iterator</code> a java.util.List with the results.
+     * @return <code>ResultCursor</code> a java.util.Iterator which hydrates
+     * the results in pages. The connection stays open until the cursor is
+     * exhausted or closed.
      */
-    public Iterator executeQueryAsIterator(String query, java.net.URI... contexts) {
-        //Converter to Iterator and return
-        return executeSPARQLqueryResultList(query, contexts).iterator();
+    @SuppressWarnings("unchecked")
+    public <T> ResultCursor<T> executeQueryAsIterator(String query, java.net.URI... contexts) {
+        URI[] graphs = toContexts(contexts);
+        try {
+            //retrieves a connection with the repository
+            RepositoryConnection con = this.openConnection();
+            try {
+                //starts a transaction
+                TransactionHandler.beginRead(con);
+                //performs the query
+                ResultCursor<T> cursor = (ResultCursor<T>) this.queryRunner.executeQueryAsIterator(con, query, graphs);
+                // The cursor ends the read and closes the connection when closed
+                return Session.isSessionConnection(con) ? cursor : cursor.releaseOnClose(con);
+            } catch (Exception ex) {
+                TransactionHandler.endRead(con, false);
+                this.close(con);
+                Logger.getLogger(AbstractKAO.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        } catch (RepositoryException ex) {
+            Logger.getLogger(AbstractKAO.class.getName()).log(Level.SEVERE, null, ex);
+        }
+        return ResultCursor.empty();
     }
 
     /**
@@ -550,18 +1236,18 @@ public abstract class AbstractKAO {
         boolean result = false;
         try {
             //retrieves a connection with the repository
-            connection = this.repository.getConnection();
+            RepositoryConnection connection = this.openConnection();
             try {
                 //starts a transaction
-                connection.begin();
+                TransactionHandler.beginRead(connection);
                 //performs the query
                 result = this.queryRunner.executeBooleanQuery(connection, query);
-                connection.commit();
+                TransactionHandler.endRead(connection, true);
             } catch (Exception ex) {
-                connection.rollback();
+                TransactionHandler.endRead(connection, false);
                 Logger.getLogger(AbstractKAO.class.getName()).log(Level.SEVERE, null, ex);
             } finally {
-                connection.close();
+                this.close(connection);
             }
         } catch (RepositoryException ex) {
             Logger.getLogger(AbstractKAO.class.getName()).log(Level.SEVERE, null, ex);
@@ -578,18 +1264,26 @@ public abstract class AbstractKAO {
     public void executeSPARQLUpdateQuery(String query) {
         try {
             //retrieves a connection with the repository
-            connection = this.repository.getConnection();
+            RepositoryConnection connection = this.openConnection();
             try {
                 //starts a transaction
-                connection.begin();
+                this.begin(connection);
                 //performs the query
                 this.queryRunner.executeUpdateQuery(connection, query);
-                connection.commit();
+                this.commit(connection);
+                // The changed subjects are unknown
+                Session session = Session.current();
+                if (session != null) {
+                    session.writtenEverything();
+                } else {
+                    InstanceCache.invalidateEverything();
+                    QueryResultCache.invalidateEverything();
+                }
             } catch (Exception ex) {
-                connection.rollback();
+                this.rollback(connection);
                 Logger.getLogger(AbstractKAO.class.getName()).log(Level.SEVERE, null, ex);
             } finally {
-                connection.close();
+                this.close(connection);
             }
         } catch (RepositoryException ex) {
             Logger.getLogger(AbstractKAO.class.getName()).log(Level.SEVERE, null, ex);
@@ -608,21 +1302,21 @@ public abstract class AbstractKAO {
         List<Object> datasets = null;
         try {
             //retrieves a connection with the repository
-            connection = this.repository.getConnection();
+            RepositoryConnection connection = this.openConnection();
             try {
                 //starts a transaction
-                connection.begin();
+                TransactionHandler.beginRead(connection);
                 //performs the query
                 datasets = new RetrieveOperations().getDatasets(connection, containsTerm);
-                connection.commit();
+                TransactionHandler.endRead(connection, true);
             } catch (RepositoryException ex) {
-                connection.rollback();
+                TransactionHandler.endRead(connection, false);
                 Logger.getLogger(AbstractKAO.class.getName()).log(Level.SEVERE, null, ex);
             } catch (Exception ex) {
-                connection.rollback();
+                TransactionHandler.endRead(connection, false);
                 Logger.getLogger(AbstractKAO.class.getName()).log(Level.SEVERE, null, ex);
             } finally {
-                connection.close();
+                this.close(connection);
             }
         } catch (RepositoryException ex) {
             Logger.getLogger(AbstractKAO.class.getName()).log(Level.SEVERE, null, ex);
@@ -639,6 +1333,49 @@ public abstract class AbstractKAO {
         this.classe = classe;
     }
 
+    /**
+     * Changes the number of instances written per transaction by
+     * <code>createAll</code>, <code>updateAll</code> and
+     * <code>deleteAll</code>.
+     *
+     * @param batchSize the number of instances per batch
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Retrieves the number of instances written per transaction by the bulk
+     * operations.
+     *
+     * @return the number of instances per batch
+     */
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    /**
+     * Changes the generator of the IDs used by <code>createWithUniqueID</code>,
+     * random UUIDs by default.
+     *
+     * @param idGenerator the generator, such as a
+     * <code>TimeOrderedIdGenerator</code> or a
+     * <code>BlockSequenceIdGenerator</code>
+     */
+    public void setIdGenerator(IdGenerator idGenerator) {
+        if (idGenerator == null) {
+            throw new IllegalArgumentException("The ID generator is null");
+        }
+        this.idGenerator = idGenerator;
+    }
+
+    public IdGenerator getIdGenerator() {
+        return this.idGenerator;
+    }
+
     /**
      * Retrieves the current class that will be used for CRUD operations.
      *
@@ -648,18 +1385,138 @@ public abstract class AbstractKAO {
         return this.classe;
     }
 
-    private URI[] getContexts() {
-        return contexts;
+    private Object retrieveCachedInstance(String instanceURI, URI... contexts) {
+        try {
+            return new RetrieveOperations().retrieveCachedInstance(instanceURI, classe, contexts);
+        } catch (Exception e) {
+            // Falls back to the repository
+            Logger.getLogger(AbstractKAO.class.getName()).log(Level.SEVERE, null, e);
+            return null;
+        }
     }
 
-    public void setContexts(java.net.URI[] contexts) {
-        this.contexts = new URI[]{};
-        if (contexts != null) {
-            List<URI> uris = new ArrayList<>();
-            for (java.net.URI uri : contexts) {
-                uris.add(new URIImpl(uri.toString()));
-            }
-            this.contexts = uris.toArray(this.contexts);
+    /**
+     * Drops written instances from the shared instance cache, and the query
+     * results of their graphs from the query cache or, inside a session,
+     * records them to be dropped when the session is committed.
+     */
+    private static void invalidate(Collection<String> instancesURI, boolean deletion, URI... graphs) {
+        Session session = Session.current();
+        if (session != null) {
+            session.written(instancesURI, deletion, graphs);
+            return;
+        }
+        if (deletion) {
+            InstanceCache.invalidateDeleted(instancesURI);
+        } else {
+            InstanceCache.invalidateAll(instancesURI);
+        }
+        invalidateQueries(graphs);
+    }
+
+    /**
+     * Drops the query results of written graphs from the query cache or,
+     * inside a session, records them to be dropped when the session is
+     * committed.
+     */
+    private static void invalidateQueries(URI... graphs) {
+        Session session = Session.current();
+        if (session != null) {
+            session.writtenGraphs(graphs);
+            return;
+        }
+        List<String> names = new ArrayList<>();
+        for (URI graph : graphs) {
+            names.add(graph.stringValue());
         }
+        QueryResultCache.invalidateGraphs(names);
+    }
+
+    /**
+     * Retrieves the query cache, if the results of the query may be cached:
+     * the cache is enabled, the query is not opted out and there is no
+     * session, whose results may have uncommitted changes.
+     */
+    private static QueryResultCache queryCache(String query) {
+        QueryResultCache cache = QueryResultCache.getInstance();
+        if (cache == null || Session.current() != null || !QueryResultCache.isCacheable(query)) {
+            return null;
+        }
+        return cache;
+    }
+
+    /**
+     * Retrieves the connection of the session open in the current thread,
+     * after flushing its queued writes, or a new connection if there is no
+     * session.
+     */
+    private RepositoryConnection openConnection() throws RepositoryException {
+        Session session = Session.current();
+        if (session == null) {
+            return this.repository.getConnection();
+        }
+        try {
+            session.flush();
+        } catch (RepositoryException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RepositoryException(e);
+        }
+        return session.getConnection();
+    }
+
+    // The transaction of a session is only ended by the session itself
+    private void begin(RepositoryConnection connection) throws RepositoryException {
+        if (!Session.isSessionConnection(connection)) {
+            connection.begin();
+        }
+    }
+
+    private void commit(RepositoryConnection connection) throws RepositoryException {
+        if (!Session.isSessionConnection(connection)) {
+            connection.commit();
+        }
+    }
+
+    private void rollback(RepositoryConnection connection) throws RepositoryException {
+        if (Session.isSessionConnection(connection)) {
+            Session.current().setRollbackOnly();
+        } else {
+            connection.rollback();
+        }
+    }
+
+    private void close(RepositoryConnection connection) throws RepositoryException {
+        if (!Session.isSessionConnection(connection)) {
+            connection.close();
+        }
+    }
+
+    /**
+     * Converts the graphs of a call to the repository URIs. The graphs are
+     * passed along the call instead of being kept in the KAO, so one KAO can
+     * be shared by concurrent threads.
+     */
+    private static URI[] toContexts(java.net.URI[] contexts) {
+        if (contexts == null || contexts.length == 0) {
+            return new URI[]{};
+        }
+        URI[] uris = new URI[contexts.length];
+        for (int i = 0; i < contexts.length; i++) {
+            uris[i] = new URIImpl(contexts[i].toString());
+        }
+        return uris;
+    }
+
+    /**
+     * Formerly set the graphs of the next operation, which are now passed to
+     * each operation.
+     *
+     * @param contexts ignored
+     * @deprecated the graphs are passed to each operation; this method has no
+     * effect, since keeping them in the KAO made it unsafe to share
+     */
+    @Deprecated
+    public void setContexts(java.net.URI[] contexts) {
     }
 }
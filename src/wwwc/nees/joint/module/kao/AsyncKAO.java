@@ -0,0 +1,275 @@
+package wwwc.nees.joint.module.kao;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous facade of an <code>AbstractKAO</code>: each call runs in an
+ * executor and returns a <code>CompletableFuture</code>, so independent
+ * operations can be issued together and awaited at once.
+ *
+ * <pre>
+ * AsyncKAO async = new AsyncKAO(kao, 8, 1000);
+ * CompletableFuture&lt;Person&gt; a = async.retrieveInstance(uriA);
+ * CompletableFuture&lt;Person&gt; b = async.retrieveInstance(uriB);
+ * CompletableFuture.allOf(a, b).join();
+ * </pre>
+ *
+ * At most <code>maxConcurrency</code> operations use the repository at the
+ * same time; the others wait in a queue of bounded capacity, and the calls
+ * made when it is full fail with a <code>RejectedExecutionException</code>.
+ * The operations run outside the thread of the caller, so they never join
+ * its <code>Session</code>.
+ *
+ * @author Olavo
+ */
+public class AsyncKAO {
+
+    // VARIABLES
+    // -------------------------------------------------------------------------
+    private final AbstractKAO kao;
+    private final ExecutorService executor;
+    // True if the executor was created here, and must be shut down here
+    private final boolean ownExecutor;
+    // Permits to use the repository
+    private final Semaphore permits;
+    // Operations submitted and not started yet
+    private final AtomicInteger queued = new AtomicInteger();
+    // Operations submitted and not finished yet
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final int maxInFlight;
+
+    // CONSTRUCTOR
+    // -------------------------------------------------------------------------
+    /**
+     * Creates a facade running the operations in virtual threads, if the JVM
+     * has them, or in a pool of <code>maxConcurrency</code> threads.
+     *
+     * @param kao the KAO performing the operations
+     * @param maxConcurrency the maximum number of operations using the
+     * repository at the same time
+     * @param queueCapacity the maximum number of operations waiting
+     */
+    public AsyncKAO(AbstractKAO kao, int maxConcurrency, int queueCapacity) {
+        this(kao, newDefaultExecutor(maxConcurrency), true, maxConcurrency, queueCapacity);
+    }
+
+    /**
+     * Creates a facade running the operations in the given executor, which is
+     * not shut down by the facade.
+     *
+     * @param kao the KAO performing the operations
+     * @param executor the executor of the operations
+     * @param maxConcurrency the maximum number of operations using the
+     * repository at the same time
+     * @param queueCapacity the maximum number of operations waiting
+     */
+    public AsyncKAO(AbstractKAO kao, ExecutorService executor, int maxConcurrency, int queueCapacity) {
+        this(kao, executor, false, maxConcurrency, queueCapacity);
+    }
+
+    private AsyncKAO(AbstractKAO kao, ExecutorService executor, boolean ownExecutor,
+            int maxConcurrency, int queueCapacity) {
+        if (maxConcurrency < 1 || queueCapacity < 0) {
+            throw new IllegalArgumentException("Invalid limits: " + maxConcurrency + ", " + queueCapacity);
+        }
+        this.kao = kao;
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+        this.permits = new Semaphore(maxConcurrency, true);
+        this.maxInFlight = maxConcurrency + queueCapacity;
+    }
+
+    // METHODS
+    // -------------------------------------------------------------------------
+    /**
+     * Creates the executor of virtual threads, looked up reflectively since
+     * they only exist in recent JVMs, or else a fixed pool of daemon threads.
+     */
+    private static ExecutorService newDefaultExecutor(int threads) {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            final AtomicInteger count = new AtomicInteger();
+            return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "joint-async-kao-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+
+    /**
+     * Runs an operation asynchronously, within the limits of the facade.
+     *
+     * @param operation the operation, usually calling the KAO
+     * @return the future result of the operation
+     */
+    public <T> CompletableFuture<T> submit(final Callable<T> operation) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        if (this.inFlight.incrementAndGet() > this.maxInFlight) {
+            this.inFlight.decrementAndGet();
+            future.completeExceptionally(new RejectedExecutionException("The queue of the KAO is full"));
+            return future;
+        }
+        this.queued.incrementAndGet();
+        try {
+            this.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    T result = null;
+                    Throwable failure = null;
+                    boolean started = false;
+                    try {
+                        AsyncKAO.this.permits.acquire();
+                        try {
+                            AsyncKAO.this.queued.decrementAndGet();
+                            started = true;
+                            result = operation.call();
+                        } finally {
+                            AsyncKAO.this.permits.release();
+                        }
+                    } catch (Throwable e) {
+                        failure = e;
+                    } finally {
+                        if (!started) {
+                            AsyncKAO.this.queued.decrementAndGet();
+                        }
+                        AsyncKAO.this.inFlight.decrementAndGet();
+                    }
+                    //completed without the permit, since the dependent stages
+                    //run in this thread
+                    if (failure == null) {
+                        future.complete(result);
+                    } else {
+                        future.completeExceptionally(failure);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            this.queued.decrementAndGet();
+            this.inFlight.decrementAndGet();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    public <T> CompletableFuture<T> create(final String instanceURI, final java.net.URI... contexts) {
+        return this.submit(new Callable<T>() {
+            @Override
+            public T call() {
+                return AsyncKAO.this.kao.create(instanceURI, contexts);
+            }
+        });
+    }
+
+    public <T> CompletableFuture<T> retrieveInstance(final String instanceURI, final java.net.URI... contexts) {
+        return this.submit(new Callable<T>() {
+            @Override
+            public T call() {
+                return AsyncKAO.this.kao.retrieveInstance(instanceURI, contexts);
+            }
+        });
+    }
+
+    public <T> CompletableFuture<List<T>> retrieveAllInstances(final java.net.URI... contexts) {
+        return this.submit(new Callable<List<T>>() {
+            @Override
+            public List<T> call() {
+                return AsyncKAO.this.kao.retrieveAllInstances(contexts);
+            }
+        });
+    }
+
+    public <T> CompletableFuture<T> update(final T instance, final java.net.URI... contexts) {
+        return this.submit(new Callable<T>() {
+            @Override
+            public T call() {
+                return AsyncKAO.this.kao.update(instance, contexts);
+            }
+        });
+    }
+
+    public CompletableFuture<Void> delete(final String instanceURI, final java.net.URI... contexts) {
+        return this.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                AsyncKAO.this.kao.delete(instanceURI, contexts);
+                return null;
+            }
+        });
+    }
+
+    public CompletableFuture<List<?>> executeSPARQLqueryResultList(final String query, final java.net.URI... contexts) {
+        return this.submit(new Callable<List<?>>() {
+            @Override
+            public List<?> call() {
+                return AsyncKAO.this.kao.executeSPARQLqueryResultList(query, contexts);
+            }
+        });
+    }
+
+    public CompletableFuture<Boolean> executeBooleanQuery(final String query) {
+        return this.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return AsyncKAO.this.kao.executeBooleanQuery(query);
+            }
+        });
+    }
+
+    public CompletableFuture<Void> executeSPARQLUpdateQuery(final String query) {
+        return this.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                AsyncKAO.this.kao.executeSPARQLUpdateQuery(query);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Retrieves the number of operations submitted and waiting to use the
+     * repository.
+     *
+     * @return the depth of the queue
+     */
+    public int getQueueDepth() {
+        return this.queued.get();
+    }
+
+    /**
+     * Retrieves the number of operations using the repository.
+     *
+     * @return the number of running operations
+     */
+    public int getActiveCount() {
+        return this.inFlight.get() - this.queued.get();
+    }
+
+    public AbstractKAO getKAO() {
+        return this.kao;
+    }
+
+    /**
+     * Shuts down the executor created by the facade, after the submitted
+     * operations finish. An executor given by the caller is left running.
+     */
+    public void shutdown() {
+        if (this.ownExecutor) {
+            this.executor.shutdown();
+        }
+    }
+}
@@ -1,25 +1,31 @@
 package wwwc.nees.joint.module.kao;
 
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.UUID;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
 import org.openrdf.model.ValueFactory;
 import org.openrdf.model.vocabulary.RDF;
 import org.openrdf.repository.RepositoryConnection;
 import org.openrdf.repository.RepositoryException;
 import wwwc.nees.joint.compiler.annotations.Iri;
+import wwwc.nees.joint.model.JOINTResource;
+import wwwc.nees.joint.module.kao.id.IdGenerator;
+import wwwc.nees.joint.module.kao.id.RandomIdGenerator;
+import wwwc.nees.joint.module.kao.retrieve.HydrationPlan;
 
 /**
  * @author Olavo
  */
 public class CreateOperations extends Operation{
 
-    private Method lazyLoaded;
-    private Method setURI;
-    private String classIri;
+    // Generator of the IDs when none is given
+    public static final IdGenerator DEFAULT_ID_GENERATOR = new RandomIdGenerator();
 
     // METHODS
     // -------------------------------------------------------------------------
@@ -35,34 +41,79 @@ public class CreateOperations extends Operation{
     public <T> T create(RepositoryConnection connection, String instanceURI, Class<T> clazz, URI... contexts)
             throws ClassNotFoundException, RepositoryException, NoSuchMethodException,
             IllegalAccessException, IllegalArgumentException, InvocationTargetException, InstantiationException, NullPointerException {
-        Object ob = null;
-        Class classImpl;
+        T ob = null;
         try {
-            classImpl = Class.forName(clazz.getName() + "Impl");
-            setURI = classImpl.getMethod("setURI", String.class);
-            lazyLoaded = classImpl.getMethod("setLazyLoaded", boolean.class);
-            classIri = ((Iri) clazz.getAnnotation(Iri.class)).value();
+            //Creates the object to Impl class, with the constructor kept by
+            //the plan of the class
+            ob = this.newInstance(instanceURI, clazz);
+        } catch (Exception ex) {
+            Logger.getLogger(CreateOperations.class.getName()).log(Level.SEVERE, null, ex);
+            return null;
+        }
 
-            //Creates the object to Impl class
-            ob = classImpl.newInstance();
+        //adds the designation
+        this.addDesignations(connection, Collections.singletonList(instanceURI), clazz, contexts);
 
-            ValueFactory vf = connection.getValueFactory();
+        return ob;
+    }
 
-            //creates the object
-            URI subj = vf.createURI(instanceURI);
-            URI obj = vf.createURI(classIri);
+    /**
+     * Creates a group of new instances in the repository, adding all their
+     * designations at once.
+     *
+     * @param instancesURI the URIs of the instances.
+     * @param connection receives an object of connection with the repository
+     * @param contexts <code>URI</code> represent the graphs in which the
+     * instances will be inserted.
+     * @return a <code>List</code> with the new instances.
+     */
+    public <T> List<T> createAll(RepositoryConnection connection, Collection<String> instancesURI, Class<T> clazz, URI... contexts)
+            throws Exception {
+        List<T> created = new ArrayList<>();
+        for (String instanceURI : instancesURI) {
+            created.add(this.newInstance(instanceURI, clazz));
+        }
+        //adds the designations
+        this.addDesignations(connection, instancesURI, clazz, contexts);
 
-            //adds the designation
-            connection.add(subj, RDF.TYPE, obj, contexts);
+        return created;
+    }
 
-            setURI.invoke(ob, instanceURI);
+    /**
+     * Creates the object of a new instance, without adding it in the
+     * repository.
+     *
+     * @param instanceURI a <code>String</code> with the instance uri.
+     * @param clazz the class of the instance
+     * @return T the new object.
+     */
+    public <T> T newInstance(String instanceURI, Class<T> clazz) throws Exception {
+        JOINTResource ob = (JOINTResource) HydrationPlan.forConcept(clazz).newInstance();
+        ob.setURI(instanceURI);
+        ob.setLazyLoaded(true);
+        return (T) ob;
+    }
 
-            lazyLoaded.invoke(ob, true);
-        } catch (NoSuchMethodException | SecurityException | ClassNotFoundException ex) {
-            Logger.getLogger(CreateOperations.class.getName()).log(Level.SEVERE, null, ex);
+    /**
+     * Adds the designations (<code>rdf:type</code>) of a group of instances
+     * at once.
+     *
+     * @param connection receives an object of connection with the repository
+     * @param instancesURI the URIs of the instances.
+     * @param clazz the class of the instances
+     * @param contexts <code>URI</code> represent the graphs in which the
+     * instances will be inserted.
+     */
+    public void addDesignations(RepositoryConnection connection, Collection<String> instancesURI, Class<?> clazz, URI... contexts)
+            throws RepositoryException {
+        ValueFactory vf = connection.getValueFactory();
+        URI obj = vf.createURI(((Iri) clazz.getAnnotation(Iri.class)).value());
+
+        List<Statement> statements = new ArrayList<>();
+        for (String instanceURI : instancesURI) {
+            statements.add(vf.createStatement(vf.createURI(instanceURI), RDF.TYPE, obj));
         }
-
-        return (T) ob;
+        connection.add(statements, contexts);
     }
 
     /**
@@ -77,44 +128,35 @@ public class CreateOperations extends Operation{
      * @return T the new instance.
      */
     public <T> T createWithUniqueID(RepositoryConnection connection, String ontologyURI, String instancePrefix, Class<T> clazz, URI... contexts)
-            throws ClassNotFoundException, RepositoryException, NoSuchMethodException,
-            IllegalAccessException, IllegalArgumentException, InvocationTargetException, InstantiationException, NullPointerException {
-        // Creates an object with the URI and the .class
-        Object ob = null;
-        Class classImpl;
-        try {
-            classImpl = Class.forName(clazz.getName() + "Impl");
-            setURI = classImpl.getMethod("setURI", String.class);
-            lazyLoaded = classImpl.getMethod("setLazyLoaded", boolean.class);
-            classIri = ((Iri) clazz.getAnnotation(Iri.class)).value();
-
-            //Criar o objeto da class impl
-            ob = classImpl.newInstance();
-
-            //gets connection
-            ValueFactory f = connection.getValueFactory();
-
-            //Creates an unique ID
-            UUID uuid = UUID.randomUUID();
-            String id = uuid.toString();
-
-            //creates the subject and the object
-            URI subj = f.createURI(ontologyURI + instancePrefix + id);
-            //URI obj = f.createURI(((Iri) classImpl.getAnnotation(Iri.class)).value());
-            URI obj = f.createURI(classIri);
-
-            connection.add(subj, RDF.TYPE, obj, contexts);
+            throws Exception {
+        return this.createWithUniqueID(connection, ontologyURI, instancePrefix, clazz, DEFAULT_ID_GENERATOR, contexts);
+    }
 
-            Method met = classImpl.getMethod("setURI", String.class);
-            met.invoke(ob, ontologyURI + instancePrefix + id);
+    /**
+     * Creates a new instance in the repository whose URI is the specified
+     * prefix followed by an ID of the given generator.
+     *
+     * @param connection receives an object of connection with the repository
+     * @param instancePrefix a <code>String</code> with the prefix name.
+     * @param ontologyURI a <code>String</code> with the instance name.
+     * @param idGenerator generates the unique ID
+     * @param contexts <code>URI</code> represent the graphs in which the
+     * instance will be inserted.
+     * @return T the new instance.
+     */
+    public <T> T createWithUniqueID(RepositoryConnection connection, String ontologyURI, String instancePrefix, Class<T> clazz,
+            IdGenerator idGenerator, URI... contexts) throws Exception {
+        String prefix = ontologyURI + instancePrefix;
+        //Creates an unique ID
+        String instanceURI = prefix + idGenerator.nextId(prefix);
 
-            Method met2 = classImpl.getMethod("setLazyLoaded", boolean.class);
-            met2.invoke(ob, false);
+        //the plan of the class keeps the constructor, no method is looked up
+        T ob = this.newInstance(instanceURI, clazz);
+        ((JOINTResource) ob).setLazyLoaded(false);
 
-        } catch (NoSuchMethodException | SecurityException | ClassNotFoundException ex) {
-            Logger.getLogger(CreateOperations.class.getName()).log(Level.SEVERE, null, ex);
-        }
+        //adds the designation
+        this.addDesignations(connection, Collections.singletonList(instanceURI), clazz, contexts);
 
-        return (T) ob;
+        return ob;
     }
 }
@@ -7,6 +7,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.collections4.BidiMap;
 import org.apache.commons.collections4.bidimap.DualHashBidiMap;
+import org.apache.commons.collections4.bidimap.UnmodifiableBidiMap;
 import org.openrdf.model.Literal;
 import org.openrdf.model.URI;
 import org.openrdf.model.Value;
@@ -36,12 +37,13 @@ public class DatatypeManager {
     private final String DATETIME_NS = "http://www.w3.org/2001/XMLSchema#dateTime";
     private final String URI_CLASS = "java.net.URI";
     private final String URI_NS = "http://www.w3.org/2001/XMLSchema#anyURI";
-    public BidiMap<String, Class> namespacesClass;
+    // Read only after the construction, so it is shared by all the threads
+    public final BidiMap<String, Class<?>> namespacesClass;
 
     // VARIABLES
     // -------------------------------------------------------------------------
-    // The repository static variable
-    private static DatatypeManager manager = null;
+    // The manager static variable, created with the class
+    private static final DatatypeManager manager = new DatatypeManager();
 
     // METHODS
     // -------------------------------------------------------------------------
@@ -51,29 +53,24 @@ public class DatatypeManager {
      * @return repository a Repository object already initialized
      */
     public static DatatypeManager getInstance() {
-
-        // If manager is null
-        if (manager == null) {
-            manager = new DatatypeManager();
-        }
         return manager;
     }
 
     private DatatypeManager() {
+        BidiMap<String, Class<?>> namespaces = new DualHashBidiMap<>();
         try {
-            namespacesClass = new DualHashBidiMap<>();
-            namespacesClass.put(BOOLEAN_NS, Class.forName(BOOLEAN_CLASS));
-            namespacesClass.put(INTEGER_NS, Class.forName(INTEGER_CLASS));
-            namespacesClass.put(FLOAT_NS, Class.forName(FLOAT_CLASS));
-            namespacesClass.put(DATETIME_NS, Class.forName(DATETIME_CLASS));
-            namespacesClass.put(STRING_NS, Class.forName(STRING_CLASS));
-            namespacesClass.put(DECIMAL_NS, Class.forName(DECIMAL_CLASS));
-            namespacesClass.put(DOUBLE_NS, Class.forName(DOUBLE_CLASS));
-            namespacesClass.put(URI_NS, Class.forName(URI_CLASS));
+            namespaces.put(BOOLEAN_NS, Class.forName(BOOLEAN_CLASS));
+            namespaces.put(INTEGER_NS, Class.forName(INTEGER_CLASS));
+            namespaces.put(FLOAT_NS, Class.forName(FLOAT_CLASS));
+            namespaces.put(DATETIME_NS, Class.forName(DATETIME_CLASS));
+            namespaces.put(STRING_NS, Class.forName(STRING_CLASS));
+            namespaces.put(DECIMAL_NS, Class.forName(DECIMAL_CLASS));
+            namespaces.put(DOUBLE_NS, Class.forName(DOUBLE_CLASS));
+            namespaces.put(URI_NS, Class.forName(URI_CLASS));
         } catch (ClassNotFoundException ex) {
             Logger.getLogger(DatatypeManager.class.getName()).log(Level.SEVERE, null, ex);
         }
-
+        namespacesClass = UnmodifiableBidiMap.unmodifiableBidiMap(namespaces);
     }
 
     public boolean isDatatype(String className) {
@@ -100,7 +97,7 @@ public class DatatypeManager {
 
     public Object convertDatatype(String value, String className) {
         if (className.equals(BOOLEAN_CLASS)) {
-            return Boolean.getBoolean(value);
+            return Boolean.parseBoolean(value);
         } else if (className.equals(INTEGER_CLASS)) {
             return Integer.parseInt(value);
         } else if (className.equals(FLOAT_CLASS)) {
@@ -119,7 +116,7 @@ public class DatatypeManager {
         List<Object> datatypes = new ArrayList<>();
         if (className.equals(BOOLEAN_CLASS)) {
             for (Literal lit : values) {
-                datatypes.add(Boolean.getBoolean(lit.stringValue()));
+                datatypes.add(Boolean.parseBoolean(lit.stringValue()));
             }
         } else if (className.equals(INTEGER_CLASS)) {
             for (Literal lit : values) {
@@ -152,7 +149,7 @@ public class DatatypeManager {
     public Literal convertDatatypeToLiteral(ValueFactory f, String value, String className) {
 
         if (className.equals(BOOLEAN_CLASS)) {
-            return f.createLiteral(Boolean.getBoolean(value));
+            return f.createLiteral(Boolean.parseBoolean(value));
         } else if (className.equals(INTEGER_CLASS)) {
             return f.createLiteral(Integer.parseInt(value));
         } else if (className.equals(FLOAT_CLASS)) {
@@ -5,23 +5,30 @@
  */
 package wwwc.nees.joint.module.kao;
 
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.util.regex.Pattern;
 import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.vocabulary.XMLSchema;
 import org.openrdf.query.BooleanQuery;
 import org.openrdf.query.MalformedQueryException;
 import org.openrdf.query.QueryEvaluationException;
 import org.openrdf.query.QueryLanguage;
-import org.openrdf.query.Update;
 import org.openrdf.query.UpdateExecutionException;
 import org.openrdf.repository.RepositoryConnection;
 import org.openrdf.repository.RepositoryException;
+import org.openrdf.rio.ntriples.NTriplesUtil;
 
 /**
  *
  * @author armando
  */
 public class Operation {
+
+    // An absolute URL with one of the protocols known by java.net.URL
+    private static final Pattern URL_PATTERN = Pattern.compile("(?i)(https?|ftp|file|jar|mailto):[^\\s<>\"{}|^`\\\\]*");
+    // A decimal number, with an optional exponent
+    private static final Pattern NUMBER_PATTERN = Pattern.compile("[+-]?(\\d+\\.?\\d*|\\.\\d+)([eE][+-]?\\d+)?");
     
     /**
      * Identifies wheter the object is an URL, number or string
@@ -32,57 +39,59 @@ public class Operation {
     protected static String identifyObjectType(String object) {
         StringBuilder value = new StringBuilder();
 
-        try {
+        if (URL_PATTERN.matcher(object).matches()) {
             //is an URI
-            URL isURL = new URL(object);
             value.append("<").append(object).append(">");
-        } catch (MalformedURLException malformed) {
-            try {
-                //is a number
-                Float.parseFloat(object);
-                value.append(object);
-            } catch (NumberFormatException n) {
-
-                boolean parseBoolean = Boolean.parseBoolean(object);
-                if (parseBoolean == true) {
-                    //is a boolean
-                    value.append(object);
-                } else {
-                    //is a string
-                    value.append("\"").append(object).append("\"");
-                }
-            }
+        } else if (NUMBER_PATTERN.matcher(object).matches() || "true".equalsIgnoreCase(object)) {
+            //is a number or a boolean
+            value.append(object);
+        } else {
+            //is a string
+            value.append("\"").append(NTriplesUtil.escapeString(object)).append("\"");
         }
         return value.toString();
     }
     
-    public static boolean askStatements(RepositoryConnection connection, String subject, String property, String object, URI... contexts) throws RepositoryException, MalformedQueryException, UpdateExecutionException, QueryEvaluationException {
-        //Query verify existence of triples
-        StringBuilder query = new StringBuilder();
-        //Build the query to retrieve the requested elements (?s ?p ?o) where
-        // Sets the context of the instance
-        
-        query.append("ASK {");
-        if (subject != null) {
-            query.append("VALUES ?s {<").append(subject).append(">} ");
-        }
-
-        if (property != null) {
-            query.append("VALUES ?p {<").append(property).append(">} ");
-        }
-
-        if (object != null) {
-            query.append("VALUES ?o {");            
-            String obj = identifyObjectType(object);
-            
-            query.append(obj).append("} ");
+    /**
+     * Converts the value of an object to a RDF value, identifying whether it
+     * is an URL, number, boolean or string as <code>identifyObjectType</code>.
+     *
+     * @param f the factory of the values
+     * @param object is the value of an object corresponding to the triple
+     * @return the URI or the literal
+     */
+    protected static Value toObjectValue(ValueFactory f, String object) {
+        if (URL_PATTERN.matcher(object).matches()) {
+            return f.createURI(object);
+        } else if (NUMBER_PATTERN.matcher(object).matches()) {
+            if (object.indexOf('e') >= 0 || object.indexOf('E') >= 0) {
+                return f.createLiteral(object, XMLSchema.DOUBLE);
+            }
+            return f.createLiteral(object, object.indexOf('.') >= 0 ? XMLSchema.DECIMAL : XMLSchema.INTEGER);
+        } else if ("true".equalsIgnoreCase(object)) {
+            return f.createLiteral(true);
         }
+        return f.createLiteral(object);
+    }
 
-        query.append("GRAPH ?g {?s ?p ?o.}}");
-        
-        //evaluate the graph result
-//        Update prepareGraphQuery = connection.prepareUpdate(QueryLanguage.SPARQL, query.toString());
-        BooleanQuery prepareGraphQuery = connection.prepareBooleanQuery(QueryLanguage.SPARQL, query.toString());
+    /**
+     * Asks if the repository has a quad.
+     *
+     * @param connection an object representing the connection with the database
+     * @param subject the subject, or <code>null</code> for any
+     * @param property the predicate, or <code>null</code> for any
+     * @param object the object, or <code>null</code> for any
+     * @param contexts the graphs, or none to search all of them
+     * @return <code>true</code> if a quad matches
+     */
+    public static boolean askStatements(RepositoryConnection connection, String subject, String property, String object, URI... contexts) throws RepositoryException, MalformedQueryException, UpdateExecutionException, QueryEvaluationException {
+        ValueFactory f = connection.getValueFactory();
+        BooleanQuery prepareGraphQuery = connection.prepareBooleanQuery(QueryLanguage.SPARQL,
+                QueryTemplates.askStatements(
+                        (subject == null) ? null : f.createURI(subject),
+                        (property == null) ? null : f.createURI(property),
+                        (object == null) ? null : toObjectValue(f, object),
+                        contexts));
         return prepareGraphQuery.evaluate();
     }
 
@@ -0,0 +1,104 @@
+package wwwc.nees.joint.module.kao;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import org.openrdf.model.Literal;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.datatypes.XMLDatatypeUtil;
+import org.openrdf.rio.ntriples.NTriplesUtil;
+
+/**
+ * Builds the SPARQL queries over the quads of the repository. The given
+ * values are written as <code>VALUES</code> blocks, escaped with
+ * <code>NTriplesUtil</code>, so the graphs are bound before the
+ * <code>GRAPH</code> pattern is joined. The values are not set with
+ * <code>setBinding</code>: the Virtuoso driver substitutes the bindings in the
+ * text of the query, so the server parses each query again anyway, and the
+ * texts are not cached.
+ *
+ * @author Olavo
+ */
+public final class QueryTemplates {
+
+    private QueryTemplates() {
+    }
+
+    // METHODS
+    // -------------------------------------------------------------------------
+    /**
+     * Builds the query selecting the quads (?s ?p ?o ?g) matching the given
+     * parts.
+     *
+     * @param subject the subject, or <code>null</code> for any
+     * @param property the predicate, or <code>null</code> for any
+     * @param object the object, or <code>null</code> for any; a numeric
+     * literal matches the literals with the same value and any numeric
+     * datatype, and the plain literal with the same text
+     * @param contexts the graphs, or none to search all of them
+     * @return the text of the query
+     */
+    public static String selectStatements(Value subject, Value property, Value object, URI... contexts) {
+        return build("SELECT ?s ?p ?o ?g WHERE {", subject, property, object, contexts);
+    }
+
+    /**
+     * Builds the query asking if a quad matches the given parts.
+     *
+     * @see #selectStatements(Value, Value, Value, URI...)
+     */
+    public static String askStatements(Value subject, Value property, Value object, URI... contexts) {
+        return build("ASK {", subject, property, object, contexts);
+    }
+
+    /**
+     * Builds the update deleting the quads matching the given parts.
+     *
+     * @see #selectStatements(Value, Value, Value, URI...)
+     */
+    public static String deleteStatements(Value subject, Value property, Value object, URI... contexts) {
+        return build("DELETE {GRAPH ?g {?s ?p ?o.}} WHERE {", subject, property, object, contexts);
+    }
+
+    private static String build(String head, Value subject, Value property, Value object, URI... contexts) {
+        StringBuilder query = new StringBuilder(head).append(' ');
+        if (contexts != null && contexts.length != 0) {
+            appendValues(query, "g", Arrays.asList(contexts));
+        }
+        if (subject != null) {
+            appendValues(query, "s", Collections.singletonList(subject));
+        }
+        if (property != null) {
+            appendValues(query, "p", Collections.singletonList(property));
+        }
+        boolean numeric = object instanceof Literal && ((Literal) object).getDatatype() != null
+                && XMLDatatypeUtil.isNumericDatatype(((Literal) object).getDatatype());
+        if (object != null && !numeric) {
+            appendValues(query, "o", Collections.singletonList(object));
+        }
+        query.append("GRAPH ?g {?s ?p ?o.}");
+        if (numeric) {
+            //compares the values, since the stored literal may have another
+            //numeric datatype (xsd:int, xsd:float...) or be a plain string
+            query.append(" FILTER(?o = ").append(NTriplesUtil.toNTriplesString(object))
+                    .append(" || ?o = \"").append(NTriplesUtil.escapeString(object.stringValue())).append("\")");
+        }
+        return query.append('}').toString();
+    }
+
+    /**
+     * Appends a <code>VALUES</code> block, escaping the values.
+     *
+     * @param query the query being built
+     * @param variable the name of the variable
+     * @param values the values
+     */
+    public static void appendValues(StringBuilder query, String variable, Collection<? extends Value> values) {
+        query.append("VALUES ?").append(variable).append(" {");
+        for (Value value : values) {
+            query.append(' ').append(NTriplesUtil.toNTriplesString(value));
+        }
+        query.append("} ");
+    }
+}
@@ -1,14 +1,14 @@
 package wwwc.nees.joint.module.kao;
 
-import java.net.MalformedURLException;
-import java.net.URL;
-import java.util.logging.Level;
-import java.util.logging.Logger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import org.openrdf.model.Resource;
 import org.openrdf.model.URI;
 import org.openrdf.model.ValueFactory;
 import org.openrdf.query.MalformedQueryException;
-import org.openrdf.query.QueryEvaluationException;
 import org.openrdf.query.QueryLanguage;
 import org.openrdf.query.Update;
 import org.openrdf.query.UpdateExecutionException;
@@ -62,7 +62,8 @@ public class RemoveOperations extends Operation {
     }
 
     /**
-     * Removes an desired quad in the repository using SPARQL Update
+     * Removes an desired quad in the repository using SPARQL Update, with a
+     * single request (deleting a missing quad has no effect).
      *
      * @param connection an object representing the connection with the database
      * @param subject representing the subject corresponding in a quad.
@@ -72,63 +73,66 @@ public class RemoveOperations extends Operation {
      * removed
      */
     public static <T> void removeStatements(RepositoryConnection connection, String subject, String property, String object, URI... contexts) throws RepositoryException, MalformedQueryException, UpdateExecutionException {
-        //Query to retrieve the informations (?s ?p ?o)
-        StringBuilder query = new StringBuilder();
-        //Build the query to retrieve the requested elements (?s ?p ?o) where
-        // Sets the context of the instance
-
-        //bool to validate existence of statements
-        boolean existsStatements = true;
+        ValueFactory f = connection.getValueFactory();
+        Update prepareGraphQuery = connection.prepareUpdate(QueryLanguage.SPARQL,
+                QueryTemplates.deleteStatements(
+                        (subject == null) ? null : f.createURI(subject),
+                        (property == null) ? null : f.createURI(property),
+                        (object == null) ? null : toObjectValue(f, object),
+                        contexts));
+
+        prepareGraphQuery.execute();
+    }
 
-        try {
-            existsStatements = askStatements(connection, subject, property, object, contexts);
-        } catch (QueryEvaluationException ex) {
-            Logger.getLogger(RemoveOperations.class.getName()).log(Level.SEVERE, null, ex);
+    /**
+     * Removes a group of instances of the repository with a single SPARQL
+     * Update request, deleting the quads where they are the subject or the
+     * object.
+     *
+     * @param connection an object representing the connection with the database
+     * @param instancesURI the URIs of the instances
+     * @param contexts an array of URIs that represent the contexts where
+     * statements will be removed
+     */
+    public void removeAll(RepositoryConnection connection, Collection<String> instancesURI, URI... contexts)
+            throws RepositoryException, MalformedQueryException, UpdateExecutionException {
+        if (instancesURI.isEmpty()) {
+            return;
         }
-        
-        if (existsStatements) {
-            query.append("DELETE {");
-            if (contexts.length == 0) {
-                query.append("GRAPH ?g {?s ?p ?o.}");
-            } else {
-                for (URI context : contexts) {
-                    query.append("GRAPH <").append(context.stringValue()).append("> {?s ?p ?o.}");
-                }
-            }
-            query.append("} WHERE {");
-            if (subject != null) {
-                query.append("VALUES ?s {<").append(subject).append(">} ");
-            }
-
-            if (property != null) {
-                query.append("VALUES ?p {<").append(property).append(">} ");
-            }
-
-            if (object != null) {
-                query.append("VALUES ?o {");
-                String obj = identifyObjectType(object);
-                query.append(obj).append("} ");
-            }
-
-            query.append("GRAPH ?g {?s ?p ?o.}}");
+        ValueFactory f = connection.getValueFactory();
+        StringBuilder graphs = new StringBuilder();
+        if (contexts.length != 0) {
+            QueryTemplates.appendValues(graphs, "g", Arrays.asList(contexts));
+        }
+        List<URI> uris = new ArrayList<>();
+        for (String instanceURI : instancesURI) {
+            uris.add(f.createURI(instanceURI));
+        }
+        StringBuilder subjects = new StringBuilder();
+        QueryTemplates.appendValues(subjects, "s", uris);
+        StringBuilder objects = new StringBuilder();
+        QueryTemplates.appendValues(objects, "o", uris);
 
-            System.out.println(query.toString());
-            //evaluate the graph result
-            Update prepareGraphQuery = connection.prepareUpdate(QueryLanguage.SPARQL, query.toString());
+        StringBuilder query = new StringBuilder();
+        query.append("DELETE {GRAPH ?g {?s ?p ?o.}} WHERE {").append(graphs)
+                .append(subjects).append("GRAPH ?g {?s ?p ?o.}} ;\n");
+        query.append("DELETE {GRAPH ?g {?s ?p ?o.}} WHERE {").append(graphs)
+                .append(objects).append("GRAPH ?g {?s ?p ?o.}}");
 
-            prepareGraphQuery.execute();
-        }
+        Update prepareUpdate = connection.prepareUpdate(QueryLanguage.SPARQL, query.toString());
+        prepareUpdate.execute();
     }
 
     /**
-     * Removes the desired instance of the repository using SPARQL Update
+     * Removes the desired instance of the repository using SPARQL Update,
+     * deleting the quads where it is the subject or the object with a single
+     * request.
      *
      * @param instanceURI an <code>Object</code> representing the instance.
      * @param connection an object representing the connection with the database
      * @param contexts an array of URIs that represent the contexts where
      */
     public void remove_SPARQLUpdate(RepositoryConnection connection, String instanceURI, URI... contexts) throws RepositoryException, MalformedQueryException, UpdateExecutionException {
-        removeStatements(connection, instanceURI, null, null, contexts);
-        removeStatements(connection, null, null, instanceURI, contexts);
+        this.removeAll(connection, Collections.singletonList(instanceURI), contexts);
     }
 }
@@ -0,0 +1,492 @@
+package wwwc.nees.joint.module.kao;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.openrdf.model.URI;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import wwwc.nees.joint.model.JOINTResource;
+import wwwc.nees.joint.module.kao.cache.InstanceCache;
+import wwwc.nees.joint.module.kao.cache.QueryResultCache;
+
+/**
+ * Unit of work spanning many KAO operations: it keeps a single connection and
+ * transaction open, bound to the thread which opened it, so every
+ * <code>AbstractKAO</code> used by that thread shares them. The creations,
+ * updates and deletions are queued and flushed in batches before the next
+ * read and when the session is committed.
+ *
+ * <pre>
+ * try (Session session = kao.openSession()) {
+ *     Person p = kao.retrieveInstance(uri);
+ *     p.setFoafAge(22);
+ *     kao.update(p);
+ *     session.commit();
+ * }
+ * </pre>
+ *
+ * Closing a session without committing it discards its changes. The session
+ * also keeps an identity map: while its transaction lasts, retrieving the same
+ * URI in the same graphs, directly or through the references of other
+ * instances, returns the same object without querying the repository.
+ *
+ * @author Olavo
+ */
+public class Session implements Closeable {
+
+    // VARIABLES
+    // -------------------------------------------------------------------------
+    // Session bound to each thread
+    private static final ThreadLocal<Session> CURRENT = new ThreadLocal<>();
+
+    private final RepositoryConnection connection;
+    private final TransactionHandler transaction;
+    // Writes not sent to the repository yet, in the order they were made
+    private final List<PendingWrite> pending = new ArrayList<>();
+    // Graphs in which each instance is already queued for update since the
+    // last flush or the last deletion of its URI
+    private final Map<Object, Set<String>> queuedUpdates = new IdentityHashMap<>();
+    // State of the instances saved in the transaction before they were
+    // flushed, restored if it is rolled back
+    private final Map<Object, JOINTResource> savedStates = new IdentityHashMap<>();
+    // Instances retrieved in the session, by URI and then by graphs
+    private final Map<String, Map<String, Object>> identityMap = new HashMap<>();
+    // URIs written in the transaction, dropped from the shared instance cache
+    // when it is committed
+    private final Set<String> written = new HashSet<>();
+    private final Set<String> deleted = new HashSet<>();
+    // Graphs written in the transaction, whose cached query results are
+    // dropped when it is committed
+    private final Set<String> writtenGraphs = new HashSet<>();
+    private boolean writtenAllGraphs;
+    private boolean writtenEverything;
+    private boolean flushing;
+    private boolean rollbackOnly;
+    private boolean closed;
+
+    // CONSTRUCTOR
+    // -------------------------------------------------------------------------
+    private Session(RepositoryConnection connection) throws RepositoryException {
+        this.connection = connection;
+        this.transaction = new TransactionHandler(connection);
+        this.transaction.beginTransaction();
+    }
+
+    // METHODS
+    // -------------------------------------------------------------------------
+    /**
+     * Opens a session in the current thread.
+     *
+     * @param repository the repository
+     * @return the new session
+     * @throws RepositoryException if the connection cannot be opened
+     * @throws IllegalStateException if the thread already has a session
+     */
+    public static Session open(Repository repository) throws RepositoryException {
+        if (CURRENT.get() != null) {
+            throw new IllegalStateException("A session is already open in this thread");
+        }
+        RepositoryConnection connection = repository.getConnection();
+        try {
+            Session session = new Session(connection);
+            CURRENT.set(session);
+            return session;
+        } catch (RepositoryException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Retrieves the session open in the current thread.
+     *
+     * @return the session or <code>null</code> if there is none
+     */
+    public static Session current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Checks if a connection belongs to the session open in the current
+     * thread, in which case it must not be committed or closed by the
+     * operations.
+     *
+     * @param connection the connection
+     * @return <code>true</code> if it is the connection of the session
+     */
+    static boolean isSessionConnection(RepositoryConnection connection) {
+        Session session = CURRENT.get();
+        return session != null && session.connection == connection;
+    }
+
+    public RepositoryConnection getConnection() {
+        return this.connection;
+    }
+
+    /**
+     * Retrieves an instance already retrieved or created in the session.
+     *
+     * @param instanceURI the URI of the instance
+     * @param contexts the graphs in which it was retrieved
+     * @return the instance or <code>null</code> if it is not in the session
+     */
+    public Object lookup(String instanceURI, URI... contexts) {
+        Map<String, Object> instances = this.identityMap.get(instanceURI);
+        return (instances == null) ? null : instances.get(contextsKey(contexts));
+    }
+
+    /**
+     * Keeps an instance in the identity map of the session, so the next
+     * lookups of its URI in the same graphs return it.
+     *
+     * @param instance the instance
+     * @param contexts the graphs in which it was retrieved
+     */
+    public void register(Object instance, URI... contexts) {
+        String instanceURI = instance.toString();
+        Map<String, Object> instances = this.identityMap.get(instanceURI);
+        if (instances == null) {
+            instances = new HashMap<>();
+            this.identityMap.put(instanceURI, instances);
+        }
+        instances.put(contextsKey(contexts), instance);
+    }
+
+    private static String contextsKey(URI... contexts) {
+        if (contexts == null || contexts.length == 0) {
+            return "";
+        }
+        //the order of the graphs does not matter
+        String[] names = new String[contexts.length];
+        for (int i = 0; i < contexts.length; i++) {
+            names[i] = contexts[i].stringValue();
+        }
+        Arrays.sort(names);
+        StringBuilder key = new StringBuilder();
+        for (String name : names) {
+            key.append(name).append(' ');
+        }
+        return key.toString();
+    }
+
+    <T> T queueCreate(String instanceURI, Class<T> clazz, URI... contexts) throws Exception {
+        this.checkOpen();
+        T instance = new CreateOperations().newInstance(instanceURI, clazz);
+        this.register(instance, contexts);
+        this.pending.add(new PendingWrite(PendingWrite.CREATE, clazz, instanceURI, contexts));
+        this.writtenGraphs(contexts);
+        return instance;
+    }
+
+    void queueUpdate(Object instance, Class<?> clazz, URI... contexts) {
+        this.checkOpen();
+        //the changes are read when flushed, so one entry per graphs is enough
+        Set<String> queued = this.queuedUpdates.get(instance);
+        if (queued == null) {
+            queued = new HashSet<>();
+            this.queuedUpdates.put(instance, queued);
+        }
+        if (queued.add(contextsKey(contexts))) {
+            this.pending.add(new PendingWrite(PendingWrite.UPDATE, clazz, instance, contexts));
+        }
+        this.written.add(instance.toString());
+        this.writtenGraphs(contexts);
+    }
+
+    void queueDelete(String instanceURI, URI... contexts) {
+        this.checkOpen();
+        this.identityMap.remove(instanceURI);
+        //the updates queued after the deletion are written again after it
+        Iterator<Object> queued = this.queuedUpdates.keySet().iterator();
+        while (queued.hasNext()) {
+            if (instanceURI.equals(queued.next().toString())) {
+                queued.remove();
+            }
+        }
+        this.pending.add(new PendingWrite(PendingWrite.DELETE, null, instanceURI, contexts));
+        this.deleted.add(instanceURI);
+        this.writtenGraphs(contexts);
+    }
+
+    /**
+     * Records instances written directly through the connection of the
+     * session, to be dropped from the shared caches on commit.
+     *
+     * @param instancesURI the URIs of the instances
+     * @param deletion <code>true</code> if the instances were deleted
+     * @param contexts the written graphs
+     */
+    void written(Collection<String> instancesURI, boolean deletion, URI... contexts) {
+        (deletion ? this.deleted : this.written).addAll(instancesURI);
+        this.writtenGraphs(contexts);
+    }
+
+    /**
+     * Records graphs written through the connection of the session, whose
+     * cached query results are dropped on commit.
+     *
+     * @param contexts the written graphs, all of them if it is empty
+     */
+    void writtenGraphs(URI... contexts) {
+        if (contexts == null || contexts.length == 0) {
+            this.writtenAllGraphs = true;
+            return;
+        }
+        for (URI context : contexts) {
+            this.writtenGraphs.add(context.stringValue());
+        }
+    }
+
+    /**
+     * Records a write whose subjects are unknown, such as a SPARQL update,
+     * so the whole shared instance cache is dropped on commit.
+     */
+    void writtenEverything() {
+        this.writtenEverything = true;
+    }
+
+    /**
+     * Sends the queued writes to the repository, in batches of consecutive
+     * writes of the same kind, without committing them. The updated instances
+     * are marked as saved once all the writes are sent, and get their
+     * previous state back if the transaction is rolled back.
+     *
+     * @throws Exception any exception, after which the session can only be
+     * rolled back
+     */
+    public void flush() throws Exception {
+        this.checkOpen();
+        if (this.flushing || this.pending.isEmpty()) {
+            return;
+        }
+        this.flushing = true;
+        try {
+            //an instance queued in many graphs writes the same changes in
+            //each of them
+            UpdateOperations updateOp = new UpdateOperations();
+            Set<String> deletedURIs = new HashSet<>();
+            int i = 0;
+            while (i < this.pending.size()) {
+                PendingWrite first = this.pending.get(i);
+                int j = i + 1;
+                while (j < this.pending.size() && first.sameBatch(this.pending.get(j))) {
+                    j++;
+                }
+                this.execute(first, this.pending.subList(i, j), updateOp, deletedURIs);
+                i = j;
+            }
+            updateOp.markSaved();
+            this.pending.clear();
+            this.queuedUpdates.clear();
+        } catch (Exception e) {
+            this.rollbackOnly = true;
+            throw e;
+        } finally {
+            this.flushing = false;
+        }
+    }
+
+    private void execute(PendingWrite first, List<PendingWrite> batch, UpdateOperations updateOp,
+            Set<String> deletedURIs) throws Exception {
+        List<Object> targets = new ArrayList<>();
+        List<String> uris = new ArrayList<>();
+        for (PendingWrite write : batch) {
+            targets.add(write.target);
+            uris.add(write.target.toString());
+        }
+        switch (first.kind) {
+            case PendingWrite.CREATE:
+                new CreateOperations().addDesignations(this.connection, uris, first.clazz, first.contexts);
+                break;
+            case PendingWrite.UPDATE:
+                for (Object target : targets) {
+                    JOINTResource resource = (JOINTResource) target;
+                    if (!this.savedStates.containsKey(target)) {
+                        this.savedStates.put(target, resource.saveState());
+                    }
+                    //the values deleted before are not in the repository
+                    if (deletedURIs.contains(target.toString())) {
+                        resource.forgetLoadedValues();
+                    }
+                }
+                updateOp.writeAll(this.connection, targets, first.clazz, first.contexts);
+                break;
+            default:
+                new RemoveOperations().removeAll(this.connection, uris, first.contexts);
+                deletedURIs.addAll(uris);
+        }
+    }
+
+    /**
+     * Marks the session so it can only be rolled back, after an operation
+     * failed inside it.
+     */
+    void setRollbackOnly() {
+        this.rollbackOnly = true;
+    }
+
+    /**
+     * Flushes the queued writes and commits the transaction, starting a new
+     * one for the next operations of the session.
+     *
+     * @throws RepositoryException if the writes cannot be saved, in which
+     * case the transaction is rolled back
+     */
+    public void commit() throws RepositoryException {
+        this.checkOpen();
+        try {
+            this.flush();
+        } catch (RepositoryException e) {
+            this.rollback();
+            throw e;
+        } catch (Exception e) {
+            this.rollback();
+            throw new RepositoryException(e);
+        }
+        if (this.rollbackOnly) {
+            this.rollback();
+            throw new RepositoryException("An operation of the session failed, its changes were rolled back");
+        }
+        try {
+            this.transaction.commitChanges();
+        } catch (RepositoryException e) {
+            this.rollback();
+            throw e;
+        }
+        this.savedStates.clear();
+        this.identityMap.clear();
+        //the other threads may have cached the previous state
+        if (this.writtenEverything) {
+            InstanceCache.invalidateEverything();
+            QueryResultCache.invalidateEverything();
+        } else {
+            InstanceCache.invalidateAll(this.written);
+            InstanceCache.invalidateDeleted(this.deleted);
+            if (this.writtenAllGraphs) {
+                QueryResultCache.invalidateEverything();
+            } else if (!this.writtenGraphs.isEmpty()) {
+                QueryResultCache.invalidateGraphs(this.writtenGraphs);
+            }
+        }
+        this.clearWritten();
+        this.transaction.beginTransaction();
+    }
+
+    /**
+     * Discards the queued writes and rolls back the transaction, starting a
+     * new one for the next operations of the session.
+     *
+     * @throws RepositoryException any repository exception
+     */
+    public void rollback() throws RepositoryException {
+        this.checkOpen();
+        this.pending.clear();
+        this.queuedUpdates.clear();
+        this.restoreStates();
+        this.rollbackOnly = false;
+        this.identityMap.clear();
+        this.clearWritten();
+        this.transaction.rollback();
+        this.transaction.beginTransaction();
+    }
+
+    /**
+     * Closes the session, discarding the changes not committed, and releases
+     * its connection.
+     */
+    @Override
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        if (CURRENT.get() == this) {
+            CURRENT.remove();
+        }
+        this.pending.clear();
+        this.queuedUpdates.clear();
+        this.restoreStates();
+        this.identityMap.clear();
+        this.clearWritten();
+        try {
+            this.transaction.rollback();
+        } catch (RepositoryException e) {
+            Logger.getLogger(Session.class.getName()).log(Level.SEVERE, null, e);
+        } finally {
+            try {
+                this.connection.close();
+            } catch (RepositoryException e) {
+                Logger.getLogger(Session.class.getName()).log(Level.SEVERE, null, e);
+            }
+        }
+    }
+
+    /**
+     * Gives the instances flushed in the transaction their state before it,
+     * since their changes were not saved.
+     */
+    private void restoreStates() {
+        for (Map.Entry<Object, JOINTResource> saved : this.savedStates.entrySet()) {
+            ((JOINTResource) saved.getKey()).restoreState(saved.getValue());
+        }
+        this.savedStates.clear();
+    }
+
+    private void clearWritten() {
+        this.written.clear();
+        this.deleted.clear();
+        this.writtenGraphs.clear();
+        this.writtenAllGraphs = false;
+        this.writtenEverything = false;
+    }
+
+    public boolean isOpen() {
+        return !this.closed;
+    }
+
+    private void checkOpen() {
+        if (this.closed) {
+            throw new IllegalStateException("The session is closed");
+        }
+    }
+
+    /**
+     * A write queued in the session.
+     */
+    private static final class PendingWrite {
+
+        static final int CREATE = 0;
+        static final int UPDATE = 1;
+        static final int DELETE = 2;
+
+        private final int kind;
+        private final Class<?> clazz;
+        // The instance (updates) or its URI (creations and deletions)
+        private final Object target;
+        private final URI[] contexts;
+
+        PendingWrite(int kind, Class<?> clazz, Object target, URI[] contexts) {
+            this.kind = kind;
+            this.clazz = clazz;
+            this.target = target;
+            this.contexts = contexts;
+        }
+
+        boolean sameBatch(PendingWrite other) {
+            return this.kind == other.kind && this.clazz == other.clazz
+                    && Arrays.equals(this.contexts, other.contexts);
+        }
+    }
+}
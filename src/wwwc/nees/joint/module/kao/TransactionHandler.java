@@ -15,6 +15,8 @@ public class TransactionHandler {
     // -------------------------------------------------------------------------
     // Variable to connect with the repository
     private final RepositoryConnection connection;
+    // True if the reads run in a transaction, by default they do not
+    private static volatile boolean readTransactions;
 
     // CONSTRUCTOR
     // -------------------------------------------------------------------------
@@ -55,4 +57,52 @@ public class TransactionHandler {
     public void rollback() throws RepositoryException {
         this.connection.rollback();
     }
+
+    /**
+     * Changes whether the read operations (retrievals and queries) run in a
+     * transaction. By default they run without one, avoiding its overhead and
+     * locks; with it they see a consistent snapshot, at the isolation level
+     * of the store, since Sesame 2.7 has no isolation levels to choose from.
+     *
+     * @param enabled <code>true</code> to read in transactions
+     */
+    public static void setReadTransactions(boolean enabled) {
+        readTransactions = enabled;
+    }
+
+    public static boolean isReadTransactions() {
+        return readTransactions;
+    }
+
+    /**
+     * Starts the transaction of a read operation, if the reads run in
+     * transactions and the connection is not the one of a session.
+     *
+     * @param connection the connection of the read
+     * @throws RepositoryException
+     */
+    public static void beginRead(RepositoryConnection connection) throws RepositoryException {
+        if (readTransactions && !Session.isSessionConnection(connection)) {
+            connection.begin();
+        }
+    }
+
+    /**
+     * Ends the transaction of a read operation, if it started one.
+     *
+     * @param connection the connection of the read
+     * @param commit <code>true</code> to commit it, <code>false</code> to roll
+     * it back
+     * @throws RepositoryException
+     */
+    public static void endRead(RepositoryConnection connection, boolean commit) throws RepositoryException {
+        if (Session.isSessionConnection(connection) || !connection.isActive()) {
+            return;
+        }
+        if (commit) {
+            connection.commit();
+        } else {
+            connection.rollback();
+        }
+    }
 }
@@ -2,18 +2,27 @@ package wwwc.nees.joint.module.kao;
 
 import com.sun.org.apache.xerces.internal.jaxp.datatype.XMLGregorianCalendarImpl;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import wwwc.nees.joint.compiler.annotations.Iri;
+import org.openrdf.model.BNode;
 import org.openrdf.model.Literal;
-import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
+import org.openrdf.model.Value;
 import org.openrdf.model.ValueFactory;
+import org.openrdf.query.QueryLanguage;
 import org.openrdf.repository.RepositoryConnection;
 import org.openrdf.repository.RepositoryException;
+import org.openrdf.rio.ntriples.NTriplesUtil;
 import wwwc.nees.joint.model.JOINTResource;
+import wwwc.nees.joint.module.kao.retrieve.HydrationContext;
+import wwwc.nees.joint.module.kao.retrieve.HydrationPlan;
+import wwwc.nees.joint.module.kao.retrieve.Hydrator;
 
 /**
  *
@@ -29,6 +38,8 @@ public class UpdateOperations extends Operation{
     private final String DOUBLE = "java.lang.Double";
     private final String DATE = "com.sun.org.apache.xerces.internal.jaxp.datatype.XMLGregorianCalendarImpl";
     private ValueFactory f;
+    // Instances written and not marked as saved yet, with their saved values
+    private final List<SavedInstance> written = new ArrayList<>();
 
     public boolean isDatatype(String className) {
         if (className.equals(STRING)
@@ -60,88 +71,264 @@ public class UpdateOperations extends Operation{
 
     public Object updateDettachedInstance(RepositoryConnection connection, Object instance, Class classe, URI... contexts) throws ClassNotFoundException,
             InstantiationException, IllegalAccessException, IllegalArgumentException, InvocationTargetException, RepositoryException, NoSuchMethodException, Exception {
+        this.updateAll(connection, Collections.singletonList(instance), classe, contexts);
+        return instance;
+    }
+
+    /**
+     * Saves the modified fields of a group of instances with a single SPARQL
+     * Update request, marking them as saved.
+     *
+     * @param connection receives an object of connection with the repository
+     * @param instances the instances to be saved
+     * @param classe the class of the instances
+     * @param contexts <code>URI</code> represent the graphs in which the
+     * values are saved.
+     * @return the saved instances
+     * @throws Exception any exception
+     */
+    public <T> Collection<T> updateAll(RepositoryConnection connection, Collection<T> instances, Class classe, URI... contexts)
+            throws Exception {
+        this.writeAll(connection, instances, classe, contexts);
+        this.markSaved();
+        return instances;
+    }
+
+    /**
+     * Sends the modified fields of a group of instances with a single SPARQL
+     * Update request, without changing the instances: they keep their
+     * modified fields and loaded values until {@link #markSaved()} is called,
+     * once the transaction is committed.
+     *
+     * @param connection receives an object of connection with the repository
+     * @param instances the instances to be saved
+     * @param classe the class of the instances
+     * @param contexts <code>URI</code> represent the graphs in which the
+     * values are saved.
+     * @throws Exception any exception
+     */
+    void writeAll(RepositoryConnection connection, Collection<?> instances, Class<?> classe, URI... contexts)
+            throws Exception {
         this.f = connection.getValueFactory();
 
-        URI suj = f.createURI(instance.toString());
+        //gets the cached bindings of the concrete class
+        HydrationPlan plan = HydrationPlan.forConcept(classe);
+        //converts the values of the fields, calling the generated hydrator
+        //when the concept has one
+        HydrationContext context = new HydrationContext(connection, contexts);
+
+        //triples removed and inserted, compared with the loaded values
+        StringBuilder removed = new StringBuilder();
+        StringBuilder inserted = new StringBuilder();
+        //properties whose values in the repository are unknown (the instance
+        //was not loaded from it), which have all their values removed
+        StringBuilder replaced = new StringBuilder();
+        List<Map<String, List<Value>>> saved = new ArrayList<>();
+
+        for (Object instance : instances) {
+            saved.add(this.diff(instance, plan, context, removed, replaced, inserted, contexts));
+        }
 
-        classe = Class.forName(classe.getName() + "Impl");
+        String update = this.buildUpdate(removed, replaced, inserted, contexts);
+        if (!update.isEmpty()) {
+            connection.prepareUpdate(QueryLanguage.SPARQL, update).execute();
+        }
 
-        //creates a list of statements to be inserted
-        List<Statement> updSts = new ArrayList();
+        int i = 0;
+        for (Object instance : instances) {
+            this.written.add(new SavedInstance((JOINTResource) instance, saved.get(i++), contexts));
+        }
+    }
+
+    /**
+     * Marks the instances written since the last call as saved: their saved
+     * values become the loaded values of the next update and their modified
+     * fields are erased.
+     */
+    void markSaved() {
+        for (SavedInstance saved : this.written) {
+            JOINTResource resource = saved.resource;
+            //the saved values are the loaded values of the next update in
+            //the same graphs; the values of the other graphs did not change
+            if (resource.isLoadedFrom(saved.contexts)) {
+                for (Map.Entry<String, List<Value>> entry : saved.values.entrySet()) {
+                    resource.keepLoadedValues(entry.getKey(), entry.getValue());
+                }
+            }
+            //erases inner modified fields
+            resource.setInnerModifiedFields(new ArrayList<String>());
+        }
+        this.written.clear();
+    }
+
+    /**
+     * Compares the modified fields of an instance with their loaded values,
+     * appending the differences to the update.
+     *
+     * @return the current values of the modified properties, by predicate
+     */
+    private Map<String, List<Value>> diff(Object instance, HydrationPlan plan, HydrationContext context,
+            StringBuilder removed, StringBuilder replaced, StringBuilder inserted, URI... contexts) throws Exception {
+
+        JOINTResource resource = (JOINTResource) instance;
+        boolean anyGraph = contexts.length == 0;
+        //the values loaded from other graphs tell nothing about the graphs
+        //in which the instance is saved
+        boolean loadedFromContexts = resource.isLoadedFrom(contexts);
+        String subject = NTriplesUtil.toNTriplesString(f.createURI(instance.toString()));
+        Map<String, List<Value>> saved = new HashMap<>();
 
         //retrieves all methods which were modified
-        List<String> modifiedMethods = ((JOINTResource) instance).getInnerModifiedFields();
+        List<String> modifiedMethods = resource.getInnerModifiedFields();
 
         List<String> auxModifiedMethods = new ArrayList(modifiedMethods);
+        Hydrator hydrator = plan.getHydrator();
+
         //for over these modified methods
         for (String methodName : auxModifiedMethods) {
 
-            // gets the method
-            Method method = classe.getMethod("get" + methodName);
-            
-            method.setAccessible(true);
-
-            //pega o predicado da propriedade
-            Iri iri = method.getAnnotation(Iri.class);
-            URI pred = f.createURI(iri.value());
-            
-            //connection.remove(suj, pred, null, contexts);
-            RemoveOperations.removeStatements(connection, suj.toString(), pred.toString(), null, contexts);
-            System.out.println("Removido!");
-            
-            Object returnOb = method.invoke(instance);
-
-            if (returnOb == null) { //caso de nao ter nenhuma valor a propriedade
+            List<Value> values = new ArrayList<>();
+            String predicate;
+            if (hydrator != null) {
+                predicate = hydrator.dehydrate(instance, methodName, values, context);
+            } else {
+                // gets the binding of the field
+                HydrationPlan.PropertyBinding property = plan.getField(methodName);
+                predicate = null;
+                if (property != null) {
+                    predicate = property.getPredicate();
+                    context.toValues(property.get(instance), values);
+                }
+            }
+            if (predicate == null) {
+                throw new NoSuchMethodException("get" + methodName);
+            }
+            if (saved.containsKey(predicate)) {
                 continue;
             }
+            saved.put(predicate, values);
 
-            //pega o parametro da propriedade
-            Class parameterClass = returnOb.getClass();
-            String parameterClassName = parameterClass.getName();
-
-            if (!parameterClassName.equals("java.util.HashSet")) {// caso de ser uma propriedade functional
+            //pega o predicado da propriedade
+            String pred = NTriplesUtil.toNTriplesString(f.createURI(predicate));
 
-                if (this.isDatatype(parameterClassName)) {
-                    Literal litObj = this.convertDatatype(returnOb.toString(), parameterClassName);
-                    updSts.add(f.createStatement(suj, pred, litObj));
-                } else {
-                    URI uriObj = f.createURI(returnOb.toString());
-                    updSts.add(f.createStatement(suj, pred, uriObj));
-                }
-            } else { // caso de ser multi valorado
-
-                Set<Object> returnSet = (Set<Object>) returnOb;
-                if (returnSet.isEmpty()) {
-                    continue;
-                } else {
-                    parameterClass = returnSet.iterator().next().getClass();
-                    parameterClassName = parameterClass.getName();
+            Set<Value> current = new LinkedHashSet<>(values);
+            List<Value> loaded = loadedFromContexts ? resource.loadedValues(predicate) : null;
+            Set<Value> previous = (loaded == null) ? null : new LinkedHashSet<>(loaded);
+            if (previous != null && !this.containsBNode(previous, current)) {
+                //only the values added or removed since the instance was loaded
+                for (Value value : previous) {
+                    if (!current.contains(value)) {
+                        this.appendTriple(removed, subject, pred, value, anyGraph);
+                    }
                 }
-                if (this.isDatatype(parameterClassName)) {
-                    //percorre a lista
-                    for (Object ob : returnSet) {
+                current.removeAll(previous);
+            } else {
+                replaced.append("(").append(subject).append(" ").append(pred).append(") ");
+            }
 
-                        Literal litObj = this.convertDatatype(ob.toString(), parameterClassName);
+            //caso de nao ter nenhuma valor a propriedade, nada e inserido
+            for (Value value : current) {
+                this.appendTriple(inserted, subject, pred, value, false);
+            }
+        }
+        return saved;
+    }
 
-                        updSts.add(f.createStatement(suj, pred, litObj));
-                    }
-                } else {
-                    //percorre a lista
-                    for (Object ob : returnSet) {
+    private boolean containsBNode(Set<Value> previous, Set<Value> current) {
+        //blank nodes cannot be written in DELETE DATA
+        for (Value value : previous) {
+            if (value instanceof BNode && !current.contains(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-                        URI uriObj = f.createURI(ob.toString());
+    private void appendTriple(StringBuilder triples, String subject, String pred, Value value, boolean row) {
+        String object = NTriplesUtil.toNTriplesString(value);
+        if (row) {
+            //a row of the VALUES clause
+            triples.append("(").append(subject).append(" ").append(pred).append(" ")
+                    .append(object).append(") ");
+        } else {
+            triples.append(subject).append(" ").append(pred).append(" ").append(object).append(" . ");
+        }
+    }
 
-                        updSts.add(f.createStatement(suj, pred, uriObj));
+    /**
+     * Builds a single SPARQL Update request with the removals and insertions
+     * of the modified properties.
+     */
+    private String buildUpdate(StringBuilder removed, StringBuilder replaced,
+            StringBuilder inserted, URI... contexts) {
 
-                    }
+        List<String> operations = new ArrayList<>();
+        if (removed.length() > 0) {
+            if (contexts.length == 0) {
+                //the values are removed from the default graph, in which
+                //they are inserted
+                operations.add("DELETE { ?s ?p ?o } WHERE { VALUES (?s ?p ?o) { "
+                        + removed + "} ?s ?p ?o }");
+            } else {
+                operations.add("DELETE DATA { " + this.inGraphs(removed, contexts) + "}");
+            }
+        }
+        if (replaced.length() > 0) {
+            if (contexts.length == 0) {
+                //the values are replaced in the default graph, in which they
+                //are inserted
+                operations.add("DELETE { ?s ?p ?o } WHERE { VALUES (?s ?p) { "
+                        + replaced + "} ?s ?p ?o }");
+            } else {
+                StringBuilder delete = new StringBuilder("DELETE { GRAPH ?g { ?s ?p ?o } } WHERE { VALUES ?g { ");
+                for (URI context : contexts) {
+                    delete.append(NTriplesUtil.toNTriplesString(context)).append(" ");
                 }
+                delete.append("} VALUES (?s ?p) { ").append(replaced).append("} GRAPH ?g { ?s ?p ?o } }");
+                operations.add(delete.toString());
+            }
+        }
+        if (inserted.length() > 0) {
+            if (contexts.length == 0) {
+                operations.add("INSERT DATA { " + inserted + "}");
+            } else {
+                operations.add("INSERT DATA { " + this.inGraphs(inserted, contexts) + "}");
             }
         }
-        connection.add((Iterable) updSts, contexts);
 
-        //erases inner modified fields
-        ((JOINTResource) instance).setInnerModifiedFields(new ArrayList<String>());
+        StringBuilder update = new StringBuilder();
+        for (String operation : operations) {
+            if (update.length() > 0) {
+                update.append(" ;\n");
+            }
+            update.append(operation);
+        }
+        return update.toString();
+    }
 
-        return instance;
+    private String inGraphs(StringBuilder triples, URI... contexts) {
+        StringBuilder data = new StringBuilder();
+        for (URI context : contexts) {
+            data.append("GRAPH ").append(NTriplesUtil.toNTriplesString(context)).append(" { ")
+                    .append(triples).append("} ");
+        }
+        return data.toString();
+    }
+
+    /**
+     * An instance written in the repository, with the current values of its
+     * modified properties.
+     */
+    private static final class SavedInstance {
+
+        private final JOINTResource resource;
+        private final Map<String, List<Value>> values;
+        private final URI[] contexts;
+
+        SavedInstance(JOINTResource resource, Map<String, List<Value>> values, URI[] contexts) {
+            this.resource = resource;
+            this.values = values;
+            this.contexts = contexts;
+        }
     }
 }
@@ -0,0 +1,252 @@
+package wwwc.nees.joint.module.kao.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Thread safe map bounded in size, and optionally in the total weight of its
+ * values, which evicts the least recently used entries when it is full and
+ * drops the entries older than a time to live. It counts the hits, misses and
+ * evictions of its lookups.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ * @author Olavo
+ */
+public class ExpiringLRUCache<K, V> {
+
+    // VARIABLES
+    // -------------------------------------------------------------------------
+    private final int maxSize;
+    private final long maxWeight;
+    private final ToLongFunction<? super V> weigher;
+    private final long ttlNanos;
+    private final LinkedHashMap<K, Entry<V>> entries;
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    // CONSTRUCTOR
+    // -------------------------------------------------------------------------
+    /**
+     * Creates an empty cache.
+     *
+     * @param maxSize the maximum number of entries
+     * @param ttl the time to live of the entries, or 0 if they do not expire
+     * @param unit the unit of the time to live
+     */
+    public ExpiringLRUCache(int maxSize, long ttl, TimeUnit unit) {
+        this(maxSize, Long.MAX_VALUE, null, ttl, unit);
+    }
+
+    /**
+     * Creates an empty cache bounded in the total weight of its values.
+     *
+     * @param maxSize the maximum number of entries
+     * @param maxWeight the maximum total weight of the values
+     * @param weigher the function which estimates the weight of a value
+     * @param ttl the time to live of the entries, or 0 if they do not expire
+     * @param unit the unit of the time to live
+     */
+    public ExpiringLRUCache(int maxSize, long maxWeight, ToLongFunction<? super V> weigher, long ttl, TimeUnit unit) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Cache size must be positive: " + maxSize);
+        }
+        if (maxWeight < 1) {
+            throw new IllegalArgumentException("Cache weight must be positive: " + maxWeight);
+        }
+        this.maxSize = maxSize;
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.ttlNanos = unit.toNanos(ttl);
+        //access order, so the eldest entry is the least recently used
+        this.entries = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() > ExpiringLRUCache.this.maxSize) {
+                    ExpiringLRUCache.this.evictions++;
+                    ExpiringLRUCache.this.weight -= eldest.getValue().weight;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // METHODS
+    // -------------------------------------------------------------------------
+    /**
+     * Retrieves the value of a key, counting a hit or a miss.
+     *
+     * @param key the key
+     * @return the value or <code>null</code> if it is absent or expired
+     */
+    public synchronized V get(K key) {
+        V value = this.peek(key);
+        if (value == null) {
+            this.misses++;
+        } else {
+            this.hits++;
+        }
+        return value;
+    }
+
+    /**
+     * Retrieves the value of a key without counting it in the statistics.
+     *
+     * @param key the key
+     * @return the value or <code>null</code> if it is absent or expired
+     */
+    public synchronized V peek(K key) {
+        Entry<V> entry = this.entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (this.isExpired(entry, System.nanoTime())) {
+            this.entries.remove(key);
+            this.weight -= entry.weight;
+            this.evictions++;
+            return null;
+        }
+        return entry.value;
+    }
+
+    /**
+     * Adds or replaces the value of a key, evicting the least recently used
+     * entries if the cache is full. A value heavier than the cache is not
+     * kept.
+     *
+     * @param key the key
+     * @param value the value
+     */
+    public synchronized void put(K key, V value) {
+        long valueWeight = (this.weigher == null) ? 0 : this.weigher.applyAsLong(value);
+        Entry<V> previous = this.entries.remove(key);
+        if (previous != null) {
+            this.weight -= previous.weight;
+        }
+        if (valueWeight > this.maxWeight) {
+            return;
+        }
+        this.weight += valueWeight;
+        this.entries.put(key, new Entry<>(value, System.nanoTime(), valueWeight));
+        //the least recently used entries are the first ones
+        for (Iterator<Entry<V>> it = this.entries.values().iterator(); this.weight > this.maxWeight && it.hasNext();) {
+            this.weight -= it.next().weight;
+            it.remove();
+            this.evictions++;
+        }
+    }
+
+    /**
+     * Removes the value of a key.
+     *
+     * @param key the key
+     * @return the removed value or <code>null</code> if it was absent
+     */
+    public synchronized V remove(K key) {
+        Entry<V> entry = this.entries.remove(key);
+        if (entry == null) {
+            return null;
+        }
+        this.weight -= entry.weight;
+        return entry.value;
+    }
+
+    /**
+     * Removes the entries whose values match a filter.
+     *
+     * @param filter the filter of the values
+     * @return the number of removed entries
+     */
+    public synchronized int removeIf(Predicate<? super V> filter) {
+        int removed = 0;
+        for (Iterator<Entry<V>> it = this.entries.values().iterator(); it.hasNext();) {
+            Entry<V> entry = it.next();
+            if (filter.test(entry.value)) {
+                it.remove();
+                this.weight -= entry.weight;
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes the expired entries.
+     *
+     * @return the number of removed entries
+     */
+    public synchronized int purge() {
+        int removed = 0;
+        long now = System.nanoTime();
+        for (Iterator<Entry<V>> it = this.entries.values().iterator(); it.hasNext();) {
+            Entry<V> entry = it.next();
+            if (this.isExpired(entry, now)) {
+                it.remove();
+                this.weight -= entry.weight;
+                removed++;
+            }
+        }
+        this.evictions += removed;
+        return removed;
+    }
+
+    public synchronized void clear() {
+        this.entries.clear();
+        this.weight = 0;
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Retrieves the total weight of the values, 0 if the cache has no weigher.
+     *
+     * @return the weight
+     */
+    public synchronized long getWeight() {
+        return this.weight;
+    }
+
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    /**
+     * Retrieves the number of entries removed because the cache was full or
+     * because they expired.
+     *
+     * @return the number of evictions
+     */
+    public synchronized long getEvictions() {
+        return this.evictions;
+    }
+
+    private boolean isExpired(Entry<V> entry, long now) {
+        return this.ttlNanos > 0 && now - entry.created > this.ttlNanos;
+    }
+
+    private static final class Entry<V> {
+
+        private final V value;
+        private final long created;
+        private final long weight;
+
+        Entry(V value, long created, long weight) {
+            this.value = value;
+            this.created = created;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package wwwc.nees.joint.module.kao.cache;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import org.openrdf.model.URI;
+
+/**
+ * Optional process wide cache of the state of the instances retrieved by
+ * <code>AbstractKAO.retrieveInstance</code>, by URI and graphs. It keeps
+ * immutable snapshots and each retrieval builds a new copy from them. The
+ * entries of a URI are dropped when the KAO writes it (with the entries that
+ * reference it, if it is deleted), and everything is dropped by a SPARQL
+ * update.
+ *
+ * <pre>
+ * InstanceCache.enable(5000, 10, TimeUnit.MINUTES);
+ * </pre>
+ *
+ * @author Olavo
+ */
+public final class InstanceCache {
+
+    // VARIABLES
+    // -------------------------------------------------------------------------
+    // The cache in use, null while it is disabled
+    private static volatile InstanceCache instance;
+
+    // Snapshots of each URI, by the graphs in which it was retrieved
+    private final ExpiringLRUCache<String, Map<String, InstanceSnapshot>> snapshots;
+    // Incremented by each invalidation, so a snapshot read before it is not
+    // stored after it
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    // CONSTRUCTOR
+    // -------------------------------------------------------------------------
+    private InstanceCache(int maxInstances, long ttl, TimeUnit unit) {
+        this.snapshots = new ExpiringLRUCache<>(maxInstances, ttl, unit);
+    }
+
+    // METHODS
+    // -------------------------------------------------------------------------
+    /**
+     * Enables the cache, replacing the current one if it is enabled.
+     *
+     * @param maxInstances the maximum number of instances kept
+     * @param ttl the time to live of the snapshots, or 0 if they do not expire
+     * @param unit the unit of the time to live
+     */
+    public static void enable(int maxInstances, long ttl, TimeUnit unit) {
+        instance = new InstanceCache(maxInstances, ttl, unit);
+    }
+
+    /**
+     * Disables the cache, dropping its snapshots.
+     */
+    public static void disable() {
+        instance = null;
+    }
+
+    /**
+     * Retrieves the cache in use.
+     *
+     * @return the cache or <code>null</code> if it is disabled
+     */
+    public static InstanceCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Drops the snapshots of some instances from the cache in use, if any.
+     *
+     * @param instancesURI the URIs of the written instances
+     */
+    public static void invalidateAll(Collection<String> instancesURI) {
+        InstanceCache cache = instance;
+        if (cache != null) {
+            for (String instanceURI : instancesURI) {
+                cache.invalidate(instanceURI);
+            }
+        }
+    }
+
+    /**
+     * Drops the snapshots of some deleted instances from the cache in use, if
+     * any, and the snapshots of the instances which referenced them.
+     *
+     * @param instancesURI the URIs of the deleted instances
+     */
+    public static void invalidateDeleted(Collection<String> instancesURI) {
+        InstanceCache cache = instance;
+        if (cache != null) {
+            cache.invalidateReferences(instancesURI);
+        }
+    }
+
+    /**
+     * Drops every snapshot from the cache in use, if any.
+     */
+    public static void invalidateEverything() {
+        InstanceCache cache = instance;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Retrieves the snapshot of an instance.
+     *
+     * @param instanceURI the URI of the instance
+     * @param contexts the graphs of the retrieval
+     * @return the snapshot or <code>null</code> if it is not cached
+     */
+    public InstanceSnapshot get(String instanceURI, URI... contexts) {
+        Map<String, InstanceSnapshot> byContexts = this.snapshots.peek(instanceURI);
+        InstanceSnapshot snapshot = (byContexts == null) ? null : byContexts.get(contextsKey(contexts));
+        if (snapshot == null) {
+            this.misses.incrementAndGet();
+        } else {
+            this.hits.incrementAndGet();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Retrieves the current generation, to be passed to
+     * {@link #put(long, String, InstanceSnapshot, URI...)} with a snapshot
+     * read after this call.
+     *
+     * @return the generation
+     */
+    public long generation() {
+        return this.generation.get();
+    }
+
+    /**
+     * Keeps the snapshot of an instance, unless an invalidation happened since
+     * the given generation.
+     *
+     * @param generation the generation before the instance was read
+     * @param instanceURI the URI of the instance
+     * @param snapshot the state of the instance
+     * @param contexts the graphs of the retrieval
+     */
+    public synchronized void put(long generation, String instanceURI, InstanceSnapshot snapshot, URI... contexts) {
+        if (generation != this.generation.get()) {
+            return;
+        }
+        //the maps are replaced, never changed, since they are read unlocked
+        Map<String, InstanceSnapshot> byContexts = this.snapshots.peek(instanceURI);
+        byContexts = (byContexts == null) ? new HashMap<String, InstanceSnapshot>()
+                : new HashMap<>(byContexts);
+        byContexts.put(contextsKey(contexts), snapshot);
+        this.snapshots.put(instanceURI, byContexts);
+    }
+
+    /**
+     * Drops the snapshots of an instance, in all graphs.
+     *
+     * @param instanceURI the URI of the instance
+     */
+    public synchronized void invalidate(String instanceURI) {
+        this.generation.incrementAndGet();
+        this.snapshots.remove(instanceURI);
+    }
+
+    /**
+     * Drops the snapshots of some instances and of the instances which
+     * reference them, since deleting an instance also removes the statements
+     * in which it is the object.
+     *
+     * @param instancesURI the URIs of the instances
+     */
+    public synchronized void invalidateReferences(final Collection<String> instancesURI) {
+        this.generation.incrementAndGet();
+        for (String instanceURI : instancesURI) {
+            this.snapshots.remove(instanceURI);
+        }
+        this.snapshots.removeIf(new Predicate<Map<String, InstanceSnapshot>>() {
+            @Override
+            public boolean test(Map<String, InstanceSnapshot> byContexts) {
+                for (InstanceSnapshot snapshot : byContexts.values()) {
+                    if (snapshot.references(instancesURI)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Drops all the snapshots.
+     */
+    public synchronized void clear() {
+        this.generation.incrementAndGet();
+        this.snapshots.clear();
+    }
+
+    /**
+     * Retrieves the number of instances in the cache.
+     *
+     * @return the number of cached URIs
+     */
+    public int size() {
+        return this.snapshots.size();
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * Retrieves the number of instances dropped because the cache was full or
+     * because they expired.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictions() {
+        return this.snapshots.getEvictions();
+    }
+
+    private static String contextsKey(URI... contexts) {
+        if (contexts == null || contexts.length == 0) {
+            return "";
+        }
+        //the order of the graphs does not matter
+        String[] names = new String[contexts.length];
+        for (int i = 0; i < contexts.length; i++) {
+            names[i] = contexts[i].stringValue();
+        }
+        Arrays.sort(names);
+        StringBuilder key = new StringBuilder();
+        for (String name : names) {
+            key.append(name).append(' ');
+        }
+        return key.toString();
+    }
+}
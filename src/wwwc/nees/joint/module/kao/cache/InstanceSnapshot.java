@@ -0,0 +1,82 @@
+package wwwc.nees.joint.module.kao.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Value;
+
+/**
+ * Immutable state of a hydrated instance: the values of its properties and the
+ * classes of the instances it references, enough to build copies of it
+ * without querying the repository.
+ *
+ * @author Olavo
+ */
+public final class InstanceSnapshot {
+
+    private final Class<?> concept;
+    private final Map<String, List<Value>> values;
+    private final Map<String, String> classNames;
+    // URIs of the resources in the values
+    private final Set<String> references;
+
+    /**
+     * Creates a snapshot, copying the given maps.
+     *
+     * @param concept the class with which the instance was retrieved
+     * @param values the values of the properties, by predicate
+     * @param classNames the class names of the referenced instances, by URI
+     */
+    public InstanceSnapshot(Class<?> concept, Map<String, List<Value>> values,
+            Map<String, String> classNames) {
+        this.concept = concept;
+        Map<String, List<Value>> copy = new HashMap<>();
+        for (Map.Entry<String, List<Value>> entry : values.entrySet()) {
+            copy.put(entry.getKey(), Collections.unmodifiableList(new ArrayList<>(entry.getValue())));
+        }
+        this.values = Collections.unmodifiableMap(copy);
+        this.references = new HashSet<>();
+        for (List<Value> list : copy.values()) {
+            for (Value value : list) {
+                if (value instanceof Resource) {
+                    this.references.add(value.stringValue());
+                }
+            }
+        }
+        this.classNames = Collections.unmodifiableMap(new HashMap<>(classNames));
+    }
+
+    public Class<?> getConcept() {
+        return this.concept;
+    }
+
+    public Map<String, List<Value>> getValues() {
+        return this.values;
+    }
+
+    public Map<String, String> getClassNames() {
+        return this.classNames;
+    }
+
+    /**
+     * Checks if a property of the instance has one of the given resources as
+     * value.
+     *
+     * @param uris the URIs of the resources
+     * @return <code>true</code> if the instance references one of them
+     */
+    public boolean references(Collection<String> uris) {
+        for (String uri : uris) {
+            if (this.references.contains(uri)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
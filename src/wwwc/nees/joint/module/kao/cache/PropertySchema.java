@@ -0,0 +1,58 @@
+package wwwc.nees.joint.module.kao.cache;
+
+/**
+ * Immutable schema information of a property: its range and whether its
+ * values are literals or resources.
+ *
+ * @author Olavo
+ */
+public final class PropertySchema {
+
+    /**
+     * Kind of the values of a property.
+     */
+    public enum Kind {
+
+        /**
+         * The values are literals, the property is an
+         * <code>owl:DatatypeProperty</code> or its range is a datatype.
+         */
+        DATATYPE,
+        /**
+         * The values are resources, the property is an
+         * <code>owl:ObjectProperty</code> or its range is a class.
+         */
+        OBJECT,
+        /**
+         * The property has no type nor range in the repository.
+         */
+        UNKNOWN
+    }
+
+    private final String uri;
+    private final String range;
+    private final Kind kind;
+
+    public PropertySchema(String uri, String range, Kind kind) {
+        this.uri = uri;
+        this.range = range;
+        this.kind = kind;
+    }
+
+    public String getUri() {
+        return this.uri;
+    }
+
+    /**
+     * Retrieves the range of the property.
+     *
+     * @return the URI of the range or <code>null</code> if it has none
+     */
+    public String getRange() {
+        return this.range;
+    }
+
+    public Kind getKind() {
+        return this.kind;
+    }
+}
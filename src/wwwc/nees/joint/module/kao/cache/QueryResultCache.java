@@ -0,0 +1,448 @@
+package wwwc.nees.joint.module.kao.cache;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+import org.openrdf.model.URI;
+import org.openrdf.query.Dataset;
+import org.openrdf.query.QueryLanguage;
+import org.openrdf.query.parser.ParsedQuery;
+import org.openrdf.query.parser.QueryParserUtil;
+
+/**
+ * Optional process wide cache of the results of the SPARQL queries performed
+ * by <code>AbstractKAO</code>, by kind of result, normalized query and graphs.
+ * A hit returns a copy of the converted results, without querying the
+ * repository. Only the results which the callers cannot change are kept:
+ * JSON strings and the literals converted to strings, numbers, booleans and
+ * characters, alone, in lists or in rows. The results with instances, which
+ * the callers modify and save, or with other mutable values are always read
+ * from the repository.
+ *
+ * The results of a query with a dataset (<code>FROM</code> clauses) depend on
+ * its graphs and are dropped when the KAO writes one of them. The results of
+ * the other queries depend on all the graphs and are dropped by any write. A
+ * query containing the comment {@link #NO_CACHE_HINT} is never cached.
+ *
+ * <pre>
+ * QueryResultCache.enable(1000, 64 * 1024 * 1024, 30, TimeUnit.SECONDS);
+ * </pre>
+ *
+ * @author Olavo
+ */
+public final class QueryResultCache {
+
+    // CONSTANTS
+    // -------------------------------------------------------------------------
+    /**
+     * Comment which excludes a query from the cache.
+     */
+    public static final String NO_CACHE_HINT = "#joint:nocache";
+    // Classes of the values which cannot be changed by the callers
+    private static final Set<Class<?>> IMMUTABLE_TYPES = new HashSet<Class<?>>(Arrays.asList(
+            String.class, Boolean.class, Character.class, Byte.class, Short.class, Integer.class,
+            Long.class, Float.class, Double.class, BigInteger.class, BigDecimal.class));
+
+    // VARIABLES
+    // -------------------------------------------------------------------------
+    // The cache in use, null while it is disabled
+    private static volatile QueryResultCache instance;
+
+    private final ExpiringLRUCache<String, CachedResult> results;
+    // Incremented by each invalidation, so a result read before it is not
+    // stored after it
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    // CONSTRUCTOR
+    // -------------------------------------------------------------------------
+    private QueryResultCache(int maxEntries, long maxBytes, long ttl, TimeUnit unit) {
+        this.results = new ExpiringLRUCache<>(maxEntries, maxBytes, new ToLongFunction<CachedResult>() {
+            @Override
+            public long applyAsLong(CachedResult result) {
+                return result.bytes;
+            }
+        }, ttl, unit);
+    }
+
+    // METHODS
+    // -------------------------------------------------------------------------
+    /**
+     * Enables the cache, replacing the current one if it is enabled.
+     *
+     * @param maxEntries the maximum number of results kept
+     * @param maxBytes the maximum estimated size of the results kept
+     * @param ttl the time to live of the results, or 0 if they do not expire
+     * @param unit the unit of the time to live
+     */
+    public static void enable(int maxEntries, long maxBytes, long ttl, TimeUnit unit) {
+        instance = new QueryResultCache(maxEntries, maxBytes, ttl, unit);
+    }
+
+    /**
+     * Disables the cache, dropping its results.
+     */
+    public static void disable() {
+        instance = null;
+    }
+
+    /**
+     * Retrieves the cache in use.
+     *
+     * @return the cache or <code>null</code> if it is disabled
+     */
+    public static QueryResultCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * Drops the results depending on some graphs from the cache in use, if
+     * any.
+     *
+     * @param graphs the written graphs, all of them if it is empty
+     */
+    public static void invalidateGraphs(Collection<String> graphs) {
+        QueryResultCache cache = instance;
+        if (cache != null) {
+            cache.invalidate(graphs);
+        }
+    }
+
+    /**
+     * Drops every result from the cache in use, if any.
+     */
+    public static void invalidateEverything() {
+        QueryResultCache cache = instance;
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Checks if the results of a query may be cached.
+     *
+     * @param query the query
+     * @return <code>false</code> if the query contains the
+     * {@link #NO_CACHE_HINT}
+     */
+    public static boolean isCacheable(String query) {
+        return !query.contains(NO_CACHE_HINT);
+    }
+
+    /**
+     * Builds the key of the results of a query, with its white space outside
+     * the literals and IRIs collapsed.
+     *
+     * @param kind the kind of the results, since each query method converts
+     * them differently
+     * @param query the query
+     * @param contexts the graphs in which the results are hydrated
+     * @return the key
+     */
+    public static String key(String kind, String query, URI... contexts) {
+        StringBuilder key = new StringBuilder(kind).append(' ');
+        for (URI context : contexts) {
+            key.append('<').append(context.stringValue()).append('>');
+        }
+        key.append(' ');
+        char quote = 0;
+        boolean space = false;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (quote != 0) {
+                key.append(c);
+                if (c == '\\' && i + 1 < query.length()) {
+                    key.append(query.charAt(++i));
+                } else if (c == quote) {
+                    quote = 0;
+                }
+            } else if (Character.isWhitespace(c)) {
+                space = true;
+            } else {
+                if (space && key.charAt(key.length() - 1) != ' ') {
+                    key.append(' ');
+                }
+                space = false;
+                key.append(c);
+                if (c == '"' || c == '\'') {
+                    quote = c;
+                } else if (c == '<') {
+                    //an IRI or the less than operator, the latter may only
+                    //collapse less
+                    quote = '>';
+                } else if (c == '#') {
+                    //the comment ends the line
+                    quote = '\n';
+                }
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Retrieves the results of a query.
+     *
+     * @param key the key of the results
+     * @return the cached results or <code>null</code> if they are not cached
+     */
+    public CachedResult get(String key) {
+        CachedResult result = this.results.peek(key);
+        if (result == null) {
+            this.misses.incrementAndGet();
+        } else {
+            this.hits.incrementAndGet();
+        }
+        return result;
+    }
+
+    /**
+     * Retrieves the current generation, to be passed to
+     * {@link #put(long, String, String, Object, URI...)} with the
+     * results read after this call.
+     *
+     * @return the generation
+     */
+    public long generation() {
+        return this.generation.get();
+    }
+
+    /**
+     * Keeps a copy of the results of a query, unless an invalidation happened
+     * since the given generation or the results may be changed by the
+     * callers.
+     *
+     * @param generation the generation before the query was performed
+     * @param key the key of the results
+     * @param query the query, whose dataset tells the graphs it depends on
+     * @param value the converted results
+     * @param contexts the graphs in which the query was performed
+     */
+    public synchronized void put(long generation, String key, String query, Object value, URI... contexts) {
+        if (generation != this.generation.get() || !isImmutable(value)) {
+            return;
+        }
+        Object copy = copy(value);
+        this.results.put(key, new CachedResult(copy, dependencies(query, contexts),
+                estimateBytes(copy) + 2L * key.length()));
+    }
+
+    /**
+     * Drops the results depending on some graphs.
+     *
+     * @param graphs the written graphs, all of them if it is empty
+     */
+    public synchronized void invalidate(final Collection<String> graphs) {
+        if (graphs.isEmpty()) {
+            this.clear();
+            return;
+        }
+        this.generation.incrementAndGet();
+        this.results.removeIf(new Predicate<CachedResult>() {
+            @Override
+            public boolean test(CachedResult result) {
+                if (result.graphs.isEmpty()) {
+                    return true;
+                }
+                for (String graph : graphs) {
+                    if (result.graphs.contains(graph)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Drops all the results.
+     */
+    public synchronized void clear() {
+        this.generation.incrementAndGet();
+        this.results.clear();
+    }
+
+    /**
+     * Retrieves the number of results in the cache.
+     *
+     * @return the number of cached queries
+     */
+    public int size() {
+        return this.results.size();
+    }
+
+    /**
+     * Retrieves the estimated size of the results in the cache.
+     *
+     * @return the size in bytes
+     */
+    public long getEstimatedBytes() {
+        return this.results.getWeight();
+    }
+
+    public long getHits() {
+        return this.hits.get();
+    }
+
+    public long getMisses() {
+        return this.misses.get();
+    }
+
+    /**
+     * Retrieves the ratio of the lookups which found the results.
+     *
+     * @return the hit ratio, between 0 and 1
+     */
+    public double getHitRatio() {
+        long h = this.hits.get();
+        long total = h + this.misses.get();
+        return (total == 0) ? 0 : (double) h / total;
+    }
+
+    /**
+     * Retrieves the number of results dropped because the cache was full or
+     * because they expired.
+     *
+     * @return the number of evictions
+     */
+    public long getEvictions() {
+        return this.results.getEvictions();
+    }
+
+    /**
+     * Checks if the results cannot be changed by the callers, once the lists
+     * and rows holding them are copied.
+     */
+    private static boolean isImmutable(Object value) {
+        if (value instanceof List) {
+            for (Object element : (List<?>) value) {
+                if (!isImmutable(element)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (value instanceof Object[]) {
+            for (Object element : (Object[]) value) {
+                if (element instanceof Object[] || !isImmutable(element)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return value == null || IMMUTABLE_TYPES.contains(value.getClass());
+    }
+
+    /**
+     * Copies the lists and rows holding the results, so neither the cache
+     * nor the callers see the changes made to them by the others.
+     */
+    private static Object copy(Object value) {
+        if (value instanceof List) {
+            List<Object> copy = new ArrayList<>(((List<?>) value).size());
+            for (Object element : (List<?>) value) {
+                copy.add(copy(element));
+            }
+            return copy;
+        }
+        if (value instanceof Object[]) {
+            return ((Object[]) value).clone();
+        }
+        return value;
+    }
+
+    /**
+     * Retrieves the graphs the results of a query depend on: the graphs of
+     * its dataset and the ones in which it was performed, or none, meaning
+     * all the graphs, if the query has no dataset.
+     */
+    private static Set<String> dependencies(String query, URI... contexts) {
+        Dataset dataset;
+        try {
+            ParsedQuery parsed = QueryParserUtil.parseQuery(QueryLanguage.SPARQL, query, null);
+            dataset = parsed.getDataset();
+        } catch (Exception e) {
+            //the queries with extensions of the repository depend on all
+            dataset = null;
+        }
+        if (dataset == null || (dataset.getDefaultGraphs().isEmpty() && dataset.getNamedGraphs().isEmpty())) {
+            return Collections.emptySet();
+        }
+        Set<String> graphs = new HashSet<>();
+        for (URI graph : dataset.getDefaultGraphs()) {
+            graphs.add(graph.stringValue());
+        }
+        for (URI graph : dataset.getNamedGraphs()) {
+            graphs.add(graph.stringValue());
+        }
+        for (URI context : contexts) {
+            graphs.add(context.stringValue());
+        }
+        return graphs;
+    }
+
+    /**
+     * Estimates the memory used by the results, counting the strings by their
+     * length.
+     */
+    private static long estimateBytes(Object value) {
+        if (value == null) {
+            return 8;
+        }
+        if (value instanceof CharSequence) {
+            return 40 + 2L * ((CharSequence) value).length();
+        }
+        if (value instanceof Collection) {
+            long bytes = 32;
+            for (Object element : (Collection<?>) value) {
+                bytes += 8 + estimateBytes(element);
+            }
+            return bytes;
+        }
+        if (value instanceof Object[]) {
+            long bytes = 16;
+            for (Object element : (Object[]) value) {
+                bytes += 8 + estimateBytes(element);
+            }
+            return bytes;
+        }
+        //a number, a boolean or a character
+        return 16;
+    }
+
+    /**
+     * The converted results of a query.
+     */
+    public static final class CachedResult {
+
+        private final Object value;
+        // Graphs the results depend on, empty if they depend on all
+        private final Set<String> graphs;
+        private final long bytes;
+
+        CachedResult(Object value, Set<String> graphs, long bytes) {
+            this.value = value;
+            this.graphs = graphs;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Retrieves a copy of the results, which may be <code>null</code>.
+         *
+         * @return the results
+         */
+        public Object getValue() {
+            return copy(this.value);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package wwwc.nees.joint.module.kao.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.openrdf.model.vocabulary.OWL;
+import org.openrdf.model.vocabulary.RDFS;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.MalformedQueryException;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.QueryLanguage;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import wwwc.nees.joint.module.kao.DatatypeManager;
+
+/**
+ * Process wide cache of the ranges and kinds of the properties, which only
+ * change with the ontologies. Each property is looked up once, on its first
+ * use, and kept until the ontologies are added or removed by the
+ * <code>OntologyRepositoryManager</code>, which invalidates the cache.
+ *
+ * @author Olavo
+ */
+public final class SchemaCache {
+
+    // VARIABLES
+    // -------------------------------------------------------------------------
+    private static final SchemaCache INSTANCE = new SchemaCache();
+
+    // Properties looked up so far, by URI, including the ones without schema
+    private final Map<String, PropertySchema> properties = new ConcurrentHashMap<>();
+    // Incremented by each invalidation, so a lookup made before it is not
+    // stored after it
+    private long generation;
+
+    // CONSTRUCTOR
+    // -------------------------------------------------------------------------
+    private SchemaCache() {
+    }
+
+    // METHODS
+    // -------------------------------------------------------------------------
+    public static SchemaCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Retrieves the schema of some properties, looking up with a single query
+     * the ones not cached yet.
+     *
+     * @param connection receives an object of connection with the repository
+     * @param predicates the URIs of the properties
+     * @return the schema of each property, by URI
+     * @throws RepositoryException any repository exception
+     * @throws MalformedQueryException if the lookup query is malformed
+     * @throws QueryEvaluationException if the lookup query fails
+     */
+    public Map<String, PropertySchema> getProperties(RepositoryConnection connection, Collection<String> predicates)
+            throws RepositoryException, MalformedQueryException, QueryEvaluationException {
+
+        Map<String, PropertySchema> result = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String predicate : predicates) {
+            PropertySchema property = this.properties.get(predicate);
+            if (property == null) {
+                missing.add(predicate);
+            } else {
+                result.put(predicate, property);
+            }
+        }
+        if (missing.isEmpty()) {
+            return result;
+        }
+
+        long before;
+        synchronized (this) {
+            before = this.generation;
+        }
+        Map<String, PropertySchema> loaded = this.load(connection, missing);
+        synchronized (this) {
+            if (before == this.generation) {
+                this.properties.putAll(loaded);
+            }
+        }
+        result.putAll(loaded);
+        return result;
+    }
+
+    private Map<String, PropertySchema> load(RepositoryConnection connection, List<String> predicates)
+            throws RepositoryException, MalformedQueryException, QueryEvaluationException {
+
+        StringBuilder query = new StringBuilder("select ?pred ?range ?type where{values ?pred{");
+        for (String predicate : predicates) {
+            query.append("<").append(predicate).append("> ");
+        }
+        query.append("} optional{?pred <").append(RDFS.RANGE).append("> ?range} ")
+                .append("optional{?pred a ?type. filter(?type in (<").append(OWL.DATATYPEPROPERTY)
+                .append(">, <").append(OWL.OBJECTPROPERTY).append(">))}}");
+
+        Map<String, String> ranges = new HashMap<>();
+        Map<String, PropertySchema.Kind> kinds = new HashMap<>();
+        DatatypeManager datatypeMng = DatatypeManager.getInstance();
+        TupleQueryResult evaluate = connection.prepareTupleQuery(QueryLanguage.SPARQL, query.toString()).evaluate();
+        try {
+            while (evaluate.hasNext()) {
+                BindingSet next = evaluate.next();
+                String predicate = next.getValue("pred").stringValue();
+                if (next.getValue("range") != null) {
+                    String range = next.getValue("range").stringValue();
+                    //a datatype prevails over the other ranges
+                    if (!ranges.containsKey(predicate) || datatypeMng.namespacesClass.containsKey(range)) {
+                        ranges.put(predicate, range);
+                    }
+                }
+                if (next.getValue("type") != null) {
+                    kinds.put(predicate, OWL.DATATYPEPROPERTY.equals(next.getValue("type"))
+                            ? PropertySchema.Kind.DATATYPE : PropertySchema.Kind.OBJECT);
+                }
+            }
+        } finally {
+            evaluate.close();
+        }
+
+        Map<String, PropertySchema> loaded = new HashMap<>();
+        for (String predicate : predicates) {
+            String range = ranges.get(predicate);
+            PropertySchema.Kind kind = kinds.get(predicate);
+            if (range != null && datatypeMng.namespacesClass.containsKey(range)) {
+                kind = PropertySchema.Kind.DATATYPE;
+            } else if (kind == null) {
+                kind = (range == null) ? PropertySchema.Kind.UNKNOWN : PropertySchema.Kind.OBJECT;
+            }
+            loaded.put(predicate, new PropertySchema(predicate, range, kind));
+        }
+        return loaded;
+    }
+
+    /**
+     * Drops all the properties, so they are looked up again on their next
+     * use. Called when the ontologies change.
+     */
+    public synchronized void invalidate() {
+        this.generation++;
+        this.properties.clear();
+    }
+
+    /**
+     * Retrieves the number of properties in the cache.
+     *
+     * @return the number of cached properties
+     */
+    public int size() {
+        return this.properties.size();
+    }
+}
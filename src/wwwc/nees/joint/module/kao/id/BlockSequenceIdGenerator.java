@@ -0,0 +1,195 @@
+package wwwc.nees.joint.module.kao.id;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import org.openrdf.model.Statement;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import org.openrdf.repository.RepositoryResult;
+
+/**
+ * Generates sequential numbers for each prefix, reserving them in blocks
+ * claimed in the repository. Each block is claimed in its own transaction, so
+ * it is never given again even if the creation using it is rolled back; the
+ * numbers of a block not fully used when the process ends, or claimed by
+ * concurrent processes at the same time, are skipped. Each reserved block
+ * leaves a claim (a single statement) in the repository.
+ *
+ * @author Olavo
+ */
+public class BlockSequenceIdGenerator implements IdGenerator {
+
+    // VARIABLES
+    // -------------------------------------------------------------------------
+    // Graph and predicate of the claims of the blocks, whose subjects are
+    // the prefixes and whose values are the limit of the block and the token
+    // of the reservation
+    private static final String SEQUENCES_GRAPH = "urn:joint:sequences";
+    private static final String CLAIM_PROPERTY = "urn:joint:sequence:claim";
+    // Blocks tried before giving up a contended reservation
+    private static final int MAX_ATTEMPTS = 10;
+
+    private final Repository repository;
+    private final int blockSize;
+    // Block in use of each prefix
+    private final ConcurrentMap<String, Block> blocks = new ConcurrentHashMap<>();
+
+    // CONSTRUCTOR
+    // -------------------------------------------------------------------------
+    /**
+     * Creates a generator reserving the blocks in a repository.
+     *
+     * @param repository the repository where the limits are persisted
+     * @param blockSize the number of IDs reserved at once
+     */
+    public BlockSequenceIdGenerator(Repository repository, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("Block size must be positive: " + blockSize);
+        }
+        this.repository = repository;
+        this.blockSize = blockSize;
+    }
+
+    // METHODS
+    // -------------------------------------------------------------------------
+    @Override
+    public String nextId(String prefix) throws RepositoryException {
+        Block block = this.blocks.get(prefix);
+        if (block == null) {
+            Block created = new Block();
+            block = this.blocks.putIfAbsent(prefix, created);
+            if (block == null) {
+                block = created;
+            }
+        }
+        //only the threads of the same prefix wait for each other
+        synchronized (block) {
+            if (block.next >= block.limit) {
+                block.limit = this.reserve(prefix);
+                block.next = block.limit - this.blockSize;
+            }
+            return Long.toString(block.next++);
+        }
+    }
+
+    /**
+     * Reserves the block after the highest reserved one, retrying with the
+     * next block while other processes claim the same one.
+     *
+     * @param prefix the prefix
+     * @return the new limit, the end (exclusive) of the reserved block
+     * @throws RepositoryException if the block cannot be reserved
+     */
+    private long reserve(String prefix) throws RepositoryException {
+        String token = UUID.randomUUID().toString();
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            long limit = this.claim(prefix, token);
+            if (limit > 0) {
+                return limit;
+            }
+            //the contended block is skipped, the next attempt waits a little
+            //so the processes do not collide again
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextInt(1, 10 * attempt + 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RepositoryException(e);
+            }
+        }
+        throw new RepositoryException("The block of " + prefix + " was not reserved");
+    }
+
+    /**
+     * Claims the block after the highest claimed one in its own transaction
+     * and checks, after the commit, that no other process claimed it too. A
+     * process only keeps a block whose claim is the only one when it checks,
+     * so two processes never keep the same block, even if the repository
+     * does not serialize their transactions: the claims are never removed,
+     * and a process claiming the block later sees the first claim.
+     *
+     * @param prefix the prefix
+     * @param token identifies the claims of this reservation
+     * @return the limit of the block or 0 if it was contended
+     * @throws RepositoryException if the repository cannot be accessed
+     */
+    private long claim(String prefix, String token) throws RepositoryException {
+        RepositoryConnection connection = this.repository.getConnection();
+        try {
+            ValueFactory f = connection.getValueFactory();
+            URI subject = f.createURI(prefix);
+            URI property = f.createURI(CLAIM_PROPERTY);
+            URI graph = f.createURI(SEQUENCES_GRAPH);
+
+            long limit = 0;
+            connection.begin();
+            try {
+                for (String[] claim : this.claims(connection, subject, property, graph)) {
+                    limit = Math.max(limit, Long.parseLong(claim[0]));
+                }
+                limit += this.blockSize;
+                connection.add(subject, property, f.createLiteral(limit + " " + token), graph);
+                connection.commit();
+            } catch (RepositoryException e) {
+                connection.rollback();
+                throw e;
+            }
+
+            //the block is kept if this is its only claim
+            connection.begin();
+            try {
+                boolean own = false;
+                int claims = 0;
+                for (String[] claim : this.claims(connection, subject, property, graph)) {
+                    if (Long.parseLong(claim[0]) == limit) {
+                        claims++;
+                        own |= token.equals(claim[1]);
+                    }
+                }
+                connection.commit();
+                return (own && claims == 1) ? limit : 0;
+            } catch (RepositoryException e) {
+                connection.rollback();
+                throw e;
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Reads the claims of a prefix, each one with the limit of its block and
+     * the token of its reservation.
+     */
+    private List<String[]> claims(RepositoryConnection connection, URI subject, URI property, URI graph)
+            throws RepositoryException {
+        List<String[]> claims = new ArrayList<>();
+        RepositoryResult<Statement> statements = connection.getStatements(subject, property, null, false, graph);
+        try {
+            while (statements.hasNext()) {
+                String[] claim = statements.next().getObject().stringValue().split(" ", 2);
+                if (claim.length == 2) {
+                    claims.add(claim);
+                }
+            }
+        } finally {
+            statements.close();
+        }
+        return claims;
+    }
+
+    /**
+     * The reserved numbers of a prefix not given yet.
+     */
+    private static final class Block {
+
+        private long next;
+        private long limit;
+    }
+}
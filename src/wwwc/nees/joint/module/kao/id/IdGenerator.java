@@ -0,0 +1,21 @@
+package wwwc.nees.joint.module.kao.id;
+
+/**
+ * Strategy generating the unique IDs of the instances created by
+ * <code>AbstractKAO.createWithUniqueID</code>. The implementations must be
+ * thread safe, since a KAO may be shared by many threads.
+ *
+ * @author Olavo
+ */
+public interface IdGenerator {
+
+    /**
+     * Generates a new ID, appended to the prefix to form the URI of an
+     * instance.
+     *
+     * @param prefix the ontology URI followed by the instance prefix
+     * @return an ID not generated before for the same prefix
+     * @throws Exception if the ID cannot be generated
+     */
+    String nextId(String prefix) throws Exception;
+}
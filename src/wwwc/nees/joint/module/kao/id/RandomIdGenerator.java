@@ -0,0 +1,26 @@
+package wwwc.nees.joint.module.kao.id;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Generates random (version 4) UUIDs from the random source of each thread,
+ * instead of the <code>SecureRandom</code> shared by
+ * <code>UUID.randomUUID()</code>, so concurrent creations do not contend on
+ * it. This is the default generator.
+ *
+ * @author Olavo
+ */
+public class RandomIdGenerator implements IdGenerator {
+
+    @Override
+    public String nextId(String prefix) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long msb = random.nextLong();
+        long lsb = random.nextLong();
+        //version 4, IETF variant
+        msb = (msb & 0xFFFFFFFFFFFF0FFFL) | 0x0000000000004000L;
+        lsb = (lsb & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(msb, lsb).toString();
+    }
+}
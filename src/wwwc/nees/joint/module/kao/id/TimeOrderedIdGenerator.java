@@ -0,0 +1,26 @@
+package wwwc.nees.joint.module.kao.id;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Generates time ordered (version 7) UUIDs: the milliseconds since the epoch
+ * followed by random bits from the random source of each thread. The IDs of
+ * different milliseconds sort in creation order, which keeps the URIs of
+ * recent instances close in the indexes of the repository.
+ *
+ * @author Olavo
+ */
+public class TimeOrderedIdGenerator implements IdGenerator {
+
+    @Override
+    public String nextId(String prefix) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long millis = System.currentTimeMillis();
+        //48 bits of time, version 7 and 12 random bits
+        long msb = (millis << 16) | 0x7000L | (random.nextInt() & 0x0FFFL);
+        //IETF variant and 62 random bits
+        long lsb = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+        return new UUID(msb, lsb).toString();
+    }
+}
@@ -4,5 +4,5 @@ package wwwc.nees.joint.module.kao.retrieve;
  * @author williams
  */
 public enum Feature {
-    PRINT_GRAPH_AS_JSONARRAY, NOT_HANDLE_TRIPLES_WITH_OBJECTS
+    PRINT_GRAPH_AS_JSONARRAY, NOT_HANDLE_TRIPLES_WITH_OBJECTS, STREAM
 }
@@ -0,0 +1,75 @@
+package wwwc.nees.joint.module.kao.retrieve;
+
+import java.util.ArrayList;
+import java.util.List;
+import wwwc.nees.joint.model.JOINTResource;
+
+/**
+ * Group of not loaded instances created together while hydrating a
+ * collection. When one of them is accessed, the {@link LazyLoader} loads the
+ * members still not loaded with a single query, instead of one connection and
+ * one query per instance.
+ *
+ * @author Olavo
+ */
+public class FetchGroup {
+
+    // VARIABLES
+    // -------------------------------------------------------------------------
+    private final int capacity;
+    private final List<JOINTResource> members;
+
+    // CONSTRUCTOR
+    // -------------------------------------------------------------------------
+    /**
+     * Creates an empty group.
+     *
+     * @param capacity the maximum number of members of the group
+     */
+    public FetchGroup(int capacity) {
+        this.capacity = capacity;
+        this.members = new ArrayList<>(capacity);
+    }
+
+    // METHODS
+    // -------------------------------------------------------------------------
+    /**
+     * Adds a not loaded instance to the group.
+     *
+     * @param resource the not loaded instance
+     * @return <code>true</code> if it was added, <code>false</code> if the
+     * group is full
+     */
+    public synchronized boolean add(JOINTResource resource) {
+        if (this.members.size() >= this.capacity) {
+            return false;
+        }
+        this.members.add(resource);
+        resource.joinFetchGroup(this);
+        return true;
+    }
+
+    /**
+     * Removes from the group the instance that is being loaded and all its
+     * siblings that are not loaded yet, so they are loaded together.
+     *
+     * @param resource the instance being loaded
+     * @return the instances to be loaded, starting with the given one
+     */
+    public synchronized List<JOINTResource> claim(JOINTResource resource) {
+        List<JOINTResource> batch = new ArrayList<>();
+        batch.add(resource);
+        for (JOINTResource member : this.members) {
+            if (member != resource && !member.isLazyLoaded()) {
+                batch.add(member);
+            }
+            member.joinFetchGroup(null);
+        }
+        this.members.clear();
+        return batch;
+    }
+
+    public synchronized boolean isFull() {
+        return this.members.size() >= this.capacity;
+    }
+}
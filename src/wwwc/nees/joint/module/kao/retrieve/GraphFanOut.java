@@ -0,0 +1,350 @@
+package wwwc.nees.joint.module.kao.retrieve;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryLanguage;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.repository.Repository;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.rio.ntriples.NTriplesUtil;
+import wwwc.nees.joint.compiler.annotations.Iri;
+import wwwc.nees.joint.model.JOINTResource;
+import wwwc.nees.joint.module.kao.QueryTemplates;
+import wwwc.nees.joint.module.kao.Session;
+
+/**
+ * Retrieves instances from many graphs at once, querying groups of graphs in
+ * parallel on separate connections and merging the values of each subject
+ * into a single instance, according to a {@link MergePolicy}.
+ *
+ * Inside a session the groups are queried one after the other with the
+ * connection of the session, so its uncommitted changes are seen. Without
+ * graphs, all the named graphs are queried at once.
+ *
+ * @author Olavo
+ */
+public class GraphFanOut {
+
+    // VARIABLES
+    // -------------------------------------------------------------------------
+    private static final int DEFAULT_PARALLELISM = Math.max(2, Runtime.getRuntime().availableProcessors());
+    // Shared by the fan outs created without an executor
+    private static ExecutorService defaultExecutor;
+
+    private final Repository repository;
+    private final ExecutorService executor;
+    private final int parallelism;
+    private final RetrieveOperations retrieveOp = new RetrieveOperations();
+
+    // CONSTRUCTOR
+    // -------------------------------------------------------------------------
+    /**
+     * Creates a fan out running in a shared pool with a thread per processor.
+     *
+     * @param repository the repository where the connections are opened
+     */
+    public GraphFanOut(Repository repository) {
+        this(repository, getDefaultExecutor(), DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Creates a fan out running in the given executor.
+     *
+     * @param repository the repository where the connections are opened
+     * @param executor the executor of the queries
+     * @param parallelism the maximum number of queries of a retrieval running
+     * at the same time; the graphs are split in this many groups
+     */
+    public GraphFanOut(Repository repository, ExecutorService executor, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive: " + parallelism);
+        }
+        this.repository = repository;
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    // METHODS
+    // -------------------------------------------------------------------------
+    private static synchronized ExecutorService getDefaultExecutor() {
+        if (defaultExecutor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            defaultExecutor = Executors.newFixedThreadPool(DEFAULT_PARALLELISM, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "joint-graph-fan-out-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return defaultExecutor;
+    }
+
+    /**
+     * Retrieves all the instances of a class in the graphs, one per URI. The
+     * instances typed in any of the graphs get the values of all of them, as
+     * in {@link #retrieveInstance}.
+     *
+     * @param connection the connection used to hydrate the instances
+     * @param clazz a <code>Class</code> with the instance type
+     * @param policy the merge of the values found in many graphs
+     * @param contexts the graphs
+     * @return a <code>List</code> with the instances
+     * @throws Exception any exception
+     */
+    public <T> List<T> retrieveAllInstances(RepositoryConnection connection, Class<T> clazz,
+            MergePolicy policy, URI... contexts) throws Exception {
+        ValueFactory f = connection.getValueFactory();
+        URI classURI = f.createURI(clazz.getAnnotation(Iri.class).value());
+
+        //the subjects typed in any of the graphs
+        StringBuilder query = new StringBuilder("SELECT DISTINCT ?s WHERE { ");
+        if (contexts.length != 0) {
+            QueryTemplates.appendValues(query, "g", Arrays.asList(contexts));
+        }
+        query.append("GRAPH ?g { ?s a ").append(NTriplesUtil.toNTriplesString(classURI)).append(" } }");
+        List<String> subjects = new ArrayList<>();
+        TupleQueryResult result = connection.prepareTupleQuery(QueryLanguage.SPARQL, query.toString()).evaluate();
+        try {
+            while (result.hasNext()) {
+                subjects.add(result.next().getValue("s").stringValue());
+            }
+        } finally {
+            result.close();
+        }
+
+        //reads their values from all the groups, in chunks
+        List<T> instances = new ArrayList<>();
+        int batchSize = RetrieveOperations.getBatchSize();
+        for (int i = 0; i < subjects.size(); i += batchSize) {
+            List<String> chunk = subjects.subList(i, Math.min(i + batchSize, subjects.size()));
+            Map<String, Map<String, List<Value>>> merged = this.merge(
+                    this.fetch(connection, this.subjectsPattern(f, chunk), contexts), policy, contexts);
+            instances.addAll(this.hydrate(connection, clazz, merged, contexts));
+        }
+        return instances;
+    }
+
+    /**
+     * Retrieves an instance with the values of all the graphs.
+     *
+     * @param connection the connection used to hydrate the instance
+     * @param instanceURI a <code>String</code> with the instance URI
+     * @param clazz a <code>Class</code> with the instance type
+     * @param policy the merge of the values found in many graphs
+     * @param contexts the graphs
+     * @return T the instance, or <code>null</code> if it has no type in any
+     * of the graphs
+     * @throws Exception any exception
+     */
+    public <T> T retrieveInstance(RepositoryConnection connection, String instanceURI, Class<T> clazz,
+            MergePolicy policy, URI... contexts) throws Exception {
+        String pattern = this.subjectsPattern(connection.getValueFactory(), Collections.singletonList(instanceURI));
+        Map<String, Map<String, List<Value>>> merged = this.merge(this.fetch(connection, pattern, contexts),
+                policy, contexts);
+        Map<String, List<Value>> values = merged.get(instanceURI);
+        if (values == null || !values.containsKey(RDF.TYPE.stringValue())) {
+            return null;
+        }
+        List<T> hydrated = this.hydrate(connection, clazz, merged, contexts);
+        return hydrated.get(0);
+    }
+
+    private String subjectsPattern(ValueFactory f, List<String> subjects) {
+        List<URI> uris = new ArrayList<>(subjects.size());
+        for (String subject : subjects) {
+            uris.add(f.createURI(subject));
+        }
+        StringBuilder pattern = new StringBuilder();
+        QueryTemplates.appendValues(pattern, "s", uris);
+        return pattern.append(" ?s ?p ?o").toString();
+    }
+
+    /**
+     * Queries the quads matching a pattern in each group of graphs.
+     *
+     * @return the values of each subject, by graph and predicate
+     */
+    private Map<String, Map<String, Map<String, List<Value>>>> fetch(RepositoryConnection connection,
+            String pattern, URI... contexts) throws Exception {
+
+        //splits the graphs in contiguous groups
+        List<List<URI>> groups = new ArrayList<>();
+        int groupSize = (contexts.length + this.parallelism - 1) / this.parallelism;
+        for (int i = 0; i < contexts.length; i += groupSize) {
+            groups.add(Arrays.asList(contexts).subList(i, Math.min(i + groupSize, contexts.length)));
+        }
+
+        Map<String, Map<String, Map<String, List<Value>>>> byGraph = new HashMap<>();
+        if (groups.isEmpty()) {
+            //no graphs given, so all of them are queried at once
+            return this.query(connection, pattern, Collections.<URI>emptyList());
+        }
+        if (Session.current() != null || groups.size() < 2) {
+            //a single group, or the session, whose changes only its
+            //connection sees
+            for (List<URI> group : groups) {
+                byGraph.putAll(this.query(connection, pattern, group));
+            }
+            return byGraph;
+        }
+        List<Future<Map<String, Map<String, Map<String, List<Value>>>>>> results = new ArrayList<>();
+        for (final List<URI> group : groups) {
+            final String query = pattern;
+            results.add(this.executor.submit(new Callable<Map<String, Map<String, Map<String, List<Value>>>>>() {
+                @Override
+                public Map<String, Map<String, Map<String, List<Value>>>> call() throws Exception {
+                    RepositoryConnection con = GraphFanOut.this.repository.getConnection();
+                    try {
+                        return GraphFanOut.this.query(con, query, group);
+                    } finally {
+                        con.close();
+                    }
+                }
+            }));
+        }
+        try {
+            for (Future<Map<String, Map<String, Map<String, List<Value>>>>> result : results) {
+                byGraph.putAll(result.get());
+            }
+        } catch (ExecutionException e) {
+            for (Future<?> result : results) {
+                result.cancel(true);
+            }
+            throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+        }
+        return byGraph;
+    }
+
+    private Map<String, Map<String, Map<String, List<Value>>>> query(RepositoryConnection connection,
+            String pattern, List<URI> graphs) throws Exception {
+
+        StringBuilder query = new StringBuilder("SELECT ?s ?p ?o ?g WHERE { ");
+        if (!graphs.isEmpty()) {
+            QueryTemplates.appendValues(query, "g", graphs);
+        }
+        query.append("GRAPH ?g { ").append(pattern).append(" } }");
+
+        Map<String, Map<String, Map<String, List<Value>>>> byGraph = new HashMap<>();
+        TupleQueryResult result = connection.prepareTupleQuery(QueryLanguage.SPARQL, query.toString()).evaluate();
+        try {
+            while (result.hasNext()) {
+                BindingSet row = result.next();
+                Map<String, Map<String, List<Value>>> subjects = byGraph.get(row.getValue("g").stringValue());
+                if (subjects == null) {
+                    subjects = new LinkedHashMap<>();
+                    byGraph.put(row.getValue("g").stringValue(), subjects);
+                }
+                String subject = row.getValue("s").stringValue();
+                Map<String, List<Value>> values = subjects.get(subject);
+                if (values == null) {
+                    values = new HashMap<>();
+                    subjects.put(subject, values);
+                }
+                String predicate = row.getValue("p").stringValue();
+                List<Value> list = values.get(predicate);
+                if (list == null) {
+                    list = new ArrayList<>();
+                    values.put(predicate, list);
+                }
+                list.add(row.getValue("o"));
+            }
+        } finally {
+            result.close();
+        }
+        return byGraph;
+    }
+
+    /**
+     * Merges the values of the graphs, visited in the order they were given.
+     *
+     * @return the merged values of each subject, by predicate
+     */
+    private Map<String, Map<String, List<Value>>> merge(Map<String, Map<String, Map<String, List<Value>>>> byGraph,
+            MergePolicy policy, URI... contexts) {
+
+        List<String> graphs = new ArrayList<>();
+        for (URI context : contexts) {
+            graphs.add(context.stringValue());
+        }
+        if (graphs.isEmpty()) {
+            //all the graphs were queried, in no given order
+            graphs.addAll(byGraph.keySet());
+        }
+        Map<String, Map<String, Set<Value>>> merged = new LinkedHashMap<>();
+        for (String graph : graphs) {
+            Map<String, Map<String, List<Value>>> subjects = byGraph.get(graph);
+            if (subjects == null) {
+                continue;
+            }
+            for (Map.Entry<String, Map<String, List<Value>>> subject : subjects.entrySet()) {
+                Map<String, Set<Value>> values = merged.get(subject.getKey());
+                if (values == null) {
+                    values = new HashMap<>();
+                    merged.put(subject.getKey(), values);
+                }
+                for (Map.Entry<String, List<Value>> property : subject.getValue().entrySet()) {
+                    Set<Value> set = values.get(property.getKey());
+                    if (set == null) {
+                        values.put(property.getKey(), new LinkedHashSet<>(property.getValue()));
+                    } else if (policy == MergePolicy.UNION) {
+                        set.addAll(property.getValue());
+                    }
+                }
+            }
+        }
+
+        Map<String, Map<String, List<Value>>> result = new LinkedHashMap<>();
+        for (Map.Entry<String, Map<String, Set<Value>>> subject : merged.entrySet()) {
+            Map<String, List<Value>> values = new HashMap<>();
+            for (Map.Entry<String, Set<Value>> property : subject.getValue().entrySet()) {
+                values.put(property.getKey(), new ArrayList<>(property.getValue()));
+            }
+            result.put(subject.getKey(), values);
+        }
+        return result;
+    }
+
+    private <T> List<T> hydrate(RepositoryConnection connection, Class<T> clazz,
+            Map<String, Map<String, List<Value>>> merged, URI... contexts) throws Exception {
+
+        HydrationPlan plan = HydrationPlan.forConcept(clazz);
+        //resolves the types of all referenced instances at once
+        Set<String> referenced = new LinkedHashSet<>();
+        for (Map<String, List<Value>> values : merged.values()) {
+            this.retrieveOp.collectReferences(plan, values, referenced);
+        }
+        HydrationContext context = new HydrationContext(this.retrieveOp, connection, contexts);
+        context.resolveClasses(referenced);
+
+        List<T> instances = new ArrayList<>();
+        for (Map.Entry<String, Map<String, List<Value>>> subject : merged.entrySet()) {
+            Object obj = plan.newInstance();
+            ((JOINTResource) obj).setURI(subject.getKey());
+            ((JOINTResource) obj).setLazyLoaded(true);
+            this.retrieveOp.populate(obj, plan, subject.getValue(), context);
+            instances.add(clazz.cast(obj));
+        }
+        return instances;
+    }
+}
@@ -1,15 +1,23 @@
 package wwwc.nees.joint.module.kao.retrieve;
 
 import info.aduna.iteration.Iterations;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
 import org.openrdf.query.GraphQuery;
 import org.openrdf.query.GraphQueryResult;
 import org.openrdf.query.QueryLanguage;
 import org.openrdf.repository.RepositoryConnection;
+import wwwc.nees.joint.module.kao.QueryTemplates;
 
 /**
+ * Retrieves the quads of the repository, with the values escaped in the
+ * <code>VALUES</code> blocks of the queries.
+ *
  * @author Thyago
  */
 public class GraphQueryConstruct {
@@ -23,40 +31,7 @@ public class GraphQueryConstruct {
     public List<Statement> getStatementsAsList(String subj, String property, String obj, URI... contexts)
             throws Exception, NullPointerException {
 
-        StringBuilder query = new StringBuilder();
-
-        //Build the query to retrieve the requested elements (?s ?p ?o) where
-        // Sets the context of the instance
-        query.append("SELECT ?s ?p ?o ?g WHERE { ");
-
-        if (contexts != null && contexts.length != 0) {
-            query.append("VALUES ?g {");
-            for (URI context : contexts) {
-                query.append(" <").append(context.toString()).append("> ");
-            }
-            query.append("} ");
-        }
-
-        query.append("GRAPH ?g {");
-
-        if (subj != null) {//If subj isn't equals null, add values tag to ?s with subj in the query
-            query.append("VALUES ?s {<").append(subj).append(">} ");
-        }
-
-        if (property != null) {
-            query.append("VALUES ?p {<").append(property).append(">} ");
-        }
-
-        if (obj != null) {//If obj isn't equals null, add values tag to ?o with obj in the query
-            query.append("VALUES ?o {<").append(obj).append(">}");
-        }
-
-        //Query to retrieve the informations (?s ?p ?o)
-        //Ends tag of the context
-        query.append(" ?s ?p ?o.}}");
-        //evaluate the graph result
-        GraphQuery prepareGraphQuery = this.connection.prepareGraphQuery(QueryLanguage.SPARQL, query.toString());
-        GraphQueryResult graphResult = prepareGraphQuery.evaluate();
+        GraphQueryResult graphResult = this.getStatementsAsGraphQuery(subj, property, obj, contexts);
 
         //Creating a list of statetments with graph query result results
         List<Statement> statements = Iterations.asList(graphResult);
@@ -68,41 +43,15 @@ public class GraphQueryConstruct {
     public GraphQueryResult getStatementsAsGraphQuery(String subj, String property, String obj, URI... contexts)
             throws Exception, NullPointerException {
 
-        StringBuilder query = new StringBuilder();
-
-        //Build the query to retrieve the requested elements (?s ?p ?o) where
-        // Sets the context of the instance
-        query.append("SELECT ?s ?p ?o ?g WHERE { ");
-
-        if (contexts != null && contexts.length != 0) {
-            query.append("VALUES ?g {");
-            for (URI context : contexts) {
-                query.append(" <").append(context.toString()).append("> ");
-            }
-            query.append("} ");
-        }
-
-        query.append("GRAPH ?g {");
-
-        if (subj != null) {//If subj isn't equals null, add values tag to ?s with subj in the query
-            query.append("VALUES ?s {<").append(subj).append(">} ");
-        }
-
-        if (property != null) {
-            query.append("VALUES ?p {<").append(property).append(">} ");
+        ValueFactory f = this.connection.getValueFactory();
+        String query = QueryTemplates.selectStatements(
+                (subj == null) ? null : f.createURI(subj),
+                (property == null) ? null : f.createURI(property),
+                (obj == null) ? null : f.createURI(obj),
+                contexts);
+        GraphQuery prepareGraphQuery = this.connection.prepareGraphQuery(QueryLanguage.SPARQL, query);
 
-        }
-
-        if (obj != null) {//If obj isn't equals null, add values tag to ?o with obj in the query
-            query.append("VALUES ?o {<").append(obj).append(">} ");
-        }
-
-        //Query to retrieve the informations (?s ?p ?o)
-        //Ends tag of the context
-        query.append("?s ?p ?o.} }");
         //evaluate the graph result
-        GraphQuery prepareGraphQuery = this.connection.prepareGraphQuery(QueryLanguage.SPARQL, query.toString());
-
         return prepareGraphQuery.evaluate();
     }
 
@@ -116,37 +65,21 @@ public class GraphQueryConstruct {
         query.append("SELECT ?s ?p ?o ?g WHERE { ");
 
         if (contexts != null && contexts.length != 0) {
-            query.append("VALUES ?g {");
-            for (URI context : contexts) {
-                query.append(" <").append(context.toString()).append("> ");
-            }
-            query.append("} ");
+            QueryTemplates.appendValues(query, "g", Arrays.asList(contexts));
         }
 
         query.append("GRAPH ?g {");
 
         if (subj != null && !subj.isEmpty()) {//If subj isn't equals null, add values tag to ?s with subj in the query
-            query.append("VALUES ?s { ");
-            for (String s : subj) {
-                query.append("<").append(s).append("> ");
-            }
-            query.append("} ");
+            QueryTemplates.appendValues(query, "s", this.toURIs(subj));
         }
 
         if (property != null && !property.isEmpty()) {
-            query.append("VALUES ?p { ");
-            for (String p : property) {
-                query.append(" <").append(p).append("> ");
-            }
-            query.append("} ");
+            QueryTemplates.appendValues(query, "p", this.toURIs(property));
         }
 
         if (obj != null && !obj.isEmpty()) {//If obj isn't equals null, add values tag to ?o with obj in the query
-            query.append("VALUES ?o { ");
-            for (String o : obj) {
-                query.append("<").append(o).append("> ");
-            }
-            query.append("} ");
+            QueryTemplates.appendValues(query, "o", this.toURIs(obj));
         }
 
         //Query to retrieve the informations (?s ?p ?o)
@@ -158,4 +91,13 @@ public class GraphQueryConstruct {
 
         return graphResult;
     }
+
+    private List<Value> toURIs(List<String> uris) {
+        ValueFactory f = this.connection.getValueFactory();
+        List<Value> values = new ArrayList<>(uris.size());
+        for (String uri : uris) {
+            values.add(f.createURI(uri));
+        }
+        return values;
+    }
 }
@@ -2,8 +2,14 @@ package wwwc.nees.joint.module.kao.retrieve;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.codehaus.jettison.json.JSONArray;
@@ -14,20 +20,16 @@ import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
 import org.openrdf.model.Value;
 import org.openrdf.model.ValueFactory;
-import org.openrdf.model.impl.URIImpl;
 import org.openrdf.model.vocabulary.RDF;
-import org.openrdf.query.BindingSet;
 import org.openrdf.query.MalformedQueryException;
 import org.openrdf.query.QueryEvaluationException;
-import org.openrdf.query.QueryLanguage;
-import org.openrdf.query.TupleQuery;
-import org.openrdf.query.TupleQueryResult;
 import org.openrdf.repository.RepositoryConnection;
 import org.openrdf.repository.RepositoryException;
 import org.openrdf.repository.RepositoryResult;
 import org.openrdf.rio.RDFHandler;
 import org.openrdf.rio.RDFHandlerException;
-import wwwc.nees.joint.module.kao.DatatypeManager;
+import wwwc.nees.joint.module.kao.cache.PropertySchema;
+import wwwc.nees.joint.module.kao.cache.SchemaCache;
 
 /**
  * @author williams
@@ -49,9 +51,11 @@ public class GraphQueryToJSONLD implements RDFHandler {
     private JSONObject results_context;
     private JSONObject results_graph;
     private JSONObject results_object;
-    //
-    private final List<String[]> triplesWithObjects;
-    private final List<String> areArray;
+    //Predicates of the triples whose object is a resource, by object, in
+    //the order the objects were found
+    private final Map<String, Set<String>> triplesWithObjects;
+    //Predicates with many values in some subject
+    private final Set<String> areArray;
     private final List<Feature> features;
     private final RepositoryConnection connection;
     private final ValueFactory vf;
@@ -63,8 +67,8 @@ public class GraphQueryToJSONLD implements RDFHandler {
                 .put(OBJECT, new JSONObject());
 
         this.features = Arrays.asList(features);
-        triplesWithObjects = new ArrayList<>();
-        areArray = new ArrayList<>();
+        triplesWithObjects = new LinkedHashMap<>();
+        areArray = new HashSet<>();
 
         this.connection = connection;
         this.vf = connection.getValueFactory();
@@ -87,43 +91,30 @@ public class GraphQueryToJSONLD implements RDFHandler {
 
     @Override
     public void endRDF() throws RDFHandlerException {
-        DatatypeManager datatypeMng = DatatypeManager.getInstance();
         try {
+            // Retrieves the range of the predicates, from the schema cache
+            Map<String, String> predicates_uris = new HashMap<>();
             Iterator<String> predicates_names = results_context.keys();
-            if (predicates_names.hasNext()) {
-                // Creates the query for retrieving the predicates and its range
-                StringBuilder query = new StringBuilder();
-                query.append("select ?pred ?range ")
-                        .append("where{values ?pred{");
-                while (predicates_names.hasNext()) {
-                    String predicate_prefix = predicates_names.next();
-                    String predicate_uri = results_context.getJSONObject(predicate_prefix).getString(ID);
-                    query.append("<").append(predicate_uri).append("> ");
+            while (predicates_names.hasNext()) {
+                String predicate_prefix = predicates_names.next();
+                predicates_uris.put(predicate_prefix, results_context.getJSONObject(predicate_prefix).getString(ID));
+            }
+            Map<String, PropertySchema> schema = loadSchema(connection, predicates_uris.values());
+            //the objects of predicates whose values are literals are not nested
+            Set<String> literalPredicates = new HashSet<>();
+            for (Map.Entry<String, String> predicate : predicates_uris.entrySet()) {
+                PropertySchema property = schema.get(predicate.getValue());
+                if (property.getRange() != null) {
+                    addTypeOfPredicate(predicate.getKey(), property.getRange());
                 }
-                query.append("}?pred rdfs:range ?range.}");
-                try {
-                    TupleQuery prepareTupleQuery = connection.prepareTupleQuery(QueryLanguage.SPARQL, query.toString());
-                    // Performs the query
-                    TupleQueryResult evaluate = prepareTupleQuery.evaluate();
-                    while (evaluate.hasNext()) {
-                        BindingSet next = evaluate.next();
-                        String predicateURI = next.getBinding("pred").getValue().stringValue();
-                        URI predicate = new URIImpl(predicateURI);
-                        String range = next.getBinding("range").getValue().stringValue();
-                        addTypeOfPredicate(predicate.getLocalName(), range);
-                        if (datatypeMng.namespacesClass.containsKey(range)) {
-                            triplesWithObjects.removeIf((value) -> (value[1].equals(predicate.getLocalName())));
-                        }
-                    }
-                    evaluate.close();
-                } catch (RepositoryException | MalformedQueryException | QueryEvaluationException ex) {
-                    throw new RDFHandlerException(ex);
+                if (property.getKind() == PropertySchema.Kind.DATATYPE) {
+                    literalPredicates.add(predicate.getKey());
                 }
             }
 
             if (!features.contains(Feature.NOT_HANDLE_TRIPLES_WITH_OBJECTS)) {
                 // Handles all triples that can have objects instead of Literal.
-                handleTriplesWithObject();
+                handleTriplesWithObject(literalPredicates);
             }
             /**
              * Now will be converted as JSON Array or maintained as JSON Object.
@@ -165,10 +156,28 @@ public class GraphQueryToJSONLD implements RDFHandler {
         }
     }
 
-    private void addTypeOfPredicate(String predicatePrefix, String type) throws JSONException, RepositoryException {
+    private void addTypeOfPredicate(String predicatePrefix, String type) throws JSONException {
         results_context.getJSONObject(predicatePrefix).put(TYPE, type);
     }
 
+    /**
+     * Retrieves the schema of the predicates from the schema cache, which
+     * queries the repository only for the predicates not used before.
+     *
+     * @param connection receives an object of connection with the repository
+     * @param predicates the URIs of the predicates
+     * @return the schema of each predicate, by predicate URI
+     * @throws RDFHandlerException if the query fails
+     */
+    static Map<String, PropertySchema> loadSchema(RepositoryConnection connection, Collection<String> predicates)
+            throws RDFHandlerException {
+        try {
+            return SchemaCache.getInstance().getProperties(connection, predicates);
+        } catch (RepositoryException | MalformedQueryException | QueryEvaluationException ex) {
+            throw new RDFHandlerException(ex);
+        }
+    }
+
     @Override
     public void handleStatement(Statement stt) throws RDFHandlerException {
         try {
@@ -181,14 +190,19 @@ public class GraphQueryToJSONLD implements RDFHandler {
 
             //Validate the URI and it add to list of triples which possible represent an object            
             if (!(value instanceof Literal)) {
-                triplesWithObjects.add(new String[]{subject, predicate_prefix, object});
+                Set<String> predicates = triplesWithObjects.get(object);
+                if (predicates == null) {
+                    predicates = new HashSet<>();
+                    triplesWithObjects.put(object, predicates);
+                }
+                predicates.add(predicate_prefix);
             }
 
             JSONObject jsonObject;
 
             if (results_graph.has(subject)) {
                 jsonObject = results_graph.getJSONObject(subject);
-                if (jsonObject.has(predicate_prefix) && !areArray.contains(predicate_prefix)) {
+                if (jsonObject.has(predicate_prefix)) {
                     areArray.add(predicate_prefix);
                 }
                 jsonObject.accumulate(predicate_prefix, object);
@@ -206,26 +220,22 @@ public class GraphQueryToJSONLD implements RDFHandler {
     }
 
     /**
-     * Handles all triples that can have objects instead of Literal.
+     * Handles all triples that can have objects instead of Literal: each
+     * resource which is also a subject of the results is moved from the graph
+     * to the objects, once, unless all the triples referencing it have
+     * predicates with a datatype as range.
      */
-    private void handleTriplesWithObject() throws JSONException {
-        for (int i = 0; i < triplesWithObjects.size(); i++) {
-            //gets the triple that can have an object
-            String[] triple = triplesWithObjects.get(i);
+    private void handleTriplesWithObject(Set<String> literalPredicates) throws JSONException {
+        for (Map.Entry<String, Set<String>> triples : triplesWithObjects.entrySet()) {
             //gets the object resource from triple
-            String triple_object = triple[2];
-            if (results_graph.has(triple_object)) {
-                //Gets and removes the instance of the graph results
-                JSONObject obj = (JSONObject) results_graph.remove(triple_object);
-                if (!results_object.has(triple_object)) {
-
-                    results_object.put(triple_object, obj);
-
-                    //removes all the triples that contains the same uri as object
-                    triplesWithObjects.removeIf((t) -> (t[2].equals(triple_object)));
-                    //decrease 1 in the counter to avoid error in the index from the list 
-                    i--;
-                }
+            String triple_object = triples.getKey();
+            if (!results_graph.has(triple_object) || literalPredicates.containsAll(triples.getValue())) {
+                continue;
+            }
+            //Gets and removes the instance of the graph results
+            JSONObject obj = (JSONObject) results_graph.remove(triple_object);
+            if (!results_object.has(triple_object)) {
+                results_object.put(triple_object, obj);
             }
         }
     }
@@ -243,19 +253,25 @@ public class GraphQueryToJSONLD implements RDFHandler {
     }
 
     /**
-     * Converts all the objects that contains the <b>predicate</b> key as an
-     * json object or literal to an json array
+     * Converts all the values of the predicates with many values in some
+     * subject to JSON arrays, in the given object
      *
-     * @param predicate
+     * @param object the JSON object of a subject
      * @throws org.codehaus.jettison.json.JSONException
      */
     private void convertObjectToArray_Object(JSONObject object) throws JSONException {
-        for (String predicate : areArray) {
-            if (object.has(predicate)) {
-                Object ob = object.get(predicate);
-                if (!(ob instanceof JSONArray)) {
-                    object.put(predicate, new JSONArray().put(ob));
-                }
+        List<String> predicates = new ArrayList<>();
+        Iterator<?> keys = object.keys();
+        while (keys.hasNext()) {
+            String predicate = (String) keys.next();
+            if (areArray.contains(predicate)) {
+                predicates.add(predicate);
+            }
+        }
+        for (String predicate : predicates) {
+            Object ob = object.get(predicate);
+            if (!(ob instanceof JSONArray)) {
+                object.put(predicate, new JSONArray().put(ob));
             }
         }
     }
@@ -263,15 +279,7 @@ public class GraphQueryToJSONLD implements RDFHandler {
     private void convertObjectToArray_Objects(JSONObject object) throws JSONException {
         Iterator<String> keys = object.keys();
         while (keys.hasNext()) {
-            JSONObject jsonObject = object.getJSONObject(keys.next());
-            for (String predicate : areArray) {
-                if (jsonObject.has(predicate)) {
-                    Object ob = jsonObject.get(predicate);
-                    if (!(ob instanceof JSONArray)) {
-                        jsonObject.put(predicate, new JSONArray().put(ob));
-                    }
-                }
-            }
+            convertObjectToArray_Object(object.getJSONObject(keys.next()));
         }
     }
 }
@@ -0,0 +1,185 @@
+package wwwc.nees.joint.module.kao.retrieve;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.openrdf.model.Statement;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.rio.RDFHandler;
+import org.openrdf.rio.RDFHandlerException;
+import wwwc.nees.joint.module.kao.cache.PropertySchema;
+
+/**
+ * Writes the results of a graph query as the statements arrive, for the
+ * feature {@link Feature#STREAM}, in a JSON-LD layout close to the one of
+ * {@link GraphQueryToJSONLD} with the <code>@graph</code> as an array and
+ * without nesting the objects. Only the properties
+ * of the current subject are kept in memory: a node is written when the
+ * subject changes, so a subject whose statements are not consecutive results
+ * in many nodes with the same <code>@id</code>. A property is an array in the
+ * nodes where it has many values. The <code>@context</code> is written after
+ * the <code>@graph</code>, when all the predicates are known. The sink is
+ * flushed at the end of the results, but not closed.
+ *
+ * @author williams
+ */
+public class GraphQueryToJSONLDStreamWriter implements RDFHandler {
+
+    // CONSTANTS
+    private static final String CONTEXT = "@context";
+    private static final String OBJECT = "@object";
+    private static final String GRAPH = "@graph";
+    private static final String ID = "@id";
+    private static final String TYPE = "@type";
+
+    // VARIABLES
+    // -------------------------------------------------------------------------
+    private final Writer writer;
+    private final RepositoryConnection connection;
+    // URI of each predicate, by the name used in the nodes
+    private final Map<String, String> context = new LinkedHashMap<>();
+    // Node being built, whose properties are not written yet
+    private String subject;
+    private final Map<String, List<String>> properties = new LinkedHashMap<>();
+    private boolean firstNode;
+
+    // CONSTRUCTOR
+    // -------------------------------------------------------------------------
+    /**
+     * Creates a writer of UTF-8 JSON-LD to a stream.
+     *
+     * @param connection the connection used to retrieve the predicate ranges
+     * @param out the stream
+     */
+    public GraphQueryToJSONLDStreamWriter(RepositoryConnection connection, OutputStream out) {
+        this(connection, new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Creates a writer of JSON-LD to a character sink.
+     *
+     * @param connection the connection used to retrieve the predicate ranges
+     * @param writer the sink
+     */
+    public GraphQueryToJSONLDStreamWriter(RepositoryConnection connection, Writer writer) {
+        this.connection = connection;
+        this.writer = (writer instanceof BufferedWriter) ? writer : new BufferedWriter(writer);
+    }
+
+    // METHODS
+    // -------------------------------------------------------------------------
+    @Override
+    public void startRDF() throws RDFHandlerException {
+        try {
+            this.writer.write("{\"" + GRAPH + "\":[");
+            this.firstNode = true;
+        } catch (IOException e) {
+            throw new RDFHandlerException(e);
+        }
+    }
+
+    @Override
+    public void endRDF() throws RDFHandlerException {
+        try {
+            this.writeNode();
+            this.writer.write("],\"" + OBJECT + "\":{},\"" + CONTEXT + "\":{");
+            Map<String, PropertySchema> schema = GraphQueryToJSONLD.loadSchema(this.connection, this.context.values());
+            boolean first = true;
+            for (Map.Entry<String, String> predicate : this.context.entrySet()) {
+                if (!first) {
+                    this.writer.write(',');
+                }
+                first = false;
+                TupleQueryToJSONStreamWriter.writeString(this.writer, predicate.getKey());
+                this.writer.write(":{\"" + ID + "\":");
+                TupleQueryToJSONStreamWriter.writeString(this.writer, predicate.getValue());
+                String range = schema.get(predicate.getValue()).getRange();
+                if (range != null) {
+                    this.writer.write(",\"" + TYPE + "\":");
+                    TupleQueryToJSONStreamWriter.writeString(this.writer, range);
+                }
+                this.writer.write('}');
+            }
+            this.writer.write("}}");
+            this.writer.flush();
+        } catch (IOException e) {
+            throw new RDFHandlerException(e);
+        }
+    }
+
+    @Override
+    public void handleNamespace(String prefix, String uri) throws RDFHandlerException {
+        if (!this.context.containsKey(prefix)) {
+            this.context.put(prefix, uri);
+        }
+    }
+
+    @Override
+    public void handleStatement(Statement stt) throws RDFHandlerException {
+        String statementSubject = stt.getSubject().stringValue();
+        String predicate_prefix = stt.getPredicate().getLocalName();
+        this.handleNamespace(predicate_prefix, stt.getPredicate().stringValue());
+
+        if (!statementSubject.equals(this.subject)) {
+            try {
+                this.writeNode();
+            } catch (IOException e) {
+                throw new RDFHandlerException(e);
+            }
+            this.subject = statementSubject;
+        }
+        List<String> values = this.properties.get(predicate_prefix);
+        if (values == null) {
+            values = new ArrayList<>(1);
+            this.properties.put(predicate_prefix, values);
+        }
+        values.add(stt.getObject().stringValue());
+    }
+
+    @Override
+    public void handleComment(String string) throws RDFHandlerException {
+    }
+
+    /**
+     * Writes the node of the current subject, if any, and forgets it.
+     */
+    private void writeNode() throws IOException {
+        if (this.subject == null) {
+            return;
+        }
+        if (!this.firstNode) {
+            this.writer.write(',');
+        }
+        this.firstNode = false;
+        this.writer.write("{\"" + ID + "\":");
+        TupleQueryToJSONStreamWriter.writeString(this.writer, this.subject);
+        for (Map.Entry<String, List<String>> property : this.properties.entrySet()) {
+            this.writer.write(',');
+            TupleQueryToJSONStreamWriter.writeString(this.writer, property.getKey());
+            this.writer.write(':');
+            List<String> values = property.getValue();
+            if (values.size() == 1) {
+                TupleQueryToJSONStreamWriter.writeString(this.writer, values.get(0));
+                continue;
+            }
+            this.writer.write('[');
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) {
+                    this.writer.write(',');
+                }
+                TupleQueryToJSONStreamWriter.writeString(this.writer, values.get(i));
+            }
+            this.writer.write(']');
+        }
+        this.writer.write('}');
+        this.subject = null;
+        this.properties.clear();
+    }
+}
@@ -0,0 +1,307 @@
+package wwwc.nees.joint.module.kao.retrieve;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.xml.datatype.XMLGregorianCalendar;
+import org.openrdf.model.Literal;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.repository.RepositoryConnection;
+import wwwc.nees.joint.model.JOINTResource;
+import wwwc.nees.joint.module.kao.DatatypeManager;
+import wwwc.nees.joint.module.kao.Session;
+
+/**
+ * Conversions between RDF values and Java values used while populating
+ * instances, by the generated hydrators and by the reflective fallback.
+ *
+ * @author Olavo
+ */
+public class HydrationContext {
+
+    // VARIABLES
+    // -------------------------------------------------------------------------
+    private final RetrieveOperations retrieveOp;
+    private final DatatypeManager datatypeManager;
+    private final RepositoryConnection connection;
+    private final ValueFactory f;
+    private final URI[] contexts;
+    // Class names of the referenced instances, by URI
+    private final Map<String, String> classNames = new HashMap<>();
+    // Groups of the not loaded instances created by this context, by class
+    private final Map<String, FetchGroup> fetchGroups = new HashMap<>();
+    // Session of the thread, whose identity map keeps the referenced instances
+    private final Session session;
+
+    // CONSTRUCTOR
+    // -------------------------------------------------------------------------
+    /**
+     * Creates a context over a connection with the repository.
+     *
+     * @param connection receives an object of connection with the repository
+     * @param contexts <code>URI</code> represent the graphs in which the
+     * referenced instances are searched.
+     */
+    public HydrationContext(RepositoryConnection connection, URI... contexts) {
+        this(new RetrieveOperations(), connection, contexts);
+    }
+
+    HydrationContext(RetrieveOperations retrieveOp, RepositoryConnection connection, URI... contexts) {
+        this.retrieveOp = retrieveOp;
+        this.datatypeManager = DatatypeManager.getInstance();
+        this.connection = connection;
+        this.f = connection.getValueFactory();
+        this.contexts = contexts;
+        this.session = Session.current();
+    }
+
+    /**
+     * Creates a context without connection, whose referenced instances have
+     * their classes already resolved.
+     *
+     * @param classNames the class names of the referenced instances, by URI
+     */
+    HydrationContext(RetrieveOperations retrieveOp, Map<String, String> classNames, URI... contexts) {
+        this.retrieveOp = retrieveOp;
+        this.datatypeManager = DatatypeManager.getInstance();
+        this.connection = null;
+        this.f = ValueFactoryImpl.getInstance();
+        this.contexts = contexts;
+        this.session = Session.current();
+        this.classNames.putAll(classNames);
+    }
+
+    // METHODS
+    // -------------------------------------------------------------------------
+    /**
+     * Retrieves the graphs in which the instances are hydrated.
+     *
+     * @return the graphs, empty for all of them
+     */
+    public URI[] getContexts() {
+        return this.contexts;
+    }
+
+    /**
+     * Creates a not loaded instance, adding it to the fetch group of its
+     * class so the siblings are lazy loaded together.
+     */
+    private Object newNotLoadedObject(String uri, String className) {
+        Object obj = this.retrieveOp.getNotLoadedObject(uri, className);
+        if (this.session != null && obj != null) {
+            this.session.register(obj, this.contexts);
+        }
+        int capacity = LazyLoader.getBatchSize();
+        if (capacity > 1 && !Object.class.getName().equals(className) && obj instanceof JOINTResource) {
+            FetchGroup group = this.fetchGroups.get(className);
+            if (group == null || group.isFull()) {
+                group = new FetchGroup(capacity);
+                this.fetchGroups.put(className, group);
+            }
+            group.add((JOINTResource) obj);
+        }
+        return obj;
+    }
+
+    /**
+     * Resolves the classes of the referenced instances with batched queries,
+     * so they are not looked up one by one while the values are converted.
+     *
+     * @param uris the URIs of the referenced instances
+     * @throws Exception any exception
+     */
+    public void resolveClasses(Collection<String> uris) throws Exception {
+        List<String> pending = new ArrayList<>();
+        for (String uri : uris) {
+            if (!this.classNames.containsKey(uri) && this.known(uri) == null) {
+                pending.add(uri);
+            }
+        }
+        if (!pending.isEmpty()) {
+            this.classNames.putAll(this.retrieveOp.getClassesFromBase(this.connection, pending, this.contexts));
+        }
+    }
+
+    /**
+     * Retrieves the class names of the referenced instances resolved so far.
+     *
+     * @return the class names, by URI
+     */
+    Map<String, String> getClassNames() {
+        return this.classNames;
+    }
+
+    /**
+     * Retrieves a referenced instance already in the identity map of the
+     * session, if there is one.
+     */
+    private Object known(String uri) {
+        return (this.session == null) ? null : this.session.lookup(uri, this.contexts);
+    }
+
+    /**
+     * Retrieves the class name of a referenced instance, querying the
+     * repository only if it was not resolved before.
+     */
+    private String getClassName(String uri) throws Exception {
+        String className = this.classNames.get(uri);
+        if (className == null) {
+            className = this.retrieveOp.getClassFromBase(this.connection, uri, this.contexts);
+            this.classNames.put(uri, className);
+        }
+        return className;
+    }
+
+    /**
+     * Converts the value of a functional property.
+     *
+     * @param values the values of the property, only the first one is used
+     * @param type the type of the property; a primitive type is converted as
+     * its wrapper, the type passed by the generated hydrators
+     * @return the converted value, a not loaded instance if it references
+     * another resource, or <code>null</code> if the value is empty
+     * @throws Exception if the literal cannot be converted
+     */
+    public Object toObject(List<Value> values, Class<?> type) throws Exception {
+        //gets the Value from the object of this property
+        Value objValue = values.get(0);
+        //gets the assiciated URI
+        String valueURI = objValue.stringValue();
+        //it the valueURI is empty, there is nothing to set
+        if (valueURI.isEmpty()) {
+            return null;
+        }
+        //if it is a datatype
+        if (this.datatypeManager.isDatatype(objValue)) {
+            //mapps to the an specific java native Class
+            return this.datatypeManager.convertLiteralToDataype((Literal) objValue, boxed(type).getName());
+        }
+        //else it is an istance, the same object if it is in the session
+        Object known = this.known(valueURI);
+        if (known != null) {
+            return known;
+        }
+        //or a new one, gets the class name from the resolved types
+        String className = this.getClassName(valueURI);
+        //gets a new instance with its properties not loaded
+        return this.newNotLoadedObject(valueURI, className);
+    }
+
+    private static Class<?> boxed(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return type;
+        } else if (type == boolean.class) {
+            return Boolean.class;
+        } else if (type == int.class) {
+            return Integer.class;
+        } else if (type == char.class) {
+            return Character.class;
+        } else if (type == byte.class) {
+            return Byte.class;
+        } else if (type == short.class) {
+            return Short.class;
+        } else if (type == long.class) {
+            return Long.class;
+        } else if (type == float.class) {
+            return Float.class;
+        } else if (type == double.class) {
+            return Double.class;
+        }
+        return type;
+    }
+
+    /**
+     * Converts the values of a multi valued property.
+     *
+     * @param values the values of the property
+     * @return a set with the converted values
+     * @throws Exception if a literal cannot be converted
+     */
+    public Set<Object> toSet(List<Value> values) throws Exception {
+        //creates the set to be used in the method
+        Set<Object> returnSet = new HashSet<>();
+        //gets the first value for type searching
+        Value v = values.get(0);
+        //if it is a datatype
+        if (this.datatypeManager.isDatatype(v)) {
+            //crawls the list of values converting to a
+            //specific java native Class
+            for (Value objValue : values) {
+                returnSet.add(this.datatypeManager.convertLiteralToDataype((Literal) objValue));
+            }
+            //else it is an istance
+        } else {
+            String className = null;
+            //crawls the list of values converting to the
+            //specific Class
+            for (Value objValue : values) {
+                //the same object if it is in the session
+                Object known = this.known(objValue.stringValue());
+                if (known != null) {
+                    returnSet.add(known);
+                    continue;
+                }
+                //gets the class name from the resolved types
+                if (className == null) {
+                    className = this.getClassName(v.stringValue());
+                }
+                //gets a new instance with its properties not loaded
+                returnSet.add(this.newNotLoadedObject(objValue.stringValue(), className));
+            }
+        }
+        return returnSet;
+    }
+
+    /**
+     * Converts the value of a field to RDF values, adding each element if it
+     * is a set.
+     *
+     * @param value the value of the field
+     * @param values the list where the converted values are added
+     */
+    public void toValues(Object value, List<Value> values) {
+        if (value == null) {
+            return;
+        }
+        if (value instanceof Set) {
+            for (Object ob : (Set<?>) value) {
+                if (ob != null) {
+                    values.add(this.toValue(ob));
+                }
+            }
+        } else {
+            values.add(this.toValue(value));
+        }
+    }
+
+    /**
+     * Converts a single Java value to a literal, if it is a datatype, or to
+     * the URI of the instance otherwise.
+     *
+     * @param value the Java value
+     * @return the RDF value
+     */
+    public Value toValue(Object value) {
+        if (value instanceof String) {
+            return this.f.createLiteral((String) value);
+        } else if (value instanceof Boolean) {
+            return this.f.createLiteral((Boolean) value);
+        } else if (value instanceof Integer) {
+            return this.f.createLiteral((Integer) value);
+        } else if (value instanceof Float) {
+            return this.f.createLiteral((Float) value);
+        } else if (value instanceof Double) {
+            return this.f.createLiteral((Double) value);
+        } else if (value instanceof XMLGregorianCalendar) {
+            return this.f.createLiteral((XMLGregorianCalendar) value);
+        }
+        return this.f.createURI(value.toString());
+    }
+}
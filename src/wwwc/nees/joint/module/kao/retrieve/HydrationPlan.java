@@ -0,0 +1,325 @@
+package wwwc.nees.joint.module.kao.retrieve;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import wwwc.nees.joint.compiler.annotations.Iri;
+
+/**
+ * Metadata of a generated concrete (<code>*Impl</code>) class, built once per
+ * class and shared by every hydration path. It maps each predicate IRI to a
+ * prebuilt binding of its setter and getter, so the objects can be populated
+ * without scanning the class methods again.
+ *
+ * @author Olavo
+ */
+public final class HydrationPlan {
+
+    // VARIABLES
+    // -------------------------------------------------------------------------
+    private static final String SUF_IMPL_CLASS = "Impl";
+    private static final String SUF_HYDRATOR_CLASS = "Hydrator";
+    private static final String PREF_SETTER = "set";
+    private static final String PREF_GETTER = "get";
+    private static final String PREF_BOOLEAN_GETTER = "is";
+    // Plans already built, by concrete class
+    private static final ConcurrentMap<Class<?>, HydrationPlan> PLANS = new ConcurrentHashMap<>();
+    // Concrete classes already resolved, by concept (interface) name
+    private static final ConcurrentMap<String, Class<?>> IMPL_CLASSES = new ConcurrentHashMap<>();
+
+    private final Class<?> implClass;
+    private final MethodHandle constructor;
+    // Hydrator generated by the compiler, if any
+    private final Hydrator hydrator;
+    // Bindings by predicate IRI
+    private final Map<String, PropertyBinding> properties;
+    // Bindings by field name, as registered in the inner modified fields
+    private final Map<String, PropertyBinding> fields;
+
+    // CONSTRUCTOR
+    // -------------------------------------------------------------------------
+    private HydrationPlan(Class<?> implClass) throws NoSuchMethodException, IllegalAccessException {
+        this.implClass = implClass;
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        this.constructor = lookup.findConstructor(implClass, MethodType.methodType(void.class))
+                .asType(MethodType.methodType(Object.class));
+
+        Map<String, Method> getters = new HashMap<>();
+        Map<String, Method> setters = new HashMap<>();
+        for (Method method : implClass.getMethods()) {
+            if (method.getAnnotation(Iri.class) == null) {
+                continue;
+            }
+            String name = method.getName();
+            if (name.startsWith(PREF_SETTER) && method.getParameterTypes().length == 1) {
+                setters.put(name.substring(PREF_SETTER.length()), method);
+            } else if (name.startsWith(PREF_GETTER) && method.getParameterTypes().length == 0) {
+                getters.put(name.substring(PREF_GETTER.length()), method);
+            } else if (name.startsWith(PREF_BOOLEAN_GETTER) && method.getParameterTypes().length == 0) {
+                getters.put(name.substring(PREF_BOOLEAN_GETTER.length()), method);
+            }
+        }
+
+        Map<String, PropertyBinding> byPredicate = new HashMap<>();
+        Map<String, PropertyBinding> byField = new HashMap<>();
+        for (Map.Entry<String, Method> entry : setters.entrySet()) {
+            Method setter = entry.getValue();
+            PropertyBinding binding = new PropertyBinding(lookup, entry.getKey(),
+                    setter.getAnnotation(Iri.class).value(), setter, getters.get(entry.getKey()));
+            byPredicate.put(binding.getPredicate(), binding);
+            byField.put(binding.getFieldName(), binding);
+        }
+        this.properties = Collections.unmodifiableMap(byPredicate);
+        this.fields = Collections.unmodifiableMap(byField);
+        this.hydrator = loadHydrator(implClass);
+    }
+
+    private static Hydrator loadHydrator(Class<?> implClass) {
+        String implName = implClass.getName();
+        if (!implName.endsWith(SUF_IMPL_CLASS)) {
+            return null;
+        }
+        String hydratorName = implName.substring(0, implName.length() - SUF_IMPL_CLASS.length())
+                + SUF_HYDRATOR_CLASS;
+        try {
+            Class<?> hydratorClass = Class.forName(hydratorName, true, implClass.getClassLoader());
+            if (!Hydrator.class.isAssignableFrom(hydratorClass)) {
+                return null;
+            }
+            return (Hydrator) hydratorClass.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            // classes compiled before the hydrators use the accessors bindings
+            return null;
+        }
+    }
+
+    // METHODS
+    // -------------------------------------------------------------------------
+    /**
+     * Gets the plan of a concrete (<code>*Impl</code>) class, building it on
+     * the first call.
+     *
+     * @param implClass the concrete class generated by the compiler
+     * @return the plan of the class
+     * @throws Exception if the class has no public default constructor
+     */
+    public static HydrationPlan forImplClass(Class<?> implClass) throws Exception {
+        HydrationPlan plan = PLANS.get(implClass);
+        if (plan == null) {
+            plan = new HydrationPlan(implClass);
+            HydrationPlan previous = PLANS.putIfAbsent(implClass, plan);
+            if (previous != null) {
+                plan = previous;
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Gets the plan of the concrete class of a concept.
+     *
+     * @param conceptName the full name of the concept (interface)
+     * @return the plan of its <code>*Impl</code> class
+     * @throws Exception if the concrete class cannot be found or used
+     */
+    public static HydrationPlan forConcept(String conceptName) throws Exception {
+        Class<?> implClass = IMPL_CLASSES.get(conceptName);
+        if (implClass == null) {
+            implClass = Class.forName(conceptName + SUF_IMPL_CLASS);
+            IMPL_CLASSES.put(conceptName, implClass);
+        }
+        return forImplClass(implClass);
+    }
+
+    /**
+     * Gets the plan of the concrete class of a concept.
+     *
+     * @param concept the concept (interface)
+     * @return the plan of its <code>*Impl</code> class
+     * @throws Exception if the concrete class cannot be found or used
+     */
+    public static HydrationPlan forConcept(Class<?> concept) throws Exception {
+        return forConcept(concept.getName());
+    }
+
+    /**
+     * Creates a new, empty, instance of the concrete class.
+     *
+     * @return the new instance
+     * @throws Exception any exception thrown by the constructor
+     */
+    public Object newInstance() throws Exception {
+        try {
+            return (Object) this.constructor.invokeExact();
+        } catch (Error | Exception e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    /**
+     * Retrieves the hydrator generated by the compiler for the concept.
+     *
+     * @return the hydrator or <code>null</code> if the concept was compiled
+     * without one, in which case the property bindings are used
+     */
+    public Hydrator getHydrator() {
+        return this.hydrator;
+    }
+
+    public Class<?> getImplClass() {
+        return this.implClass;
+    }
+
+    /**
+     * Retrieves all the bindings of the class.
+     *
+     * @return the bindings of the properties
+     */
+    public Collection<PropertyBinding> getProperties() {
+        return this.properties.values();
+    }
+
+    /**
+     * Retrieves the binding of a predicate.
+     *
+     * @param predicate the IRI of the property
+     * @return the binding or <code>null</code> if the class has no such
+     * property
+     */
+    public PropertyBinding getProperty(String predicate) {
+        return this.properties.get(predicate);
+    }
+
+    /**
+     * Retrieves the binding of a field, by the name kept in the inner modified
+     * fields of the instances (e.g. <code>FoafName</code>).
+     *
+     * @param fieldName the name of the field
+     * @return the binding or <code>null</code> if the class has no such field
+     */
+    public PropertyBinding getField(String fieldName) {
+        return this.fields.get(fieldName);
+    }
+
+    /**
+     * Retrieves the IRIs of all the properties of the class.
+     *
+     * @return a list with the predicates
+     */
+    public List<String> getPredicates() {
+        return new ArrayList<>(this.properties.keySet());
+    }
+
+    /**
+     * Retrieves the fields whose properties are not in a projection.
+     *
+     * @param predicates the IRIs of the projected properties
+     * @return the names of the fields left out of the projection
+     */
+    public Set<String> getDeferredFields(Collection<String> predicates) {
+        Set<String> deferred = new HashSet<>();
+        for (PropertyBinding binding : this.properties.values()) {
+            if (!predicates.contains(binding.getPredicate())) {
+                deferred.add(binding.getFieldName());
+            }
+        }
+        return deferred;
+    }
+
+    /**
+     * Prebuilt accessors of a single property of a concrete class.
+     */
+    public static final class PropertyBinding {
+
+        private final String fieldName;
+        private final String predicate;
+        private final Class<?> type;
+        private final String typeName;
+        private final boolean multiValued;
+        private final MethodHandle setter;
+        private final MethodHandle getter;
+
+        private PropertyBinding(MethodHandles.Lookup lookup, String fieldName, String predicate,
+                Method setter, Method getter) throws IllegalAccessException {
+            this.fieldName = fieldName;
+            this.predicate = predicate;
+            this.type = setter.getParameterTypes()[0];
+            this.typeName = this.type.getName();
+            this.multiValued = Set.class.isAssignableFrom(this.type);
+            this.setter = lookup.unreflect(setter)
+                    .asType(MethodType.methodType(void.class, Object.class, Object.class));
+            this.getter = (getter == null) ? null : lookup.unreflect(getter)
+                    .asType(MethodType.methodType(Object.class, Object.class));
+        }
+
+        /**
+         * Invokes the setter of the property.
+         *
+         * @param target the instance
+         * @param value the new value
+         * @throws Exception any exception thrown by the setter
+         */
+        public void set(Object target, Object value) throws Exception {
+            try {
+                this.setter.invokeExact(target, value);
+            } catch (Error | Exception e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+
+        /**
+         * Invokes the getter of the property.
+         *
+         * @param target the instance
+         * @return the current value
+         * @throws Exception any exception thrown by the getter
+         */
+        public Object get(Object target) throws Exception {
+            if (this.getter == null) {
+                throw new NoSuchMethodException(PREF_GETTER + this.fieldName);
+            }
+            try {
+                return (Object) this.getter.invokeExact(target);
+            } catch (Error | Exception e) {
+                throw e;
+            } catch (Throwable t) {
+                throw new IllegalStateException(t);
+            }
+        }
+
+        public String getFieldName() {
+            return this.fieldName;
+        }
+
+        public String getPredicate() {
+            return this.predicate;
+        }
+
+        public Class<?> getType() {
+            return this.type;
+        }
+
+        public String getTypeName() {
+            return this.typeName;
+        }
+
+        public boolean isMultiValued() {
+            return this.multiValued;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package wwwc.nees.joint.module.kao.retrieve;
+
+import java.util.List;
+import java.util.Map;
+import org.openrdf.model.Value;
+
+/**
+ * Interface of the hydrators generated by the compiler for each concept. A
+ * hydrator populates the concrete (<code>*Impl</code>) instances and converts
+ * their fields back to values calling the typed accessors directly, without
+ * reflection.
+ *
+ * @author Olavo
+ */
+public interface Hydrator {
+
+    // METHODS
+    // -------------------------------------------------------------------------
+    /**
+     * Populates an instance with the values of its properties.
+     *
+     * @param instance the concrete instance to be populated
+     * @param properties the values of the instance, by predicate IRI
+     * @param context converts the values to the Java types
+     * @throws Exception any exception thrown by the conversions or setters
+     */
+    public void hydrate(Object instance, Map<String, List<Value>> properties, HydrationContext context)
+            throws Exception;
+
+    /**
+     * Converts the current value of a field of the instance to RDF values.
+     *
+     * @param instance the concrete instance
+     * @param field the name of the field, as kept in the inner modified fields
+     * @param values the list where the values of the field are added
+     * @param context converts the Java values to RDF values
+     * @return the IRI of the field predicate, or <code>null</code> if the
+     * instance has no such field
+     * @throws Exception any exception thrown by the getter
+     */
+    public String dehydrate(Object instance, String field, List<Value> values, HydrationContext context)
+            throws Exception;
+}
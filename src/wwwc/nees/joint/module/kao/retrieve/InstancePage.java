@@ -0,0 +1,52 @@
+package wwwc.nees.joint.module.kao.retrieve;
+
+import java.util.List;
+
+/**
+ * A page of instances retrieved with keyset pagination. The continuation
+ * token is the URI of the last instance of the page, the next page starts
+ * after it.
+ *
+ * @param <T> the type of the instances
+ * @author Olavo
+ */
+public class InstancePage<T> {
+
+    // VARIABLES
+    // -------------------------------------------------------------------------
+    private final List<T> instances;
+    private final String continuationToken;
+
+    // CONSTRUCTOR
+    // -------------------------------------------------------------------------
+    /**
+     * Creates a page.
+     *
+     * @param instances the instances of the page
+     * @param continuationToken the token of the next page, or
+     * <code>null</code> if this is the last one
+     */
+    public InstancePage(List<T> instances, String continuationToken) {
+        this.instances = instances;
+        this.continuationToken = continuationToken;
+    }
+
+    // METHODS
+    // -------------------------------------------------------------------------
+    public List<T> getInstances() {
+        return this.instances;
+    }
+
+    /**
+     * Retrieves the token to be passed to retrieve the next page.
+     *
+     * @return the token, or <code>null</code> if there are no more pages
+     */
+    public String getContinuationToken() {
+        return this.continuationToken;
+    }
+
+    public boolean hasMore() {
+        return this.continuationToken != null;
+    }
+}
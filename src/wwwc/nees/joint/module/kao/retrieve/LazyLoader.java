@@ -1,30 +1,31 @@
 package wwwc.nees.joint.module.kao.retrieve;
 
 import info.aduna.iteration.Iterations;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import org.openrdf.model.Literal;
 import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
 import org.openrdf.model.Value;
 import org.openrdf.model.ValueFactory;
 import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.query.GraphQueryResult;
 import org.openrdf.repository.RepositoryConnection;
 import org.openrdf.repository.RepositoryException;
 import org.openrdf.repository.RepositoryResult;
-import wwwc.nees.joint.compiler.annotations.Iri;
 import wwwc.nees.joint.model.JOINTResource;
 import wwwc.nees.joint.module.kao.AbstractKAO;
 import wwwc.nees.joint.module.kao.ConceptsPackageInfo;
 import wwwc.nees.joint.module.kao.DatatypeManager;
 import wwwc.nees.joint.module.kao.RepositoryFactory;
+import wwwc.nees.joint.module.kao.Session;
+import wwwc.nees.joint.module.kao.TransactionHandler;
 
 /**
  *
@@ -33,18 +34,15 @@ import wwwc.nees.joint.module.kao.RepositoryFactory;
 public class LazyLoader {
 
     private static final String OBJECT_CLASS = "java.lang.Object";
-    private static final String SET_CLASS = "java.util.Set";
-    private static final String METHOD_SET_INNERFIELDS = "setInnerModifiedFields";
-    private static final String METHOD_SET_LAZYLOADED = "setLazyLoaded";
-    private static final String METHOD_SET_URI = "setURI";
-    private static final String PREF_SETTER = "set";
-    private static final String SUF_IMPL_CLASS = "Impl";
+    // Maximum number of sibling instances loaded together
+    private static volatile int batchSize = 50;
 
     private final DatatypeManager datatypeManager;
     private RepositoryConnection connection;
     private ValueFactory f;
     private final Map<String, String> packages;
     private final GraphQueryConstruct graphQueryConstruct;
+    private final RetrieveOperations retrieveOp;
 
     public LazyLoader(RepositoryConnection con) {
         this.connection = con;
@@ -52,6 +50,7 @@ public class LazyLoader {
         this.packages = ConceptsPackageInfo.getPackagesInfo(this.getClass());
         this.datatypeManager = DatatypeManager.getInstance();
         this.graphQueryConstruct = new GraphQueryConstruct(con);
+        this.retrieveOp = new RetrieveOperations();
     }
 
     public String getClassFromBase(String subj, URI... contexts) throws Exception {
@@ -117,38 +116,19 @@ public class LazyLoader {
             } else {
 
                 //creates an instance with the concrete class
-                Class clazz = Class.forName(clazzName + SUF_IMPL_CLASS);
-                obj = clazz.newInstance();
+                obj = HydrationPlan.forConcept(clazzName).newInstance();
                 //casts the object to the upper class JOINTResource and
                 //calls the methods setURI and setLazyLoaded
                 ((JOINTResource) obj).setURI(instanceName);
                 ((JOINTResource) obj).setLazyLoaded(false);
             }
-        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException ex) {
+        } catch (Exception ex) {
             Logger.getLogger(LazyLoader.class.getName()).log(Level.SEVERE, null, ex);
         }
         //return the object
         return obj;
     }
 
-    private Map<String, List<Value>> sortPropertiesAndValues(List<Statement> statements) {
-        //creates a map to hold all values of the properties
-        Map<String, List<Value>> mapProperties = new HashMap<>();
-
-        //puts the property values in the map
-        for (Statement s : statements) {
-            String prop = s.getPredicate().stringValue();
-            if (mapProperties.containsKey(prop)) {
-                mapProperties.get(prop).add(s.getObject());
-            } else {
-                List<Value> values = new ArrayList<>();
-                values.add(s.getObject());
-                mapProperties.put(prop, values);
-            }
-        }
-        return mapProperties;
-    }
-
     public void lazyLoadObject(Object objectClassImpl, String className, URI... contexts) {
 
         try {
@@ -157,139 +137,262 @@ public class LazyLoader {
 
             String instanceName = objectClassImpl.toString();
             URI suj = f.createURI(instanceName);
-            Class classImpl = Class.forName(className);
+
+            //gets the hydration plan of the concrete class
+            HydrationPlan plan = HydrationPlan.forImplClass(objectClassImpl.getClass());
 
             //casts the object to the upper class JOINTResource and
             //calls the methods setURI and setLazyLoaded
             ((JOINTResource) objectClassImpl).setURI(instanceName);
             ((JOINTResource) objectClassImpl).setLazyLoaded(true);
 
-            //gets all methods of the desired class
-            Method[] allMethodsClassImpl = classImpl.getMethods();
-
             //retrieves all values of the properties of the instance
-            //List<Statement> statements = graphQueryConstruct.getStatementsByGraphQuery(suj.toString(), null, null);
             RepositoryResult<Statement> stts = this.connection.getStatements(suj, null, null, true, contexts);
             List<Statement> statements = Iterations.asList(stts);
             stts.close();
 
-            //creates a map to hold all values of the properties
-            Map<String, List<Value>> mapProperties = this.sortPropertiesAndValues(statements);
-
-            //for each method, searches for the setter ones
-            for (Method method : allMethodsClassImpl) {
-
-                //retrieves the method name
-                String nomeMetodoImpl = method.getName();
-                //checks if it is a setter one
-                if (nomeMetodoImpl.startsWith(PREF_SETTER)) {
-
-                    //if it is the methods setURI or setLazyLoaded or 
-                    // set InnerFields, do nothing
-                    if (nomeMetodoImpl.startsWith(METHOD_SET_URI)
-                            || nomeMetodoImpl.startsWith(METHOD_SET_LAZYLOADED)
-                            || nomeMetodoImpl.startsWith(METHOD_SET_INNERFIELDS)) {
-                        continue;
-                    }
-
-                    //ignores Java supress warning check
-                    method.setAccessible(true);
-
-                    //ignores Java supress warning check
-                    method.setAccessible(true);
-                    //gets the name of the method parameter class
-                    String parameterClassName = method.getParameterTypes()[0].getName();
-
-                    //retrieves the associated annotation that contais the predicate
-                    Iri iri = method.getAnnotation(Iri.class);
-
-                    //if the property has no value, it enters in the first if
-                    //if the property is functional, it enters in the second if
-                    // else it has multi values
-                    if (!mapProperties.containsKey(iri.value())) {
-                        //if the parameter is a setter one, invoke the method
-                        //with an empty new HashSet
-                        if (parameterClassName.equals(SET_CLASS)) {
-                            method.invoke(objectClassImpl, new HashSet());
-                        }
-                    } else if (!parameterClassName.equals(SET_CLASS)) {
-                        //gets the Value from the object of this property
-                        Value objValue = mapProperties.get(iri.value()).get(0);
-                        //gets the assiciated URI
-                        String valueURI = objValue.stringValue();
-                        //it the valueURI is not empty
-                        if (!valueURI.isEmpty()) {
-                            //if it is a datatype
-                            if (this.datatypeManager.isDatatype(objValue)) {
-                                //mapps to the an specific java native Class
-                                method.invoke(objectClassImpl, this.datatypeManager.
-                                        convertLiteralToDataype((Literal) objValue));
-                                //else it is an istance
-                            } else {
-                                //gets the class name from the triple store
-                                parameterClassName = this.getClassFromBase(valueURI);
-                                //gets a new instance with its properties not loaded
-                                method.invoke(objectClassImpl, this.
-                                        getNotLoadedObject(valueURI, parameterClassName));
-                            }
-                        }
-                    } else {
-                        //gets all values of the property and put in the list
-                        List<Value> listValues = mapProperties.get(iri.value());
-                        //creates the set to be used in the method
-                        Set<Object> returnSet = new HashSet<>();
-                        //gets the first value for type searching
-                        Value v = listValues.get(0);
-                        //if it is a datatype
-                        if (this.datatypeManager.isDatatype(v)) {
-                            //crawls the list of values converting to a
-                            //specific java native Class
-                            for (Value objValue : listValues) {
-                                returnSet.add(this.datatypeManager.convertLiteralToDataype((Literal) objValue));
-                            }
-                            //else it is an istance
-                        } else {
-                            //gets the class name from the triple store
-                            parameterClassName = this.getClassFromBase(v.stringValue());
-                            //crawls the list of values converting to the
-                            //specific Class
-                            for (Value objValue : listValues) {
-                                String objIt = objValue.stringValue();
-                                //gets a new instance with its properties not loaded
-                                returnSet.add(this.getNotLoadedObject(objIt, parameterClassName));
-                            }
-                        }
-                        //invokes the method with the converted parameter
-                        method.invoke(objectClassImpl, returnSet);
-                    }
+            //populates the instance with the values of its properties
+            this.retrieveOp.populate(this.connection, objectClassImpl, plan,
+                    this.retrieveOp.sortPropertiesAndValues(statements), contexts);
+        } catch (Exception e) {
+            //the instance is loaded again on its next access
+            ((JOINTResource) objectClassImpl).setLazyLoaded(false);
+            Logger.getLogger(LazyLoader.class.getName()).log(Level.SEVERE, null, e);
+        }
+    }
+
+    /**
+     * Loads a group of not loaded instances with a single query, populating
+     * each one with the values of its properties.
+     *
+     * @param objects the not loaded instances
+     * @param contexts <code>URI</code> represent the graphs in which the query
+     * will be performed.
+     */
+    public void lazyLoadObjects(List<? extends Object> objects, URI... contexts) {
+
+        try {
+            List<String> instancesName = new ArrayList<>();
+            for (Object objectClassImpl : objects) {
+                //marks the instance as loaded before calling its setters
+                ((JOINTResource) objectClassImpl).setLazyLoaded(true);
+                instancesName.add(objectClassImpl.toString());
+            }
+
+            //retrieves all values of the properties of the instances
+            Map<String, List<Statement>> cInformation = new HashMap<>();
+            GraphQueryResult stts = this.graphQueryConstruct.getStatementsAsGraphQuery(instancesName, null, null, contexts);
+            while (stts.hasNext()) {
+                Statement st = stts.next();
+                String uri = st.getSubject().stringValue();
+                List<Statement> statements = cInformation.get(uri);
+                if (statements == null) {
+                    statements = new ArrayList<>();
+                    cInformation.put(uri, statements);
+                }
+                statements.add(st);
+            }
+            stts.close();
+
+            //sorts the values and resolves the types of the referenced
+            //instances at once
+            List<Map<String, List<Value>>> mapObjects = new ArrayList<>();
+            Set<String> referenced = new LinkedHashSet<>();
+            for (Object objectClassImpl : objects) {
+                List<Statement> statements = cInformation.get(objectClassImpl.toString());
+                Map<String, List<Value>> mapProperties = (statements == null)
+                        ? new HashMap<String, List<Value>>()
+                        : this.retrieveOp.sortPropertiesAndValues(statements);
+                this.retrieveOp.collectReferences(HydrationPlan.forImplClass(objectClassImpl.getClass()),
+                        mapProperties, referenced);
+                mapObjects.add(mapProperties);
+            }
+            HydrationContext context = new HydrationContext(this.retrieveOp, this.connection, contexts);
+            context.resolveClasses(referenced);
+
+            //populates the instances with the values of their properties
+            for (int i = 0; i < objects.size(); i++) {
+                Object objectClassImpl = objects.get(i);
+                this.retrieveOp.populate(objectClassImpl, HydrationPlan.forImplClass(objectClassImpl.getClass()),
+                        mapObjects.get(i), context);
+            }
+        } catch (Exception e) {
+            //the instances are loaded again on their next access
+            for (Object objectClassImpl : objects) {
+                ((JOINTResource) objectClassImpl).setLazyLoaded(false);
+            }
+            Logger.getLogger(LazyLoader.class.getName()).log(Level.SEVERE, null, e);
+        }
+    }
+
+    /**
+     * Loads a single deferred field of an instance retrieved with a
+     * projection, keeping the modifications made to its other fields.
+     *
+     * @param objectClassImpl the partially loaded instance
+     * @param field the name of the field (e.g. <code>FoafName</code>)
+     * @param contexts <code>URI</code> represent the graphs in which the query
+     * will be performed.
+     */
+    public void lazyLoadField(Object objectClassImpl, String field, URI... contexts) {
+
+        try {
+            JOINTResource resource = (JOINTResource) objectClassImpl;
+            //marks the field as loaded before calling its setter
+            if (!resource.undeferField(field)) {
+                return;
+            }
+            HydrationPlan plan = HydrationPlan.forImplClass(objectClassImpl.getClass());
+            HydrationPlan.PropertyBinding property = plan.getField(field);
+            if (property == null) {
+                return;
+            }
+
+            //retrieves only the values of the deferred property
+            GraphQueryResult stts = this.graphQueryConstruct.getStatementsAsGraphQuery(
+                    Collections.singletonList(objectClassImpl.toString()),
+                    Collections.singletonList(property.getPredicate()), null, contexts);
+            List<Value> values = new ArrayList<>();
+            Set<String> referenced = new LinkedHashSet<>();
+            while (stts.hasNext()) {
+                Value value = stts.next().getObject();
+                values.add(value);
+                if (value instanceof URI) {
+                    referenced.add(value.stringValue());
                 }
             }
+            stts.close();
+
+            HydrationContext context = new HydrationContext(this.retrieveOp, this.connection, contexts);
+            context.resolveClasses(referenced);
 
-            //calls the setInnerModifiedFields to erase the modified fields
-            //of the instance (update mechanics)
-            ((JOINTResource) objectClassImpl).setInnerModifiedFields(new ArrayList<String>());
+            //the setter registers the field as modified, which it is not
+            List<String> modifiedFields = new ArrayList<>(resource.getInnerModifiedFields());
+            this.retrieveOp.populateProperty(objectClassImpl, property,
+                    values.isEmpty() ? null : values, context);
+            resource.setInnerModifiedFields(modifiedFields);
+            resource.keepLoadedValues(property.getPredicate(), values);
         } catch (Exception e) {
-            e.printStackTrace();
+            //the field is loaded again on its next access
+            ((JOINTResource) objectClassImpl).deferFields(Collections.singleton(field));
+            Logger.getLogger(LazyLoader.class.getName()).log(Level.SEVERE, null, e);
+        }
+    }
+
+    /**
+     * Changes the maximum number of sibling instances loaded together when
+     * one of them is accessed. A size of 1 loads each instance alone.
+     *
+     * @param size the number of instances per query
+     */
+    public static void setBatchSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + size);
+        }
+        batchSize = size;
+    }
+
+    /**
+     * Retrieves the maximum number of sibling instances loaded together.
+     *
+     * @return the number of instances per query
+     */
+    public static int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Loads the field of an instance accessed by its getter or setter. A not
+     * loaded instance is loaded entirely; an instance retrieved with a
+     * projection loads only the accessed field.
+     *
+     * @param ob the instance
+     * @param className the name of the concrete class of the instance
+     * @param field the name of the field (e.g. <code>FoafName</code>)
+     */
+    public static void loadObject(Object ob, String className, String field) {
+        if (!(ob instanceof JOINTResource) || !((JOINTResource) ob).isLazyLoaded()) {
+            loadObject(ob, className);
+            return;
+        }
+        Session session = Session.current();
+        if (session != null) {
+            //loads with the connection of the session, seeing its changes
+            try {
+                session.flush();
+                new LazyLoader(session.getConnection()).lazyLoadField(ob, field);
+            } catch (Exception e) {
+                Logger.getLogger(AbstractKAO.class.getName()).log(Level.SEVERE, null, e);
+            }
+            return;
+        }
+        try {
+            RepositoryConnection con = RepositoryFactory.getRepository().getConnection();
+
+            //gets connection
+            TransactionHandler.beginRead(con);
+            try {
+                new LazyLoader(con).lazyLoadField(ob, field);
+
+                TransactionHandler.endRead(con, true);
+            } catch (Exception e) {
+                // If throws any exception rollback
+                TransactionHandler.endRead(con, false);
+                Logger.getLogger(AbstractKAO.class.getName()).log(Level.SEVERE, null, e);
+            } finally {
+                con.close();
+            }
+        } catch (RepositoryException eR) {
+            // If throws repository Exception the the connection is not inialized
+            Logger.getLogger(AbstractKAO.class.getName()).log(Level.SEVERE, null, eR);
         }
     }
 
     public static void loadObject(Object ob, String className) {
+        //gets the not loaded siblings of the instance, if it has any
+        List<JOINTResource> batch = null;
+        if (ob instanceof JOINTResource) {
+            FetchGroup group = ((JOINTResource) ob).fetchGroup();
+            if (group != null) {
+                batch = group.claim((JOINTResource) ob);
+            }
+        }
+        Session session = Session.current();
+        if (session != null) {
+            //loads with the connection of the session, seeing its changes
+            try {
+                session.flush();
+                LazyLoader lazyLoader = new LazyLoader(session.getConnection());
+                if (batch != null && batch.size() > 1) {
+                    lazyLoader.lazyLoadObjects(batch);
+                } else {
+                    lazyLoader.lazyLoadObject(ob, className);
+                }
+            } catch (Exception e) {
+                Logger.getLogger(AbstractKAO.class.getName()).log(Level.SEVERE, null, e);
+            }
+            return;
+        }
         try {
             RepositoryConnection con = RepositoryFactory.getRepository().getConnection();
 
             //gets connection
-            con.begin();
+            TransactionHandler.beginRead(con);
 
             LazyLoader lazyLoader = new LazyLoader(con);
             try {
 
-                lazyLoader.lazyLoadObject(ob, className);
+                if (batch != null && batch.size() > 1) {
+                    lazyLoader.lazyLoadObjects(batch);
+                } else {
+                    lazyLoader.lazyLoadObject(ob, className);
+                }
 
                 // Saves the object in the repository
-                con.commit();
+                TransactionHandler.endRead(con, true);
             } catch (Exception e) {
                 // If throws any exception rollback
-                con.rollback();
+                TransactionHandler.endRead(con, false);
                 Logger.getLogger(AbstractKAO.class.getName()).log(Level.SEVERE, null, e);
             } finally {
                 con.close();
@@ -0,0 +1,20 @@
+package wwwc.nees.joint.module.kao.retrieve;
+
+/**
+ * How the values of a property found in more than one graph are merged by
+ * the retrievals across graphs.
+ *
+ * @author Olavo
+ */
+public enum MergePolicy {
+
+    /**
+     * The property has the values of all the graphs, without repetitions.
+     */
+    UNION,
+    /**
+     * The property has the values of the first graph, in the order the
+     * graphs were given, in which it has any value.
+     */
+    FIRST_GRAPH_WINS
+}
@@ -1,6 +1,6 @@
 package wwwc.nees.joint.module.kao.retrieve;
 
-import java.util.Iterator;
+import java.io.Writer;
 import java.util.List;
 import org.codehaus.jettison.json.JSONException;
 import org.codehaus.jettison.json.JSONObject;
@@ -51,6 +51,18 @@ public interface QueryRunner {
             throws RepositoryException, MalformedQueryException, QueryEvaluationException,
             TupleQueryResultHandlerException;
 
+    /**
+     * Performs queries in the repository, writing the results to a sink in
+     * the SPARQL JSON results format as they arrive.
+     *
+     * @param connection receives an object of connection with the repository
+     * @param query the String with the query to be performed.
+     * @param out the sink of the results, flushed but not closed
+     */
+    public void executeTupleQueryAsJSON(RepositoryConnection connection, String query, Writer out)
+            throws RepositoryException, MalformedQueryException, QueryEvaluationException,
+            TupleQueryResultHandlerException;
+
     /**
      * Performs query in the repository, returning the results in an adapted
      * format from JSON-LD specification
@@ -65,6 +77,20 @@ public interface QueryRunner {
      */
     public JSONObject executeGraphQueryAsJSONLD(RepositoryConnection connection, String query, Feature... features) throws RepositoryException, MalformedQueryException, QueryEvaluationException, RDFHandlerException, JSONException;
 
+    /**
+     * Performs query in the repository, writing the results to a sink in an
+     * adapted format from JSON-LD specification. With the feature
+     * <code>STREAM</code> the statements are written as they arrive, without
+     * nesting and with the graph as array, else the results have the same
+     * layout of {@link #executeGraphQueryAsJSONLD(RepositoryConnection, String, Feature...)}.
+     *
+     * @param connection receives an object of connection with the repository
+     * @param query the String with the query to be performed.
+     * @param out the sink of the results, flushed but not closed
+     * @param features the features of the output
+     */
+    public void executeGraphQueryAsJSONLD(RepositoryConnection connection, String query, Writer out, Feature... features) throws RepositoryException, MalformedQueryException, QueryEvaluationException, RDFHandlerException, JSONException;
+
     /**
      * Performs queries in the repository, returning a java.util.Iterator with
      * the results.
@@ -73,9 +99,10 @@ public interface QueryRunner {
      * @param query the <code>String</code> with the query to be performed.
      * @param contexts <code>URI</code> represent the graphs in which the query
      * will be performed.
-     * @return <code>Iterator<Object></code> a java.util.List with the results.
+     * @return <code>ResultCursor<Object></code> a java.util.Iterator which
+     * hydrates the results in pages and must be closed if it is not exhausted.
      */
-    public Iterator<Object> executeQueryAsIterator(RepositoryConnection connection, String query, URI... contexts)
+    public ResultCursor<Object> executeQueryAsIterator(RepositoryConnection connection, String query, URI... contexts)
             throws Exception;
 
     /**
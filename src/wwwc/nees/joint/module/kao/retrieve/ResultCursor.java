@@ -0,0 +1,169 @@
+package wwwc.nees.joint.module.kao.retrieve;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import org.openrdf.repository.RepositoryConnection;
+import org.openrdf.repository.RepositoryException;
+import wwwc.nees.joint.module.kao.TransactionHandler;
+
+/**
+ * Iterator over the results of the repository which keeps the result open and
+ * converts it in pages, so only one page of objects is in memory at a time.
+ * It is closed automatically when exhausted; if it is abandoned before that,
+ * {@link #close()} must be called to release the result (and the connection,
+ * if the cursor owns it).
+ *
+ * @param <T> the type of the elements
+ * @author Olavo
+ */
+public abstract class ResultCursor<T> implements Iterator<T>, Closeable {
+
+    // VARIABLES
+    // -------------------------------------------------------------------------
+    private final List<T> page = new ArrayList<>();
+    private int position;
+    private boolean exhausted;
+    private boolean closed;
+    // Connection released when the cursor is closed, if any
+    private RepositoryConnection connection;
+
+    // METHODS
+    // -------------------------------------------------------------------------
+    /**
+     * Converts the next page of the result.
+     *
+     * @param page the list where the elements of the page are added
+     * @return <code>true</code> if there may be more pages
+     * @throws Exception any exception
+     */
+    protected abstract boolean fetchPage(List<T> page) throws Exception;
+
+    /**
+     * Releases the result held by the cursor.
+     *
+     * @throws Exception any exception
+     */
+    protected abstract void closeResult() throws Exception;
+
+    /**
+     * Makes the cursor end the read transaction, if any, and close the
+     * connection when it is closed.
+     *
+     * @param connection the connection of the read
+     * @return this cursor
+     */
+    public ResultCursor<T> releaseOnClose(RepositoryConnection connection) {
+        this.connection = connection;
+        return this;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (this.position >= this.page.size()) {
+            if (this.closed || this.exhausted) {
+                this.close();
+                return false;
+            }
+            this.page.clear();
+            this.position = 0;
+            try {
+                this.exhausted = !this.fetchPage(this.page);
+            } catch (Exception e) {
+                this.release(false);
+                throw new IllegalStateException(e);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!this.hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return this.page.get(this.position++);
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+        this.release(true);
+    }
+
+    private void release(boolean commit) {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.page.clear();
+        try {
+            this.closeResult();
+        } catch (Exception e) {
+            commit = false;
+            Logger.getLogger(ResultCursor.class.getName()).log(Level.SEVERE, null, e);
+        }
+        if (this.connection == null) {
+            return;
+        }
+        try {
+            TransactionHandler.endRead(this.connection, commit);
+        } catch (RepositoryException e) {
+            Logger.getLogger(ResultCursor.class.getName()).log(Level.SEVERE, null, e);
+        } finally {
+            try {
+                this.connection.close();
+            } catch (RepositoryException e) {
+                Logger.getLogger(ResultCursor.class.getName()).log(Level.SEVERE, null, e);
+            }
+        }
+    }
+
+    /**
+     * Retrieves a sequential stream over the remaining elements, which closes
+     * the cursor when the stream is closed.
+     *
+     * @return the stream
+     */
+    public Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED), false)
+                .onClose(new Runnable() {
+                    @Override
+                    public void run() {
+                        ResultCursor.this.close();
+                    }
+                });
+    }
+
+    /**
+     * Creates a cursor without elements.
+     *
+     * @param <T> the type of the elements
+     * @return the empty cursor
+     */
+    public static <T> ResultCursor<T> empty() {
+        return new ResultCursor<T>() {
+            @Override
+            protected boolean fetchPage(List<T> page) {
+                return false;
+            }
+
+            @Override
+            protected void closeResult() {
+            }
+        };
+    }
+}
@@ -1,10 +1,13 @@
 package wwwc.nees.joint.module.kao.retrieve;
 
-import java.lang.reflect.Method;
+import info.aduna.iteration.Iterations;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -12,20 +15,25 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.commons.collections4.BidiMap;
 import wwwc.nees.joint.compiler.annotations.Iri;
-import org.openrdf.model.Literal;
 import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
 import org.openrdf.model.Value;
 import org.openrdf.model.ValueFactory;
 import org.openrdf.model.vocabulary.RDF;
 import org.openrdf.query.GraphQueryResult;
+import org.openrdf.query.QueryLanguage;
+import org.openrdf.query.TupleQueryResult;
 import org.openrdf.repository.RepositoryConnection;
 import org.openrdf.repository.RepositoryException;
 import org.openrdf.repository.RepositoryResult;
+import org.openrdf.rio.ntriples.NTriplesUtil;
 import wwwc.nees.joint.model.JOINTResource;
 import wwwc.nees.joint.module.kao.ConceptsPackageInfo;
 import wwwc.nees.joint.module.kao.DatatypeManager;
 import wwwc.nees.joint.module.kao.Operation;
+import wwwc.nees.joint.module.kao.Session;
+import wwwc.nees.joint.module.kao.cache.InstanceCache;
+import wwwc.nees.joint.module.kao.cache.InstanceSnapshot;
 
 /**
  * @author Olavo
@@ -35,12 +43,8 @@ public class RetrieveOperations extends Operation {
     private final DatatypeManager datatypeManager;
     private final BidiMap<String, String> packages;
     private static final String OBJECT_CLASS = "java.lang.Object";
-    private static final String SET_CLASS = "java.util.Set";
-    private static final String METHOD_SET_INNERFIELDS = "setInnerModifiedFields";
-    private static final String METHOD_SET_LAZYLOADED = "setLazyLoaded";
-    private static final String METHOD_SET_URI = "setURI";
-    private static final String PREF_SETTER = "set";
-    private static final String SUF_IMPL_CLASS = "Impl";
+    // Number of instances hydrated by each query of a collection retrieval
+    private static volatile int batchSize = 500;
 
     public RetrieveOperations() {
         this.packages = ConceptsPackageInfo.getPackagesInfo(this.getClass());
@@ -64,6 +68,56 @@ public class RetrieveOperations extends Operation {
         return (T) this.convertOriginalForImpl(connection, instanceURI, clazz, contexts);
     }
 
+    /**
+     * Builds a copy of an instance from the shared instance cache, without
+     * querying the repository. The cache is not used inside a session, whose
+     * identity map plays its role.
+     *
+     * @param instanceURI a <code>String</code> with the instance URI
+     * @param clazz a <code>Class</code> with the instance type
+     * @param contexts <code>URI</code> represent the graphs in which the
+     * instance was retrieved.
+     * @return T a new copy of the instance, or <code>null</code> if it is not
+     * cached
+     * @throws java.lang.Exception any exception
+     */
+    public <T> T retrieveCachedInstance(String instanceURI, Class<T> clazz, URI... contexts) throws Exception {
+        InstanceCache cache = InstanceCache.getInstance();
+        if (cache == null || Session.current() != null) {
+            return null;
+        }
+        InstanceSnapshot snapshot = cache.get(instanceURI, contexts);
+        if (snapshot == null || snapshot.getConcept() != clazz) {
+            return null;
+        }
+        HydrationPlan plan = HydrationPlan.forConcept(clazz);
+        Object obj = plan.newInstance();
+        ((JOINTResource) obj).setURI(instanceURI);
+        ((JOINTResource) obj).setLazyLoaded(true);
+        //the classes of the referenced instances come from the snapshot
+        this.populate(obj, plan, snapshot.getValues(), new HydrationContext(this, snapshot.getClassNames(), contexts));
+        return clazz.cast(obj);
+    }
+
+    /**
+     * Retrieves an instance with only the values of some of its properties.
+     * The other properties are deferred and loaded, one at a time, on the
+     * first access to their getters or setters.
+     *
+     * @param instanceURI a <code>String</code> with the instance URI
+     * @param clazz a <code>Class</code> with the instance type
+     * @param properties the IRIs of the properties retrieved now
+     * @param connection receives an object of connection with the repository
+     * @param contexts <code>URI</code> represent the graphs in which the query
+     * will be performed.
+     * @return T the desired instance.
+     * @throws java.lang.Exception any exception
+     */
+    public <T> T retrieveInstance(RepositoryConnection connection, String instanceURI, Class<T> clazz,
+            Set<String> properties, URI... contexts) throws Exception {
+        return clazz.cast(this.convertOriginalForImpl(connection, instanceURI, clazz, properties, contexts));
+    }
+
     /**
      * Retrieves all the instances of the class, passed in the constructor.
      *
@@ -76,23 +130,182 @@ public class RetrieveOperations extends Operation {
      */
     public <T> List<T> retrieveAllInstances(RepositoryConnection connection, Class<T> clazz,
             URI... contexts) throws Exception {
+        return this.retrieveAllInstances(connection, clazz, (Set<String>) null, contexts);
+    }
+
+    /**
+     * Retrieves all the instances of the class with only the values of some of
+     * their properties. The other properties are deferred and loaded on the
+     * first access to their getters or setters.
+     *
+     * @param clazz a <code>Class</code> with the instance type
+     * @param connection receives an object of connection with the repository
+     * @param properties the IRIs of the properties retrieved now, or
+     * <code>null</code> to retrieve all of them
+     * @param contexts <code>URI</code> represent the graphs in which the query
+     * will be performed.
+     * @return a <code>List</code> with the instances.
+     * @throws java.lang.Exception any exception
+     */
+    public <T> List<T> retrieveAllInstances(RepositoryConnection connection, Class<T> clazz,
+            Set<String> properties, URI... contexts) throws Exception {
 
         ValueFactory f = connection.getValueFactory();
 
         // Creates a new java.util.List
         List<T> listInstances = new ArrayList<>();
-        RepositoryResult<Statement> stts = connection.getStatements(null, RDF.TYPE, f.createURI(((Iri) clazz.getAnnotation(Iri.class)).value()), true, contexts);
+        //collects the subjects of the class, keeping one entry per type
+        //statement (one per graph)
+        List<String> instancesName = new ArrayList<>();
+        RepositoryResult<Statement> stts = connection.getStatements(null, RDF.TYPE, f.createURI(clazz.getAnnotation(Iri.class).value()), true, contexts);
         while (stts.hasNext()) {
-            List<String> instancesName = new ArrayList<>();
+            instancesName.add(stts.next().getSubject().stringValue());
+        }
+        stts.close();
 
-            Statement statement = stts.next();
+        //hydrates the instances in chunks, with a single query per chunk
+        for (int i = 0; i < instancesName.size(); i += batchSize) {
+            List<String> chunk = instancesName.subList(i, Math.min(i + batchSize, instancesName.size()));
+            listInstances.addAll(castAll(this.convertCollectionOriginalForImpl(connection, chunk, clazz, properties, contexts), clazz));
+        }
+        return listInstances;
+    }
 
-            instancesName.add(statement.getSubject().stringValue());
+    /**
+     * Retrieves a page of the instances of the class, ordered by their URIs.
+     * The page starts after the instance of the continuation token (keyset
+     * pagination), so the cost of a page does not depend on its position, and
+     * it is hydrated with a single query.
+     *
+     * @param clazz a <code>Class</code> with the instance type
+     * @param connection receives an object of connection with the repository
+     * @param pageSize the maximum number of instances of the page
+     * @param continuationToken the token returned with the previous page, or
+     * <code>null</code> for the first page
+     * @param contexts <code>URI</code> represent the graphs in which the query
+     * will be performed.
+     * @return the page with the instances and the token of the next page.
+     * @throws java.lang.Exception any exception
+     */
+    public <T> InstancePage<T> retrieveInstances(RepositoryConnection connection, Class<T> clazz,
+            int pageSize, String continuationToken, URI... contexts) throws Exception {
 
-            listInstances.addAll((Collection<? extends T>) (T) this.convertCollectionOriginalForImpl(connection, instancesName, clazz, contexts));
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive: " + pageSize);
         }
-        stts.close();
-        return listInstances;
+        ValueFactory f = connection.getValueFactory();
+        URI classURI = f.createURI(clazz.getAnnotation(Iri.class).value());
+
+        StringBuilder query = new StringBuilder();
+        query.append("SELECT DISTINCT ?s WHERE { ");
+        if (contexts != null && contexts.length != 0) {
+            query.append("VALUES ?g {");
+            for (URI context : contexts) {
+                query.append(" ").append(NTriplesUtil.toNTriplesString(context)).append(" ");
+            }
+            query.append("} ");
+            query.append("GRAPH ?g { ?s a ").append(NTriplesUtil.toNTriplesString(classURI)).append(" } ");
+        } else {
+            //without graphs the default graph is also read, as in
+            //retrieveAllInstances
+            query.append("?s a ").append(NTriplesUtil.toNTriplesString(classURI)).append(" . ");
+        }
+        if (continuationToken != null) {
+            query.append("FILTER(STR(?s) > ")
+                    .append(NTriplesUtil.toNTriplesString(f.createLiteral(continuationToken)))
+                    .append(") ");
+        }
+        //one more instance tells if there is a next page
+        query.append("} ORDER BY STR(?s) LIMIT ").append(pageSize + 1);
+
+        List<String> instancesName = new ArrayList<>();
+        TupleQueryResult result = connection.prepareTupleQuery(QueryLanguage.SPARQL, query.toString()).evaluate();
+        while (result.hasNext()) {
+            instancesName.add(result.next().getValue("s").stringValue());
+        }
+        result.close();
+
+        String nextToken = null;
+        if (instancesName.size() > pageSize) {
+            instancesName = instancesName.subList(0, pageSize);
+            nextToken = instancesName.get(pageSize - 1);
+        }
+
+        //hydrates the whole page with a single query
+        List<T> instances = castAll(this.convertCollectionOriginalForImpl(connection, instancesName, clazz, contexts), clazz);
+        return new InstancePage<>(instances, nextToken);
+    }
+
+    /**
+     * Retrieves all the instances of the class as a cursor, which reads and
+     * hydrates them one page (batch) at a time with
+     * {@link #retrieveInstances(RepositoryConnection, Class, int, String, URI...)},
+     * so no result stays open on the connection while a page is hydrated.
+     *
+     * @param clazz a <code>Class</code> with the instance type
+     * @param connection receives an object of connection with the repository,
+     * which must stay open until the cursor is closed
+     * @param contexts <code>URI</code> represent the graphs in which the query
+     * will be performed.
+     * @return a <code>ResultCursor</code> over the instances.
+     * @throws java.lang.Exception any exception
+     */
+    public <T> ResultCursor<T> streamAllInstances(final RepositoryConnection connection, final Class<T> clazz,
+            final URI... contexts) throws Exception {
+
+        return new ResultCursor<T>() {
+
+            //the token of the next page
+            private String continuationToken;
+
+            @Override
+            protected boolean fetchPage(List<T> page) throws Exception {
+                //the subjects of the page are read before it is hydrated
+                InstancePage<T> instances = retrieveInstances(connection, clazz, batchSize, this.continuationToken, contexts);
+                page.addAll(instances.getInstances());
+                this.continuationToken = instances.getContinuationToken();
+                return this.continuationToken != null;
+            }
+
+            @Override
+            protected void closeResult() throws Exception {
+                //each page closes its own results
+            }
+        };
+    }
+
+    /**
+     * Casts the hydrated instances to the class with which they were
+     * retrieved.
+     */
+    private static <T> List<T> castAll(List<Object> objects, Class<T> clazz) {
+        List<T> instances = new ArrayList<>(objects.size());
+        for (Object obj : objects) {
+            instances.add(clazz.cast(obj));
+        }
+        return instances;
+    }
+
+    /**
+     * Changes the maximum number of instances hydrated by a single query when
+     * collections of instances are retrieved.
+     *
+     * @param size the number of instances per query
+     */
+    public static void setBatchSize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + size);
+        }
+        batchSize = size;
+    }
+
+    /**
+     * Retrieves the maximum number of instances hydrated by a single query.
+     *
+     * @return the number of instances per query
+     */
+    public static int getBatchSize() {
+        return batchSize;
     }
 
     public String getClassFromBase(RepositoryConnection connection, String subj, URI... contexts) throws RepositoryException {
@@ -113,6 +326,83 @@ public class RetrieveOperations extends Operation {
         return OBJECT_CLASS;
     }
 
+    /**
+     * Retrieves the Java classes of many instances, querying their types in
+     * batches instead of one query per instance.
+     *
+     * @param connection receives an object of connection with the repository
+     * @param subjs the URIs of the instances
+     * @param contexts <code>URI</code> represent the graphs in which the query
+     * will be performed.
+     * @return a map with the class name of each instance, or
+     * <code>java.lang.Object</code> if its type is not mapped
+     * @throws Exception any exception
+     */
+    public Map<String, String> getClassesFromBase(RepositoryConnection connection, Collection<String> subjs,
+            URI... contexts) throws Exception {
+
+        Map<String, String> classes = this.getTypedClassesFromBase(connection, subjs, contexts);
+        //the instances without type are mapped to java.lang.Object
+        for (String uri : subjs) {
+            if (!classes.containsKey(uri)) {
+                classes.put(uri, OBJECT_CLASS);
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * Retrieves the Java classes of the instances which have a type, leaving
+     * out the ones not in the repository.
+     */
+    Map<String, String> getTypedClassesFromBase(RepositoryConnection connection, Collection<String> subjs,
+            URI... contexts) throws Exception {
+
+        Map<String, String> classes = new HashMap<>();
+        List<String> uris = new ArrayList<>(subjs);
+        List<String> property = Collections.singletonList(RDF.TYPE.stringValue());
+        GraphQueryConstruct graphQueryConstruct = new GraphQueryConstruct(connection);
+
+        for (int i = 0; i < uris.size(); i += batchSize) {
+            List<String> chunk = uris.subList(i, Math.min(i + batchSize, uris.size()));
+            GraphQueryResult stts = graphQueryConstruct.getStatementsAsGraphQuery(chunk, property, null, contexts);
+            while (stts.hasNext()) {
+                Statement st = stts.next();
+                String subj = st.getSubject().stringValue();
+                String nameClasse = this.packages.get(st.getObject().stringValue());
+                //a mapped type prevails over the unmapped ones
+                if (nameClasse != null) {
+                    String previous = classes.get(subj);
+                    if (previous == null || previous.equals(OBJECT_CLASS)) {
+                        classes.put(subj, nameClasse);
+                    }
+                } else if (!classes.containsKey(subj)) {
+                    classes.put(subj, OBJECT_CLASS);
+                }
+            }
+            stts.close();
+        }
+        return classes;
+    }
+
+    /**
+     * Adds the URIs whose types are looked up while populating the properties
+     * of the class to the set. Only the first value of each property is
+     * needed, the others share its type.
+     */
+    void collectReferences(HydrationPlan plan, Map<String, List<Value>> mapProperties,
+            Set<String> referenced) {
+        for (Map.Entry<String, List<Value>> entry : mapProperties.entrySet()) {
+            if (plan.getProperty(entry.getKey()) == null || entry.getValue().isEmpty()) {
+                continue;
+            }
+            Value value = entry.getValue().get(0);
+            if (value instanceof URI && !value.stringValue().isEmpty()) {
+                referenced.add(value.stringValue());
+            }
+        }
+    }
+
     /**
      * Retrieves the class URI from the mapping between the RDFS and Java class
      *
@@ -151,21 +441,20 @@ public class RetrieveOperations extends Operation {
             } else {
 
                 //creates an instance with the concrete class
-                Class clazz = Class.forName(clazzName + SUF_IMPL_CLASS);
-                obj = clazz.newInstance();
+                obj = HydrationPlan.forConcept(clazzName).newInstance();
                 //casts the object to the upper class JOINTResource and
                 //calls the methods setURI and setLazyLoaded
                 ((JOINTResource) obj).setURI(instanceName);
                 ((JOINTResource) obj).setLazyLoaded(false);
             }
-        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException ex) {
+        } catch (Exception ex) {
             Logger.getLogger(LazyLoader.class.getName()).log(Level.SEVERE, null, ex);
         }
         //return the object
         return obj;
     }
 
-    private Map<String, List<Value>> sortPropertiesAndValues(List<Statement> statements) {
+    Map<String, List<Value>> sortPropertiesAndValues(List<Statement> statements) {
         //creates a map to hold all values of the properties
         Map<String, List<Value>> mapProperties = new HashMap<>();
 
@@ -183,7 +472,104 @@ public class RetrieveOperations extends Operation {
         return mapProperties;
     }
 
+    /**
+     * Populates an instance with the values of its properties, using the
+     * hydrator generated for its class or, if there is none, the bindings of
+     * the hydration plan.
+     *
+     * @param connection receives an object of connection with the repository
+     * @param obj the instance to be populated
+     * @param plan the hydration plan of the instance class
+     * @param mapProperties the values of the instance, by predicate
+     * @param contexts <code>URI</code> represent the graphs in which the
+     * referenced instances are searched.
+     * @throws Exception any exception
+     */
+    void populate(RepositoryConnection connection, Object obj, HydrationPlan plan,
+            Map<String, List<Value>> mapProperties, URI... contexts) throws Exception {
+
+        HydrationContext context = new HydrationContext(this, connection, contexts);
+        //resolves the types of all referenced instances at once
+        Set<String> referenced = new LinkedHashSet<>();
+        this.collectReferences(plan, mapProperties, referenced);
+        context.resolveClasses(referenced);
+        this.populate(obj, plan, mapProperties, context);
+    }
+
+    /**
+     * Populates an instance with the values of its properties, sharing the
+     * context (and its resolved types) with the other instances of a batch.
+     *
+     * @param obj the instance to be populated
+     * @param plan the hydration plan of the instance class
+     * @param mapProperties the values of the instance, by predicate
+     * @param context converts the values to the Java types
+     * @throws Exception any exception
+     */
+    void populate(Object obj, HydrationPlan plan, Map<String, List<Value>> mapProperties,
+            HydrationContext context) throws Exception {
+
+        Hydrator hydrator = plan.getHydrator();
+        if (hydrator != null) {
+            //the generated hydrator calls the setters directly
+            hydrator.hydrate(obj, mapProperties, context);
+        } else {
+            //for each property of the class
+            for (HydrationPlan.PropertyBinding property : plan.getProperties()) {
+                this.populateProperty(obj, property, mapProperties.get(property.getPredicate()), context);
+            }
+        }
+        //calls the setInnerModifiedFields to erase the modified fields
+        //of the instance (update mechanics)
+        ((JOINTResource) obj).setInnerModifiedFields(new ArrayList<String>());
+        //keeps the loaded values, so the updates only send the differences
+        ((JOINTResource) obj).keepLoadedValues(mapProperties, context.getContexts());
+    }
+
+    /**
+     * Sets the values of a single property of an instance.
+     *
+     * @param obj the instance to be populated
+     * @param property the binding of the property
+     * @param listValues the values of the property, or <code>null</code> if
+     * it has none
+     * @param context converts the values to the Java types
+     * @throws Exception any exception
+     */
+    void populateProperty(Object obj, HydrationPlan.PropertyBinding property, List<Value> listValues,
+            HydrationContext context) throws Exception {
+
+        //if the property has no value, it enters in the first if
+        //if the property is functional, it enters in the second if
+        // else it has multi values
+        if (listValues == null) {
+            //if the parameter is a set, invoke the method
+            //with an empty new HashSet
+            if (property.isMultiValued()) {
+                property.set(obj, new HashSet<>());
+            }
+        } else if (!property.isMultiValued()) {
+            Object value = context.toObject(listValues, property.getType());
+            if (value != null) {
+                property.set(obj, value);
+            }
+        } else {
+            //invokes the method with the converted parameter
+            property.set(obj, context.toSet(listValues));
+        }
+    }
+
     public Object convertOriginalForImpl(RepositoryConnection connection, String instanceName, Class clazz, URI... contexts) throws Exception {
+        return this.convertOriginalForImpl(connection, instanceName, clazz, (Set<String>) null, contexts);
+    }
+
+    public Object convertOriginalForImpl(RepositoryConnection connection, String instanceName, Class clazz,
+            Set<String> properties, URI... contexts) throws Exception {
+
+        //full retrievals outside a session fill the shared cache, unless it
+        //is invalidated while the instance is read
+        InstanceCache cache = (properties == null && Session.current() == null) ? InstanceCache.getInstance() : null;
+        long generation = (cache == null) ? 0 : cache.generation();
 
         URI suj = connection.getValueFactory().createURI(instanceName);
         //checks if this instance is in the triple store
@@ -200,114 +586,53 @@ public class RetrieveOperations extends Operation {
         }
 
         //creates an instance with the concrete class
-        Class classImpl = Class.forName(clazz.getName() + SUF_IMPL_CLASS);
-        Object obj = classImpl.newInstance();
+        HydrationPlan plan = HydrationPlan.forConcept(clazz);
+        Object obj = plan.newInstance();
 
         //casts the object to the upper class JOINTResource and
         //calls the methods setURI and setLazyLoaded
         ((JOINTResource) obj).setURI(instanceName);
         ((JOINTResource) obj).setLazyLoaded(true);
 
-        //gets all methods of the desired class
-        Method[] allMethodsClassImpl = classImpl.getMethods();
-
-        //retrieves all values of the properties of the instance
+        //retrieves the values of the properties of the instance (all of them,
+        //or only the projected ones)
         GraphQueryConstruct graphQueryConstruct = new GraphQueryConstruct(connection);
-        List<Statement> statements = graphQueryConstruct.getStatementsAsList(suj.toString(), null, null, contexts);
-        //creates a map to hold all values of the properties
-        Map<String, List<Value>> mapProperties = this.sortPropertiesAndValues(statements);
-
-        //for each method, searches for the setter ones
-        for (Method method : allMethodsClassImpl) {
-
-            //retrieves the method name
-            String nomeMetodoImpl = method.getName();
-            //checks if it is a setter one
-            if (nomeMetodoImpl.startsWith(PREF_SETTER)) {
-
-                //if it is the methods setURI or setLazyLoaded or 
-                // set InnerFields, do nothing
-                if (nomeMetodoImpl.startsWith(METHOD_SET_URI)
-                        || nomeMetodoImpl.startsWith(METHOD_SET_LAZYLOADED)
-                        || nomeMetodoImpl.startsWith(METHOD_SET_INNERFIELDS)) {
-                    continue;
-                }
+        List<Statement> statements;
+        if (properties == null) {
+            statements = graphQueryConstruct.getStatementsAsList(suj.toString(), null, null, contexts);
+        } else if (properties.isEmpty()) {
+            statements = new ArrayList<>();
+        } else {
+            GraphQueryResult stts = graphQueryConstruct.getStatementsAsGraphQuery(
+                    Collections.singletonList(instanceName), new ArrayList<>(properties), null, contexts);
+            statements = Iterations.asList(stts);
+            stts.close();
+        }
 
-                //ignores Java supress warning check
-                method.setAccessible(true);
-                //gets the name of the method parameter class
-                String parameterClassName = method.getParameterTypes()[0].getName();
-
-                //retrieves the associated annotation that contais the predicate
-                Iri iri = method.getAnnotation(Iri.class);
-
-                //if the property has no value, it enters in the first if
-                //if the property is functional, it enters in the second if
-                // else it has multi values
-                if (!mapProperties.containsKey(iri.value())) {
-                    //if the parameter is a setter one, invoke the method
-                    //with an empty new HashSet
-                    if (parameterClassName.equals(SET_CLASS)) {
-                        method.invoke(obj, new HashSet());
-                    }
-                } else if (!parameterClassName.equals(SET_CLASS)) {
-                    //gets the Value from the object of this property
-                    Value objValue = mapProperties.get(iri.value()).get(0);
-                    //gets the assiciated URI
-                    String valueURI = objValue.stringValue();
-                    //it the valueURI is not empty
-                    if (!valueURI.isEmpty()) {
-                        //if it is a datatype
-                        if (this.datatypeManager.isDatatype(objValue)) {
-                            //mapps to the an specific java native Class
-                            method.invoke(obj, this.datatypeManager.
-                                    convertLiteralToDataype((Literal) objValue, parameterClassName));
-                            //else it is an istance
-                        } else {
-                            //gets the class name from the triple store
-                            parameterClassName = this.getClassFromBase(parameterClassName);
-                            //gets a new instance with its properties not loaded                            
-                            method.invoke(obj, this.
-                                    getNotLoadedObject(valueURI, parameterClassName));
-                        }
-                    }
-                } else {
-                    //gets all values of the property and put in the list
-                    List<Value> listValues = mapProperties.get(iri.value());
-                    //creates the set to be used in the method
-                    Set<Object> returnSet = new HashSet<>();
-                    //gets the first value for type searching
-                    Value v = listValues.get(0);
-                    //if it is a datatype
-                    if (this.datatypeManager.isDatatype(v)) {
-                        //crawls the list of values converting to a
-                        //specific java native Class
-                        for (Value objValue : listValues) {
-                            returnSet.add(this.datatypeManager.convertLiteralToDataype((Literal) objValue));
-                        }
-                        //else it is an istance
-                    } else {
-                        //gets the class name from the triple store
-                        parameterClassName = this.getClassFromBase(connection, v.stringValue(), contexts);
-                        //crawls the list of values converting to the
-                        //specific Class
-                        for (Value objValue : listValues) {
-                            //gets a new instance with its properties not loaded
-                            returnSet.add(this.getNotLoadedObject(objValue.stringValue(), parameterClassName));
-                        }
-                    }
-                    //invokes the method with the converted parameter
-                    method.invoke(obj, returnSet);
-                }
-            }
+        //populates the instance with the values of its properties,
+        //resolving the types of all referenced instances at once
+        Map<String, List<Value>> mapProperties = this.sortPropertiesAndValues(statements);
+        HydrationContext context = new HydrationContext(this, connection, contexts);
+        Set<String> referenced = new LinkedHashSet<>();
+        this.collectReferences(plan, mapProperties, referenced);
+        context.resolveClasses(referenced);
+        this.populate(obj, plan, mapProperties, context);
+        //the properties not retrieved are loaded on their first access
+        if (properties != null) {
+            ((JOINTResource) obj).deferFields(plan.getDeferredFields(properties));
+        }
+        if (cache != null) {
+            cache.put(generation, instanceName, new InstanceSnapshot(clazz, mapProperties, context.getClassNames()), contexts);
         }
-        //calls the setInnerModifiedFields to erase the modified fields
-        //of the instance (update mechanics)
-        ((JOINTResource) obj).setInnerModifiedFields(new ArrayList<String>());
         return obj;
     }
 
     public List<Object> convertCollectionOriginalForImpl(RepositoryConnection connection, List<String> instancesName, Class clazz, URI... contexts) throws Exception {
+        return this.convertCollectionOriginalForImpl(connection, instancesName, clazz, (Set<String>) null, contexts);
+    }
+
+    public List<Object> convertCollectionOriginalForImpl(RepositoryConnection connection, List<String> instancesName, Class clazz,
+            Set<String> properties, URI... contexts) throws Exception {
 
         List<Object> returnList = new ArrayList<>();
 
@@ -322,20 +647,26 @@ public class RetrieveOperations extends Operation {
             return returnList;
         }
 
-        //gets the concrete desired class
-        Class classImpl = Class.forName(clazz.getName() + SUF_IMPL_CLASS);
-
-        //gets all methods of the concrete class
-        Method[] allMethodsClassImpl = classImpl.getMethods();
+        //gets the plan of the concrete desired class
+        HydrationPlan plan = HydrationPlan.forConcept(clazz);
 
         //constructs a query to get all information about the objects that will
         //be parsed
+        //(each subject is sent only once, even if it is repeated in the list)
+        //(with a projection, only the values of the requested properties)
+        Map<String, List<Statement>> cInformation = new HashMap<>();
+        Set<String> deferred = Collections.emptySet();
+        List<String> predicates = null;
+        if (properties != null) {
+            deferred = plan.getDeferredFields(properties);
+            predicates = new ArrayList<>(properties);
+        }
         GraphQueryConstruct graphQueryConstruct = new GraphQueryConstruct(connection);
-        GraphQueryResult stts = graphQueryConstruct.getStatementsAsGraphQuery(instancesName, null, null, contexts);
+        GraphQueryResult stts = (predicates != null && predicates.isEmpty()) ? null
+                : graphQueryConstruct.getStatementsAsGraphQuery(new ArrayList<>(new LinkedHashSet<>(instancesName)), predicates, null, contexts);
         //creates a map with key - uri/object - list of statements
-        Map<String, List<Statement>> cInformation = new HashMap<>();
         //iterates the previous graph result
-        while (stts.hasNext()) {
+        while (stts != null && stts.hasNext()) {
             //gets the statement
             Statement st = stts.next();
             //gets the uri key
@@ -354,11 +685,26 @@ public class RetrieveOperations extends Operation {
                 cInformation.get(uri).add(st);
             }
         }
-        stts.close();
+        if (stts != null) {
+            stts.close();
+        }
+
+        //sorts the values of each subject and collects the instances they
+        //reference, so their types are resolved by a single query
+        Map<String, Map<String, List<Value>>> mapSubjects = new HashMap<>();
+        Set<String> referenced = new LinkedHashSet<>();
+        for (Map.Entry<String, List<Statement>> entry : cInformation.entrySet()) {
+            Map<String, List<Value>> mapProperties = this.sortPropertiesAndValues(entry.getValue());
+            this.collectReferences(plan, mapProperties, referenced);
+            mapSubjects.put(entry.getKey(), mapProperties);
+        }
+        HydrationContext context = new HydrationContext(this, connection, contexts);
+        context.resolveClasses(referenced);
+
         for (String instanceURI : instancesName) {
 
             //creates an instance with the concrete class
-            Object obj = classImpl.newInstance();
+            Object obj = plan.newInstance();
 
             //casts the object to the upper class JOINTResource and
             //calls the methods setURI and setLazyLoaded
@@ -366,100 +712,15 @@ public class RetrieveOperations extends Operation {
             ((JOINTResource) obj).setLazyLoaded(true);
 
             //recupera os objects de todas as propriedades
-            List<Statement> statements = cInformation.get(instanceURI);
-            //creates a map to hold all values of the properties
-            Map<String, List<Value>> mapProperties = this.sortPropertiesAndValues(statements);
-
-            //for each method, searches for the setter ones
-            for (Method method : allMethodsClassImpl) {
-
-                //ignores Java supress warning check
-                method.setAccessible(true);
-                //retrieves the method name
-                String nomeMetodoImpl = method.getName();
-                //checks if it is a setter one
-                if (nomeMetodoImpl.startsWith(PREF_SETTER)) {
-
-                    //if it is the methods setURI or setLazyLoaded or 
-                    // set InnerFields, do nothing
-                    if (nomeMetodoImpl.startsWith(METHOD_SET_URI)
-                            || nomeMetodoImpl.startsWith(METHOD_SET_LAZYLOADED)
-                            || nomeMetodoImpl.startsWith(METHOD_SET_INNERFIELDS)) {
-                        continue;
-                    }
-
-                    //gets the name of the method parameter class
-                    String parameterClassName = method.getParameterTypes()[0].getName();
-
-                    //retrieves the associated annotation that contais the predicate
-                    Iri iri = method.getAnnotation(Iri.class);
-
-                    //if the property has no value, it enters in the first if
-                    //if the property is functional, it enters in the second if
-                    // else it has multi values
-                    if (!mapProperties.containsKey(iri.value())) {
-                        //if the parameter is a setter one, invoke the method
-                        //with an empty new HashSet
-                        if (parameterClassName.equals(SET_CLASS)) {
-                            method.invoke(obj, new HashSet());
-                        }
-                    } else if (!parameterClassName.equals(SET_CLASS)) {
-                        //gets the Value from the object of this property
-                        Value objValue = mapProperties.get(iri.value()).get(0);
-                        //gets the assiciated URI
-                        String valueURI = objValue.stringValue();
-                        //it the valueURI is not empty
-                        if (!valueURI.isEmpty()) {
-                            //if it is a datatype
-                            if (this.datatypeManager.isDatatype(objValue)) {
-                                //mapps to the an specific java native Class  
-                                method.invoke(obj, this.datatypeManager.
-                                        convertLiteralToDataype((Literal) objValue, parameterClassName));
-//                                method.invoke(obj, this.datatypeManager.
-//                                        convertLiteralToDataype((Literal) objValue));
-                                //else it is an istance
-                            } else {
-                                //gets the class name from the triple store
-                                parameterClassName = this.getClassFromBase(connection, valueURI, contexts);
-                                //gets a new instance with its properties not loaded                                
-                                method.invoke(obj, this.
-                                        getNotLoadedObject(valueURI, parameterClassName));
-                            }
-                        }
-                    } else {
-                        //gets all values of the property and put in the list
-                        List<Value> listValues = mapProperties.get(iri.value());
-                        //creates the set to be used in the method
-                        Set<Object> returnSet = new HashSet<>();
-                        //gets the first value for type searching
-                        Value v = listValues.get(0);
-                        //if it is a datatype
-                        if (this.datatypeManager.isDatatype(v)) {
-                            //crawls the list of values converting to a
-                            //specific java native Class
-                            for (Value objValue : listValues) {
-                                returnSet.add(this.datatypeManager.convertLiteralToDataype((Literal) objValue));
-                            }
-                            //else it is an istance
-                        } else {
-                            //gets the class name from the triple store
-                            parameterClassName = this.getClassFromBase(connection, v.stringValue(), contexts);
-                            //crawls the list of values converting to the
-                            //specific Class
-                            for (Value objValue : listValues) {
-                                String objIt = objValue.stringValue();
-                                //gets a new instance with its properties not loaded
-                                returnSet.add(this.getNotLoadedObject(objIt, parameterClassName));
-                            }
-                        }
-                        //invokes the method with the converted parameter
-                        method.invoke(obj, returnSet);
-                    }
-                }
+            Map<String, List<Value>> mapProperties = mapSubjects.get(instanceURI);
+            if (mapProperties == null) {
+                mapProperties = new HashMap<>();
             }
-            //calls the setInnerModifiedFields to erase the modified fields
-            //of the instance (update mechanics)
-            ((JOINTResource) obj).setInnerModifiedFields(new ArrayList<String>());
+
+            //populates the instance with the values of its properties
+            this.populate(obj, plan, mapProperties, context);
+            //the properties not retrieved are loaded on their first access
+            ((JOINTResource) obj).deferFields(deferred);
             //adds the object in the returnList
             returnList.add(obj);
         }
@@ -467,7 +728,6 @@ public class RetrieveOperations extends Operation {
     }
 
     public List<Object> convertCollectionOriginalForImpl2(RepositoryConnection connection, List<String> instancesName, Class clazz, URI... contexts) throws Exception {
-        HashMap<String, List<Method>> methodMap = new HashMap<>();
 
         // checks if it is a java object
         if (clazz.getName().equals(OBJECT_CLASS)) {
@@ -480,257 +740,90 @@ public class RetrieveOperations extends Operation {
             return returnList;
         }
 
-        //gets the concrete desired class
-        Class classImpl = Class.forName(clazz.getName() + SUF_IMPL_CLASS);
-
-        //gets all methods of the concrete class
-        Method[] allMethodsClassImpl = classImpl.getMethods();
-
-        //populating map between IRI and methods of concrete class
-        for (Method m : allMethodsClassImpl) {
-            try {
-                String propertyURI = m.getAnnotation(Iri.class).value();
-                List<Method> mList = (methodMap.containsKey(propertyURI)) ? methodMap.get(propertyURI) : new ArrayList<Method>();
-                mList.add(m);
-                methodMap.put(propertyURI, mList);
-            } catch (NullPointerException e) {
-            }
-        }
+        //gets the plan of the concrete desired class
+        HydrationPlan plan = HydrationPlan.forConcept(clazz);
 
         //constructs a query to get all information about the objects that will
         //be parsed
         GraphQueryConstruct graphQueryConstruct = new GraphQueryConstruct(connection);
         GraphQueryResult stts = graphQueryConstruct.getStatementsAsGraphQuery(instancesName, null, null, contexts);
 
-        Map<String, Object> result = new HashMap<>();
+        Map<String, Map<String, List<Value>>> grouped = new LinkedHashMap<>();
         //iterates the previous graph result
         while (stts.hasNext()) {
-            Statement statement = stts.next();
-            if (!methodMap.containsKey(statement.getPredicate().toString())) {
-                continue;
-            }
-            String subjectURI = statement.getSubject().stringValue();
-
-            Object o;
-            if (!result.containsKey(subjectURI)) {
-                o = classImpl.newInstance();
-                //casts the object to the upper class JOINTResource and
-                //calls the methods setURI and setLazyLoaded
-                ((JOINTResource) o).setURI(subjectURI);
-                ((JOINTResource) o).setLazyLoaded(true);
-            } else {
-                o = result.get(subjectURI);
-            }
-
-            List<Method> methodList = methodMap.get(statement.getPredicate().toString());
-
-            Method setterMethod = null;
-            Method getterMethod = null;
-
-            // defining getter and setter methods
-            for (Method m : methodList) {
-                //ignores Java supress warning check
-                m.setAccessible(true);
-
-                if (m.getName().startsWith(PREF_SETTER)) {
-                    setterMethod = m;
-                } else {
-                    getterMethod = m;
-                }
-            }
-
-            //gets the name of the method parameter class
-            String parameterClassName = setterMethod.getParameterTypes()[0].getName();
-
-            //gets the Value from the object of this property
-            Value objValue = statement.getObject();
-
-            //gets the assiciated URI
-            String valueURI = objValue.stringValue();
-
-            //if the property is functional, it enters in the first if
-            // else it has multi values
-            if (!parameterClassName.equals(SET_CLASS)) {
-
-                //it the valueURI is not empty
-                if (!valueURI.isEmpty()) {
-
-                    //if it is a datatype
-                    if (this.datatypeManager.isDatatype(objValue)) {
-                        //mapps to the an specific java native Class                                 
-                        setterMethod.invoke(o, this.datatypeManager.
-                                convertLiteralToDataype((Literal) objValue, parameterClassName));
-                        //else it is an istance
-                    } else {
-                        //gets the class name from the triple store
-                        parameterClassName = this.getClassFromBase(connection, valueURI, contexts);
-
-                        //gets a new instance with its properties not loaded                                
-                        setterMethod.invoke(o, this.
-                                getNotLoadedObject(valueURI, parameterClassName));
-                    }
-                }
-            } else {
-                Set<Object> set = (Set<Object>) getterMethod.invoke(o);
-                if (set == null) {
-                    set = new HashSet<>();
-                }
-                //gets the first value for type searching
-                Value v = statement.getObject();
-                //if it is a datatype
-                if (this.datatypeManager.isDatatype(v)) {
-
-                    //specific java native Class
-                    set.add(this.datatypeManager.convertLiteralToDataype((Literal) v));
-
-                    //else it is an istance
-                } else {
-                    //gets the class name from the triple store
-                    parameterClassName = this.getClassFromBase(connection, v.stringValue(), contexts);
-
-                    //gets a new instance with its properties not loaded
-                    set.add(this.getNotLoadedObject(v.stringValue(), parameterClassName));
-                }
-
-                //invokes the method with the converted parameter
-                setterMethod.invoke(o, set);
-
-                //calls the setInnerModifiedFields to erase the modified fields
-                //of the instance (update mechanics)
-                ((JOINTResource) o).setInnerModifiedFields(new ArrayList<String>());
-
-            }
-            result.put(subjectURI, o);
+            this.groupStatement(stts.next(), plan, grouped);
         }
         stts.close();
-        return new ArrayList<>(result.values());
+        return this.populateGrouped(connection, plan, grouped, contexts);
     }
 
     public List<Object> convertCollectionOriginalForImpl3(RepositoryConnection connection, List<Statement> graphQuery, Class clazz, URI... contexts) throws Exception {
-        HashMap<String, Object> result = new HashMap<>();
-        HashMap<String, List<Method>> methodMap = new HashMap<>();
 
-        //constructs a query to get all information about the objects that will
-        //be parsed
-        //gets the concrete desired class
-        Class classImpl = Class.forName(clazz.getName() + SUF_IMPL_CLASS);
-
-        //gets all methods of the concrete class
-        Method[] allMethodsClassImpl = classImpl.getMethods();
-
-        //populating map between IRI and methods of concrete class
-        for (Method m : allMethodsClassImpl) {
-            try {
-                String propertyURI = m.getAnnotation(Iri.class).value();
-                List<Method> mList = (methodMap.containsKey(propertyURI)) ? methodMap.get(propertyURI) : new ArrayList<Method>();
-                mList.add(m);
-                methodMap.put(propertyURI, mList);
-            } catch (NullPointerException e) {
-            }
-        }
+        //gets the plan of the concrete desired class
+        HydrationPlan plan = HydrationPlan.forConcept(clazz);
 
+        Map<String, Map<String, List<Value>>> grouped = new LinkedHashMap<>();
         //iterates the previous graph result
         for (Statement statement : graphQuery) {
-            if (!methodMap.containsKey(statement.getPredicate().toString())) {
-                continue;
-            }
-            String subjectURI = statement.getSubject().stringValue();
-
-            Object o = null;
-            if (!result.containsKey(subjectURI)) {
-                o = classImpl.newInstance();
-
-                //casts the object to the upper class JOINTResource and
-                //calls the methods setURI and setLazyLoaded
-                ((JOINTResource) o).setURI(subjectURI);
-                ((JOINTResource) o).setLazyLoaded(true);
-            } else {
-
-                o = result.get(subjectURI);
-
-            }
-
-            List<Method> methodList = methodMap.get(statement.getPredicate().toString());
-
-            Method setterMethod = null;
-            Method getterMethod = null;
-
-            // defining getter and setter methods
-            for (Method m : methodList) {
-                //ignores Java supress warning check
-                m.setAccessible(true);
-
-                if (m.getName().startsWith(PREF_SETTER)) {
-                    setterMethod = m;
-                } else {
-                    getterMethod = m;
-                }
-            }
-
-            //gets the name of the method parameter class
-            String parameterClassName = setterMethod.getParameterTypes()[0].getName();
-
-            //gets the Value from the object of this property
-            Value objValue = statement.getObject();
-
-            //gets the assiciated URI
-            String valueURI = objValue.stringValue();
-
-            //if the property is functional, it enters in the first if
-            // else it has multi values
-            if (!parameterClassName.equals(SET_CLASS)) {
-
-                //it the valueURI is not empty
-                if (!valueURI.isEmpty()) {
-
-                    //if it is a datatype
-                    if (this.datatypeManager.isDatatype(objValue)) {
-                        //mapps to the an specific java native Class  
-                        setterMethod.invoke(o, this.datatypeManager.
-                                convertLiteralToDataype((Literal) objValue, parameterClassName));
-                        //else it is an istance
-                    } else {
-                        //gets the class name from the triple store
-                        parameterClassName = this.getClassFromBase(connection, valueURI, contexts);
+            this.groupStatement(statement, plan, grouped);
+        }
+        return this.populateGrouped(connection, plan, grouped, contexts);
+    }
 
-                        //gets a new instance with its properties not loaded                                
-                        setterMethod.invoke(o, this.
-                                getNotLoadedObject(valueURI, parameterClassName));
-                    }
-                }
-            } else {
-                Set<Object> set = (Set<Object>) getterMethod.invoke(o);
-                if (set == null) {
-                    set = new HashSet<>();
-                }
-                //gets the first value for type searching
-                Value v = statement.getObject();
-                //if it is a datatype
-                if (this.datatypeManager.isDatatype(v)) {
+    /**
+     * Adds the value of a statement to the values of its subject, if the
+     * predicate is a property of the class.
+     */
+    private void groupStatement(Statement statement, HydrationPlan plan,
+            Map<String, Map<String, List<Value>>> grouped) {
 
-                    //specific java native Class
-                    set.add(this.datatypeManager.convertLiteralToDataype((Literal) v));
+        String predicate = statement.getPredicate().stringValue();
+        if (plan.getProperty(predicate) == null) {
+            return;
+        }
+        String subjectURI = statement.getSubject().stringValue();
 
-                    //else it is an istance
-                } else {
-                    //gets the class name from the triple store
-                    parameterClassName = this.getClassFromBase(connection, v.stringValue(), contexts);
+        Map<String, List<Value>> properties = grouped.get(subjectURI);
+        if (properties == null) {
+            properties = new HashMap<>();
+            grouped.put(subjectURI, properties);
+        }
+        List<Value> values = properties.get(predicate);
+        if (values == null) {
+            values = new ArrayList<>();
+            properties.put(predicate, values);
+        }
+        values.add(statement.getObject());
+    }
 
-                    //gets a new instance with its properties not loaded
-                    set.add(this.getNotLoadedObject(v.stringValue(), parameterClassName));
-                }
+    /**
+     * Creates and populates an instance for each subject of the grouped
+     * values.
+     */
+    private List<Object> populateGrouped(RepositoryConnection connection, HydrationPlan plan,
+            Map<String, Map<String, List<Value>>> grouped, URI... contexts) throws Exception {
 
-                //invokes the method with the converted parameter
-                setterMethod.invoke(o, set);
+        //resolves the types of all referenced instances at once
+        Set<String> referenced = new LinkedHashSet<>();
+        for (Map<String, List<Value>> mapProperties : grouped.values()) {
+            this.collectReferences(plan, mapProperties, referenced);
+        }
+        HydrationContext context = new HydrationContext(this, connection, contexts);
+        context.resolveClasses(referenced);
 
-                //calls the setInnerModifiedFields to erase the modified fields
-                //of the instance (update mechanics)
-                ((JOINTResource) o).setInnerModifiedFields(new ArrayList<String>());
+        List<Object> returnList = new ArrayList<>();
+        for (Map.Entry<String, Map<String, List<Value>>> entry : grouped.entrySet()) {
+            Object o = plan.newInstance();
+            //casts the object to the upper class JOINTResource and
+            //calls the methods setURI and setLazyLoaded
+            ((JOINTResource) o).setURI(entry.getKey());
+            ((JOINTResource) o).setLazyLoaded(true);
 
-            }
-            result.put(subjectURI, o);
+            //populates the instance with the values of its properties
+            this.populate(o, plan, entry.getValue(), context);
+            returnList.add(o);
         }
-        return new ArrayList<>(result.values());
+        return returnList;
     }
 
     /**
@@ -1,15 +1,19 @@
 package wwwc.nees.joint.module.kao.retrieve;
 
 import info.aduna.iteration.Iterations;
+import java.io.IOException;
+import java.io.Writer;
 import wwwc.nees.joint.model.OWLUris;
 import wwwc.nees.joint.model.RDFUris;
 import wwwc.nees.joint.model.SWRLUris;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.codehaus.jettison.json.JSONException;
@@ -200,62 +204,19 @@ public class SPARQLQueryRunnerImpl implements QueryRunner {
         String className;
 
         if (result.getBindingNames().size() > 1) {
-            List<String> names = result.getBindingNames();
-
-            List<String> sortedNames = new ArrayList<>();
-
-            Map<Integer, String> positions = new HashMap<>();
-            String[] realPositions = new String[result.getBindingNames().size()];
-
-            for (String string : names) {
-                Integer index = query.indexOf("?" + string);
-                if (index == -1) {
-                    realPositions[Integer.parseInt(string.replace(CALLRET, ""))] = string;
-                } else {
-                    positions.put(index, string);
-                }
-            }
-            List<Integer> listaKeys = new ArrayList<>(positions.keySet());
-            Collections.sort(listaKeys);
-
-            for (Integer integer : listaKeys) {
-                String value = positions.get(integer);
-                sortedNames.add(value);
-            }
-
-            for (int i = 0; i < realPositions.length; i++) {
-                if (realPositions[i] != null) {
-                    sortedNames.add(i, realPositions[i]);
-                }
-            }
+            List<String> sortedNames = this.sortBindingNames(query, result.getBindingNames());
 
+            //converts the rows a page at a time, hydrating the instances of
+            //each page together
+            int size = RetrieveOperations.getBatchSize();
+            Map<String, Object> instances = new HashMap<>();
+            List<BindingSet> rows = new ArrayList<>();
             while (result.hasNext()) {
-                BindingSet binSet = result.next();
-
-                Object[] retorno = new Object[binSet.size()];
-                int counter = 0;
-
-                for (String bName : sortedNames) {
-
-                    Binding binding = binSet.getBinding(bName);
-
-                    if (binding == null) {
-                        retorno[counter] = null;
-                        counter++;
-                        continue;
-                    }
-
-                    Value re = binSet.getBinding(bName).getValue();
-
-                    if (re instanceof Literal) {
-                        retorno[counter] = datatypeManager.convertLiteralToDataype((Literal) re);
-                    } else {
-                        className = this.retrieveOp.getClassFromBase(connection, re.stringValue(), contexts);
-                        retorno[counter] = this.retrieveOp.convertOriginalForImpl(connection, re.stringValue(), Class.forName(className), contexts);
-                    }
-                    counter++;
+                rows.add(result.next());
+                if (rows.size() == size || !result.hasNext()) {
+                    resultList.addAll(this.convertRows(connection, rows, sortedNames, instances, contexts));
+                    rows.clear();
                 }
-                resultList.add(retorno);
             }
 
         } else {
@@ -372,6 +333,16 @@ public class SPARQLQueryRunnerImpl implements QueryRunner {
 
     }
 
+    @Override
+    public void executeTupleQueryAsJSON(RepositoryConnection connection, String query, Writer out)
+            throws RepositoryException, MalformedQueryException, QueryEvaluationException, TupleQueryResultHandlerException {
+        // Creates the query based on the parameter
+        TupleQuery tupleQuery = connection.prepareTupleQuery(QueryLanguage.SPARQL, query);
+
+        // Performs the query, writing each solution as it arrives
+        tupleQuery.evaluate(new TupleQueryToJSONStreamWriter(out));
+    }
+
     /**
      * Performs query in the repository, returning the results in an adapted
      * format from JSON-LD specification
@@ -395,6 +366,23 @@ public class SPARQLQueryRunnerImpl implements QueryRunner {
         return jsonldWriter.getResults();
     }
 
+    @Override
+    public void executeGraphQueryAsJSONLD(RepositoryConnection connection, String query, Writer out, Feature... features) throws RepositoryException, MalformedQueryException, QueryEvaluationException, RDFHandlerException, JSONException {
+        // When asked, each statement is written as it arrives
+        if (Arrays.asList(features).contains(Feature.STREAM)) {
+            GraphQuery graphQuery = connection.prepareGraphQuery(QueryLanguage.SPARQL, query);
+            graphQuery.evaluate(new GraphQueryToJSONLDStreamWriter(connection, out));
+            return;
+        }
+        // Else the objects are nested in the whole results before writing them
+        this.executeGraphQueryAsJSONLD(connection, query, features).write(out);
+        try {
+            out.flush();
+        } catch (IOException ex) {
+            throw new RDFHandlerException(ex);
+        }
+    }
+
     /**
      * Performs SPARQL queries in the repository, returning a java.util.Iterator
      * with the results.
@@ -403,14 +391,193 @@ public class SPARQLQueryRunnerImpl implements QueryRunner {
      * @param query the <code>String</code> with the query to be performed.
      * @param contexts <code>URI</code> represent the graphs in which the query
      * will be performed.
-     * @return <code>Iterator</code> a java.util.List with the results.
+     * @return <code>ResultCursor</code> a java.util.Iterator which hydrates
+     * the results in pages and must be closed if it is not exhausted.
      */
     @Override
-    public Iterator<Object> executeQueryAsIterator(RepositoryConnection connection, String query, URI... contexts
-    ) throws Exception {
-        // Changes the result to a java.util.List
-        //Gets the iterator of the list
-        return this.executeQueryAsList(connection, query, contexts).iterator();
+    public ResultCursor<Object> executeQueryAsIterator(final RepositoryConnection connection, String query,
+            final URI... contexts) throws Exception {
+
+        // Creates the query based on the parameter
+        TupleQuery tupleQuery = connection.prepareTupleQuery(QueryLanguage.SPARQL, query);
+
+        // Performs the query, the result stays open until the cursor is closed
+        final TupleQueryResult result = tupleQuery.evaluate();
+
+        final List<String> sortedNames = (result.getBindingNames().size() > 1)
+                ? this.sortBindingNames(query, result.getBindingNames()) : null;
+
+        return new ResultCursor<Object>() {
+
+            // Type of the single binding results, decided by the first row
+            private Boolean literals;
+            private String className;
+
+            @Override
+            protected boolean fetchPage(List<Object> page) throws Exception {
+                int size = RetrieveOperations.getBatchSize();
+
+                //rows with many bindings have the instances of the page
+                //hydrated together
+                if (sortedNames != null) {
+                    List<BindingSet> rows = new ArrayList<>();
+                    while (rows.size() < size && result.hasNext()) {
+                        rows.add(result.next());
+                    }
+                    page.addAll(convertRows(connection, rows, sortedNames, new HashMap<String, Object>(), contexts));
+                    return result.hasNext();
+                }
+
+                List<Value> values = new ArrayList<>();
+                while (values.size() < size && result.hasNext()) {
+                    values.add(result.next().iterator().next().getValue());
+                }
+                if (values.isEmpty()) {
+                    return false;
+                }
+                if (this.literals == null) {
+                    this.literals = values.get(0) instanceof Literal;
+                    if (!this.literals) {
+                        //checks which class type the elements belong
+                        this.className = retrieveOp.getClassFromBase(connection, values.get(0).stringValue(), contexts);
+                    }
+                }
+                if (this.literals) {
+                    List<Literal> pageLiterals = new ArrayList<>();
+                    for (Value value : values) {
+                        pageLiterals.add((Literal) value);
+                    }
+                    page.addAll(datatypeManager.convertCollectionOfLiteralToDataypes(pageLiterals));
+                } else {
+                    //hydrates the instances of the page with a single query
+                    List<String> instancesURI = new ArrayList<>();
+                    for (Value value : values) {
+                        instancesURI.add(value.stringValue());
+                    }
+                    page.addAll(retrieveOp.convertCollectionOriginalForImpl(connection, instancesURI,
+                            Class.forName(this.className), contexts));
+                }
+                return result.hasNext();
+            }
+
+            @Override
+            protected void closeResult() throws Exception {
+                result.close();
+            }
+        };
+    }
+
+    /**
+     * Sorts the binding names of a result in the order they appear in the
+     * query projection.
+     */
+    private List<String> sortBindingNames(String query, List<String> names) {
+
+        List<String> sortedNames = new ArrayList<>();
+
+        Map<Integer, String> positions = new HashMap<>();
+        String[] realPositions = new String[names.size()];
+
+        for (String string : names) {
+            Integer index = query.indexOf("?" + string);
+            if (index == -1) {
+                realPositions[Integer.parseInt(string.replace(CALLRET, ""))] = string;
+            } else {
+                positions.put(index, string);
+            }
+        }
+        List<Integer> listaKeys = new ArrayList<>(positions.keySet());
+        Collections.sort(listaKeys);
+
+        for (Integer integer : listaKeys) {
+            String value = positions.get(integer);
+            sortedNames.add(value);
+        }
+
+        for (int i = 0; i < realPositions.length; i++) {
+            if (realPositions[i] != null) {
+                sortedNames.add(i, realPositions[i]);
+            }
+        }
+        return sortedNames;
+    }
+
+    /**
+     * Converts rows with many bindings to arrays, in the order of the sorted
+     * binding names. The distinct resources of the rows have their classes
+     * resolved and are hydrated with batched queries, and each one is shared
+     * by all the cells where it appears.
+     *
+     * @param instances the instances already hydrated, by URI, where the ones
+     * hydrated now are added
+     */
+    private List<Object[]> convertRows(RepositoryConnection connection, List<BindingSet> rows,
+            List<String> sortedNames, Map<String, Object> instances, URI... contexts) throws Exception {
+
+        //collects the resources not hydrated yet
+        Set<String> uris = new LinkedHashSet<>();
+        for (BindingSet binSet : rows) {
+            for (Binding binding : binSet) {
+                Value re = binding.getValue();
+                if (!(re instanceof Literal) && !instances.containsKey(re.stringValue())) {
+                    uris.add(re.stringValue());
+                }
+            }
+        }
+
+        if (!uris.isEmpty()) {
+            //groups them by class, the ones without type are converted to null
+            Map<String, String> classNames = this.retrieveOp.getTypedClassesFromBase(connection, uris, contexts);
+            Map<String, List<String>> byClass = new HashMap<>();
+            for (String uri : uris) {
+                String className = classNames.get(uri);
+                if (className == null) {
+                    instances.put(uri, null);
+                    continue;
+                }
+                List<String> group = byClass.get(className);
+                if (group == null) {
+                    group = new ArrayList<>();
+                    byClass.put(className, group);
+                }
+                group.add(uri);
+            }
+            for (Map.Entry<String, List<String>> entry : byClass.entrySet()) {
+                List<Object> objects = this.retrieveOp.convertCollectionOriginalForImpl(connection, entry.getValue(),
+                        Class.forName(entry.getKey()), contexts);
+                for (int i = 0; i < objects.size(); i++) {
+                    instances.put(entry.getValue().get(i), objects.get(i));
+                }
+            }
+        }
+
+        List<Object[]> converted = new ArrayList<>();
+        for (BindingSet binSet : rows) {
+            Object[] retorno = new Object[binSet.size()];
+            int counter = 0;
+
+            for (String bName : sortedNames) {
+
+                Binding binding = binSet.getBinding(bName);
+
+                if (binding == null) {
+                    retorno[counter] = null;
+                    counter++;
+                    continue;
+                }
+
+                Value re = binding.getValue();
+
+                if (re instanceof Literal) {
+                    retorno[counter] = datatypeManager.convertLiteralToDataype((Literal) re);
+                } else {
+                    retorno[counter] = instances.get(re.stringValue());
+                }
+                counter++;
+            }
+            converted.add(retorno);
+        }
+        return converted;
     }
 
     /**
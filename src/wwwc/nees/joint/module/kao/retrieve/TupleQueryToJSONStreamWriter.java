@@ -0,0 +1,216 @@
+package wwwc.nees.joint.module.kao.retrieve;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import org.openrdf.model.BNode;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Value;
+import org.openrdf.query.Binding;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryResultHandlerException;
+import org.openrdf.query.TupleQueryResultHandler;
+import org.openrdf.query.TupleQueryResultHandlerException;
+
+/**
+ * Writes the results of a tuple query in the SPARQL 1.1 Query Results JSON
+ * Format as the solutions arrive, without keeping them in memory. The values
+ * keep their kind, datatype and language. The sink is flushed at the end of
+ * the results, but not closed.
+ *
+ * @author Olavo
+ */
+public class TupleQueryToJSONStreamWriter implements TupleQueryResultHandler {
+
+    // VARIABLES
+    // -------------------------------------------------------------------------
+    private final Writer writer;
+    private List<String> links = Collections.emptyList();
+    private boolean firstSolution;
+
+    // CONSTRUCTOR
+    // -------------------------------------------------------------------------
+    /**
+     * Creates a writer of UTF-8 JSON to a stream.
+     *
+     * @param out the stream
+     */
+    public TupleQueryToJSONStreamWriter(OutputStream out) {
+        this(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Creates a writer of JSON to a character sink.
+     *
+     * @param writer the sink
+     */
+    public TupleQueryToJSONStreamWriter(Writer writer) {
+        this.writer = (writer instanceof BufferedWriter) ? writer : new BufferedWriter(writer);
+    }
+
+    // METHODS
+    // -------------------------------------------------------------------------
+    @Override
+    public void handleLinks(List<String> links) throws QueryResultHandlerException {
+        this.links = links;
+    }
+
+    @Override
+    public void handleBoolean(boolean value) throws QueryResultHandlerException {
+        try {
+            this.writeHead(Collections.<String>emptyList());
+            this.writer.write(",\"boolean\":");
+            this.writer.write(String.valueOf(value));
+            this.writer.write('}');
+            this.writer.flush();
+        } catch (IOException e) {
+            throw new QueryResultHandlerException(e);
+        }
+    }
+
+    @Override
+    public void startQueryResult(List<String> bindingNames) throws TupleQueryResultHandlerException {
+        try {
+            this.writeHead(bindingNames);
+            this.writer.write(",\"results\":{\"bindings\":[");
+            this.firstSolution = true;
+        } catch (IOException e) {
+            throw new TupleQueryResultHandlerException(e);
+        }
+    }
+
+    @Override
+    public void handleSolution(BindingSet bindingSet) throws TupleQueryResultHandlerException {
+        try {
+            if (!this.firstSolution) {
+                this.writer.write(',');
+            }
+            this.firstSolution = false;
+            this.writer.write('{');
+            boolean first = true;
+            //the unbound variables are left out
+            for (Binding binding : bindingSet) {
+                if (binding.getValue() == null) {
+                    continue;
+                }
+                if (!first) {
+                    this.writer.write(',');
+                }
+                first = false;
+                writeString(this.writer, binding.getName());
+                this.writer.write(':');
+                this.writeValue(binding.getValue());
+            }
+            this.writer.write('}');
+        } catch (IOException e) {
+            throw new TupleQueryResultHandlerException(e);
+        }
+    }
+
+    @Override
+    public void endQueryResult() throws TupleQueryResultHandlerException {
+        try {
+            this.writer.write("]}}");
+            this.writer.flush();
+        } catch (IOException e) {
+            throw new TupleQueryResultHandlerException(e);
+        }
+    }
+
+    private void writeHead(List<String> bindingNames) throws IOException {
+        this.writer.write("{\"head\":{");
+        if (!bindingNames.isEmpty()) {
+            this.writer.write("\"vars\":");
+            this.writeArray(bindingNames);
+            if (!this.links.isEmpty()) {
+                this.writer.write(',');
+            }
+        }
+        if (!this.links.isEmpty()) {
+            this.writer.write("\"link\":");
+            this.writeArray(this.links);
+        }
+        this.writer.write('}');
+    }
+
+    private void writeArray(List<String> strings) throws IOException {
+        this.writer.write('[');
+        for (int i = 0; i < strings.size(); i++) {
+            if (i > 0) {
+                this.writer.write(',');
+            }
+            writeString(this.writer, strings.get(i));
+        }
+        this.writer.write(']');
+    }
+
+    private void writeValue(Value value) throws IOException {
+        this.writer.write("{\"type\":");
+        if (value instanceof Literal) {
+            Literal literal = (Literal) value;
+            this.writer.write("\"literal\"");
+            if (literal.getLanguage() != null) {
+                this.writer.write(",\"xml:lang\":");
+                writeString(this.writer, literal.getLanguage());
+            } else if (literal.getDatatype() != null) {
+                this.writer.write(",\"datatype\":");
+                writeString(this.writer, literal.getDatatype().stringValue());
+            }
+        } else if (value instanceof BNode) {
+            this.writer.write("\"bnode\"");
+        } else {
+            this.writer.write("\"uri\"");
+        }
+        this.writer.write(",\"value\":");
+        writeString(this.writer, value.stringValue());
+        this.writer.write('}');
+    }
+
+    /**
+     * Writes a JSON string, escaping the quotes, backslashes and control
+     * characters.
+     */
+    static void writeString(Writer writer, String s) throws IOException {
+        writer.write('"');
+        int start = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            String escape;
+            switch (c) {
+                case '"':
+                    escape = "\\\"";
+                    break;
+                case '\\':
+                    escape = "\\\\";
+                    break;
+                case '\n':
+                    escape = "\\n";
+                    break;
+                case '\r':
+                    escape = "\\r";
+                    break;
+                case '\t':
+                    escape = "\\t";
+                    break;
+                default:
+                    //the line separators are escaped so the JSON is also
+                    //valid JavaScript
+                    if (c < 0x20 || c == '\u2028' || c == '\u2029') {
+                        escape = String.format("\\u%04x", (int) c);
+                    } else {
+                        continue;
+                    }
+            }
+            writer.write(s, start, i - start);
+            writer.write(escape);
+            start = i + 1;
+        }
+        writer.write(s, start, s.length() - start);
+        writer.write('"');
+    }
+}
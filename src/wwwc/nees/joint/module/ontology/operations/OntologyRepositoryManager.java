@@ -1,6 +1,7 @@
 package wwwc.nees.joint.module.ontology.operations;
 
 import wwwc.nees.joint.module.kao.RepositoryFactory;
+import wwwc.nees.joint.module.kao.cache.SchemaCache;
 import java.io.File;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -83,6 +84,8 @@ public class OntologyRepositoryManager {
 
                 //commit the changes made in the repository
                 this.repoConnection.commit();
+                //the properties are looked up again with the new schema
+                SchemaCache.getInstance().invalidate();
             } catch (Exception e) {
 
                 //If catch any exception then rollback
@@ -128,6 +131,8 @@ public class OntologyRepositoryManager {
 
                 //commit the changes made in the repository
                 this.repoConnection.commit();
+                //the properties are looked up again with the new schema
+                SchemaCache.getInstance().invalidate();
             } catch (Exception e) {
 
                 //If catch any exception then rollback
@@ -238,6 +243,8 @@ public class OntologyRepositoryManager {
 
                 //commit the changes made in the repository
                 this.repoConnection.commit();
+                //the properties are looked up again with the new schema
+                SchemaCache.getInstance().invalidate();
             } catch (Exception e) {
 
                 //If catch any exception then rollback
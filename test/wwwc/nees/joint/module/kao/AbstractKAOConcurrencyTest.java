@@ -0,0 +1,92 @@
+package wwwc.nees.joint.module.kao;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import joint.codegen.foaf.Person;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Concurrent use of a single KAO shared by many threads.
+ *
+ * @author Olavo
+ */
+public class AbstractKAOConcurrencyTest {
+
+    private AbstractKAOImpl kao;
+    private String ontologyURI;
+    private List<URI> graphs;
+
+    @Before
+    public void setUp() {
+        ontologyURI = "http://xmlns.com/foaf/0.1/";
+        kao = new AbstractKAOImpl(Person.class);
+        graphs = new ArrayList<>();
+    }
+
+    @After
+    public void tearDown() {
+        for (URI graph : graphs) {
+            kao.executeBooleanQuery("clear graph <" + graph.toString() + ">");
+        }
+        kao = null;
+        graphs = null;
+    }
+
+    /**
+     * Each thread writes and reads its own instance in its own graph through
+     * the shared KAO; no thread may see the graph or the connection of
+     * another one.
+     */
+    @Test
+    public void testSharedKAO_Stress() throws Exception {
+        final int threads = 32;
+        final int rounds = 20;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final URI graph = URI.create(ontologyURI + "Stress_" + t + "/");
+            final String instanceURI = ontologyURI + "Stress_" + t;
+            graphs.add(graph);
+            results.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (int i = 0; i < rounds; i++) {
+                        Person p = kao.create(instanceURI, graph);
+                        p.setFoafAge(i);
+                        kao.update(p, graph);
+                        Person result = kao.retrieveInstance(instanceURI, graph);
+                        assertNotNull(result);
+                        assertEquals(i, result.getFoafAge());
+                        assertEquals(1, kao.retrieveAllInstances(graph).size());
+                        kao.delete(instanceURI, graph);
+                        assertNull(kao.retrieveInstance(instanceURI, graph));
+                    }
+                    return null;
+                }
+            }));
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.MINUTES));
+        for (Future<Void> result : results) {
+            //rethrows the failures of the threads
+            result.get();
+        }
+    }
+
+    public class AbstractKAOImpl extends AbstractKAO {
+
+        public <T> AbstractKAOImpl(Class<T> classe) {
+            super(classe);
+        }
+
+    }
+}
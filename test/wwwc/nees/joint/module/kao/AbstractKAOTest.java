@@ -1,16 +1,47 @@
 package wwwc.nees.joint.module.kao;
 
+import info.aduna.iteration.Iterations;
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import joint.codegen.foaf.Agent;
+import joint.codegen.foaf.Document;
 import joint.codegen.foaf.Person;
+import org.codehaus.jettison.json.JSONArray;
+import org.codehaus.jettison.json.JSONObject;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.*;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.repository.RepositoryConnection;
 import org.openrdf.util.iterators.Iterators;
+import wwwc.nees.joint.model.JOINTResource;
+import wwwc.nees.joint.module.kao.cache.InstanceCache;
+import wwwc.nees.joint.module.kao.cache.QueryResultCache;
+import wwwc.nees.joint.module.kao.cache.SchemaCache;
+import wwwc.nees.joint.module.kao.id.BlockSequenceIdGenerator;
+import wwwc.nees.joint.module.kao.id.IdGenerator;
+import wwwc.nees.joint.module.kao.id.RandomIdGenerator;
+import wwwc.nees.joint.module.kao.id.TimeOrderedIdGenerator;
+import wwwc.nees.joint.module.kao.retrieve.Feature;
+import wwwc.nees.joint.module.kao.retrieve.InstancePage;
+import wwwc.nees.joint.module.kao.retrieve.LazyLoader;
+import wwwc.nees.joint.module.kao.retrieve.MergePolicy;
+import wwwc.nees.joint.module.kao.retrieve.ResultCursor;
+import wwwc.nees.joint.module.kao.retrieve.RetrieveOperations;
 
 /**
  * @author armando
@@ -47,6 +78,89 @@ public class AbstractKAOTest {
         instanceName = "";
     }
 
+    /**
+     * Test of openSession method, of class AbstractKAO.
+     */
+    @Test
+    public void testOpenSession() throws Exception {
+        try (Session session = kao.openSession()) {
+            Person p = kao.create(ontologyURI, instanceName, graphs);
+            p.setFoafAge(22);
+            kao.update(p, graphs);
+            //the queued writes are flushed before the read
+            Person result = kao.retrieveInstance(ontologyURI, instanceName, graphs);
+            assertEquals(22, result.getFoafAge());
+            session.commit();
+        }
+        assertNull(Session.current());
+        assertNotNull(kao.retrieveInstance(ontologyURI, instanceName, graphs));
+    }
+
+    /**
+     * Test of the identity map of the session, of class AbstractKAO.
+     */
+    @Test
+    public void testOpenSession_IdentityMap() throws Exception {
+        kao.create(ontologyURI, instanceName, graphs);
+        try (Session session = kao.openSession()) {
+            Person first = kao.retrieveInstance(ontologyURI, instanceName, graphs);
+            Person second = kao.retrieveInstance(ontologyURI, instanceName, graphs);
+            assertSame(first, second);
+            session.commit();
+            //the identity map is cleared by the commit
+            assertNotSame(first, kao.retrieveInstance(ontologyURI, instanceName, graphs));
+        }
+    }
+
+    /**
+     * Test of openSession method without commit, of class AbstractKAO.
+     */
+    @Test
+    public void testOpenSession_Rollback() throws Exception {
+        try (Session session = kao.openSession()) {
+            kao.create(ontologyURI, instanceName, graphs);
+        }
+        assertNull(kao.retrieveInstance(ontologyURI, instanceName, graphs));
+    }
+
+    /**
+     * Test of openSession method updating an instance in many graphs, of
+     * class AbstractKAO.
+     */
+    @Test
+    public void testOpenSession_UpdateInGraphs() throws Exception {
+        kao.create(ontologyURI, instanceName, graphs);
+        try (Session session = kao.openSession()) {
+            Person person = kao.retrieveInstance(ontologyURI, instanceName, foafGraph_A);
+            person.setFoafAge(22);
+            kao.update(person, foafGraph_A);
+            kao.update(person, foafGraph_B);
+            session.commit();
+        }
+        assertEquals(22, kao.<Person>retrieveInstance(ontologyURI, instanceName, foafGraph_A).getFoafAge());
+        assertEquals(22, kao.<Person>retrieveInstance(ontologyURI, instanceName, foafGraph_B).getFoafAge());
+    }
+
+    /**
+     * Test of openSession method updating again an instance whose flushed
+     * changes were rolled back, of class AbstractKAO.
+     */
+    @Test
+    public void testOpenSession_RollbackUpdate() throws Exception {
+        kao.create(ontologyURI, instanceName, graphs);
+        Person person = kao.retrieveInstance(ontologyURI, instanceName, graphs);
+        try (Session session = kao.openSession()) {
+            person.setFoafAge(22);
+            kao.update(person, graphs);
+            session.flush();
+            session.rollback();
+            //the rolled back changes are saved by the next update
+            kao.update(person, graphs);
+            session.commit();
+        }
+        assertEquals(22, kao.<Person>retrieveInstance(ontologyURI, instanceName, graphs).getFoafAge());
+    }
+
     /**
      * Test of create method, of class AbstractKAO.
      */
@@ -81,6 +195,83 @@ public class AbstractKAOTest {
         assertTrue(p1.toString() != p2.toString());
     }
 
+    /**
+     * Test of createWithUniqueID method with each ID generator, from many
+     * threads, of class AbstractKAO.
+     */
+    @Test
+    public void testCreateWithUniqueID_IdGenerators() throws Exception {
+        final String instancePrefix = "Person_";
+        IdGenerator[] generators = {new RandomIdGenerator(), new TimeOrderedIdGenerator(),
+            new BlockSequenceIdGenerator(RepositoryFactory.getRepository(), 10)};
+        for (IdGenerator generator : generators) {
+            kao.setIdGenerator(generator);
+            ExecutorService executor = Executors.newFixedThreadPool(8);
+            List<Callable<Person>> tasks = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                tasks.add(new Callable<Person>() {
+                    @Override
+                    public Person call() {
+                        return kao.createWithUniqueID(ontologyURI, instancePrefix, graphs);
+                    }
+                });
+            }
+            Set<String> uris = new HashSet<>();
+            for (Future<Person> created : executor.invokeAll(tasks)) {
+                assertTrue(created.get().toString().startsWith(ontologyURI + instancePrefix));
+                uris.add(created.get().toString());
+            }
+            executor.shutdown();
+            //no ID was generated twice
+            assertEquals(tasks.size(), uris.size());
+            kao.deleteAll(uris, graphs);
+        }
+    }
+
+    /**
+     * Test of createAll, updateAll and deleteAll methods, of class
+     * AbstractKAO.
+     */
+    @Test
+    public void testCreateAll_UpdateAll_DeleteAll() {
+        kao.setBatchSize(2);
+        List<String> uris = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            uris.add(ontologyURI + instanceName + "_" + i);
+        }
+        List<Person> created = kao.createAll(uris, graphs);
+        assertEquals(uris.size(), created.size());
+        for (Person p : created) {
+            p.setFoafAge(22);
+        }
+        kao.updateAll(created, graphs);
+        for (String uri : uris) {
+            Person p = kao.retrieveInstance(uri, graphs);
+            assertEquals(22, p.getFoafAge());
+        }
+        kao.deleteAll(created, graphs);
+        for (String uri : uris) {
+            assertNull(kao.retrieveInstance(uri, graphs));
+        }
+    }
+
+    /**
+     * Test of deleteAll method passing thousands of URIs, of class
+     * AbstractKAO.
+     */
+    @Test
+    public void testDeleteAll_URIs() {
+        List<String> uris = new ArrayList<>();
+        for (int i = 0; i < 2500; i++) {
+            uris.add(ontologyURI + instanceName + "_" + i);
+        }
+        kao.createAll(uris, graphs);
+        //one instance per graph
+        assertEquals(uris.size() * graphs.length, kao.retrieveAllInstances(graphs).size());
+        kao.deleteAll(uris, graphs);
+        assertTrue(kao.retrieveAllInstances(graphs).isEmpty());
+    }
+
     /**
      * Test of delete method, of class AbstractKAO.
      */
@@ -110,6 +301,61 @@ public class AbstractKAOTest {
         assertNull(result);
     }
 
+    /**
+     * Test of askStatements and removeStatements with numbers stored with
+     * other numeric datatypes than the one of their text, of class
+     * RemoveOperations.
+     */
+    @Test
+    public void testRemoveStatements_NumericDatatype() throws Exception {
+        RepositoryConnection connection = RepositoryFactory.getRepository().getConnection();
+        try {
+            ValueFactory f = connection.getValueFactory();
+            org.openrdf.model.URI graph = f.createURI(foafGraph_A.toString());
+            String subject = ontologyURI + instanceName;
+            String property = ontologyURI + "weight";
+            connection.add(f.createURI(subject), f.createURI(property), f.createLiteral(42.5f), graph);
+            connection.add(f.createURI(subject), f.createURI(property), f.createLiteral(7), graph);
+
+            //the xsd:float and the xsd:int match the decimal and the integer
+            assertTrue(Operation.askStatements(connection, subject, property, "42.5", graph));
+            assertTrue(Operation.askStatements(connection, subject, property, "7", graph));
+            assertFalse(Operation.askStatements(connection, subject, property, "8", graph));
+
+            RemoveOperations.removeStatements(connection, subject, property, "42.5", graph);
+            RemoveOperations.removeStatements(connection, subject, property, "7", graph);
+            assertFalse(connection.hasStatement(f.createURI(subject), f.createURI(property), null, false, graph));
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Test of beginRead and endRead methods, of class TransactionHandler.
+     */
+    @Test
+    public void testReadTransactions() throws Exception {
+        RepositoryConnection connection = RepositoryFactory.getRepository().getConnection();
+        boolean previous = TransactionHandler.isReadTransactions();
+        try {
+            //by default the reads run without a transaction
+            TransactionHandler.setReadTransactions(false);
+            TransactionHandler.beginRead(connection);
+            assertFalse(connection.isActive());
+            TransactionHandler.endRead(connection, true);
+            assertFalse(connection.isActive());
+
+            TransactionHandler.setReadTransactions(true);
+            TransactionHandler.beginRead(connection);
+            assertTrue(connection.isActive());
+            TransactionHandler.endRead(connection, true);
+            assertFalse(connection.isActive());
+        } finally {
+            TransactionHandler.setReadTransactions(previous);
+            connection.close();
+        }
+    }
+
     /**
      * Test of retrieveInstance method, of class AbstractKAO.
      */
@@ -121,6 +367,27 @@ public class AbstractKAOTest {
         assertEquals(expected, result);
     }
 
+    /**
+     * Test of retrieveInstance method with a projection, of class AbstractKAO.
+     */
+    @Test
+    public void testRetrieveInstance_Projection() {
+        Person person = kao.create(ontologyURI, instanceName, graphs);
+        person.setFoafAge(22);
+        person.setFoafGender("Feminino");
+        kao.update(person, graphs);
+        Person result = kao.retrieveInstance(ontologyURI + instanceName,
+                Collections.singleton(ontologyURI + "age"), graphs);
+        assertEquals(22, result.getFoafAge());
+        //the gender is deferred and loaded on its first access; the classes
+        //in foaf.jar were compiled without the check by field, so the call
+        //of the generated getter is made here
+        assertFalse(((JOINTResource) result).isLazyLoaded("FoafGender"));
+        LazyLoader.loadObject(result, result.getClass().getName(), "FoafGender");
+        assertTrue(((JOINTResource) result).isLazyLoaded("FoafGender"));
+        assertEquals("Feminino", result.getFoafGender());
+    }
+
     /**
      * Test of retrieveAllInstances method, of class AbstractKAO.
      */
@@ -140,6 +407,125 @@ public class AbstractKAOTest {
         assertEquals(initial.size(), result.size());
     }
 
+    /**
+     * Test of retrieveAllInstances method hydrating in batches, of class
+     * AbstractKAO.
+     */
+    @Test
+    public void testRetrieveAllInstances_Batches() {
+        AbstractKAOImpl documentKAO = new AbstractKAOImpl(Document.class);
+        int batchSize = RetrieveOperations.getBatchSize();
+        RetrieveOperations.setBatchSize(2);
+        try {
+            //one instance more than a batch, each one linked to a person and
+            //to a document
+            Document document = documentKAO.create(ontologyURI, instanceName + "_Document", foafGraph_A);
+            List<Person> people = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                people.add(kao.<Person>create(ontologyURI, instanceName + i, foafGraph_A));
+            }
+            for (int i = 0; i < 3; i++) {
+                Person person = people.get(i);
+                person.setFoafAge(20 + i);
+                person.setFoafKnows(Collections.singleton(people.get((i + 1) % 3)));
+                person.setFoafPublications(Collections.singleton(document));
+                kao.update(person, foafGraph_A);
+            }
+
+            List<Person> result = kao.retrieveAllInstances(foafGraph_A);
+            assertEquals(3, result.size());
+            Set<Integer> ages = new HashSet<>();
+            for (Person person : result) {
+                ages.add((Integer) person.getFoafAge());
+                //the linked instances of both classes were resolved
+                Object known = person.getFoafKnows().iterator().next();
+                assertTrue(known instanceof Person);
+                Object publication = person.getFoafPublications().iterator().next();
+                assertTrue(publication instanceof Document);
+                assertEquals(document.toString(), publication.toString());
+            }
+            assertEquals(new HashSet<>(Arrays.asList(20, 21, 22)), ages);
+        } finally {
+            RetrieveOperations.setBatchSize(batchSize);
+        }
+    }
+
+    /**
+     * Test of retrieveAllInstances and retrieveInstance methods merging the
+     * graphs, of class AbstractKAO.
+     */
+    @Test
+    public void testRetrieveAllInstances_MergePolicy() {
+        List<Person> initial = kao.retrieveAllInstances(MergePolicy.UNION, graphs);
+        Person p = kao.create(ontologyURI, instanceName, graphs);
+        p.setFoafAge(22);
+        kao.update(p, foafGraph_A);
+        Person other = kao.retrieveInstance(p.toString(), foafGraph_B);
+        other.setFoafAge(30);
+        kao.update(other, foafGraph_B);
+
+        List<Person> result = kao.retrieveAllInstances(MergePolicy.UNION, graphs);
+        assertEquals(initial.size() + 1, result.size());
+        Person merged = kao.retrieveInstance(p.toString(), MergePolicy.FIRST_GRAPH_WINS, graphs);
+        assertEquals(22, merged.getFoafAge());
+        merged = kao.retrieveInstance(p.toString(), MergePolicy.FIRST_GRAPH_WINS, foafGraph_B, foafGraph_A);
+        assertEquals(30, merged.getFoafAge());
+    }
+
+    /**
+     * Test of retrieveInstances method, of class AbstractKAO.
+     */
+    @Test
+    public void testRetrieveInstances() {
+        kao.create(ontologyURI, instanceName + "1", graphs);
+        kao.create(ontologyURI, instanceName + "2", graphs);
+        kao.create(ontologyURI, instanceName + "3", graphs);
+
+        List<Person> result = new ArrayList<>();
+        String token = null;
+        do {
+            InstancePage<Person> page = kao.retrieveInstances(2, token, graphs);
+            assertTrue(page.getInstances().size() <= 2);
+            result.addAll(page.getInstances());
+            token = page.getContinuationToken();
+        } while (token != null);
+
+        //each instance is listed once, even if it is in many graphs
+        assertEquals(new HashSet<>(result).size(), result.size());
+        assertTrue(result.size() >= 3);
+    }
+
+    /**
+     * Test of streamAllInstances method, of class AbstractKAO.
+     */
+    @Test
+    public void testStreamAllInstances() {
+        List<Person> initial = kao.retrieveAllInstances(graphs);
+        kao.create(ontologyURI, instanceName + "1", graphs);
+        kao.create(ontologyURI, instanceName + "2", graphs);
+
+        List<Person> expected = kao.retrieveAllInstances(graphs);
+        //the cursor reads each instance once, even if it is in both graphs
+        Set<String> expectedURIs = new HashSet<>();
+        for (Person person : expected) {
+            expectedURIs.add(person.toString());
+        }
+        List<String> result = new ArrayList<>();
+        //one instance per page
+        int batchSize = RetrieveOperations.getBatchSize();
+        RetrieveOperations.setBatchSize(1);
+        try (ResultCursor<Person> cursor = kao.streamAllInstances(graphs)) {
+            while (cursor.hasNext()) {
+                result.add(cursor.next().toString());
+            }
+        } finally {
+            RetrieveOperations.setBatchSize(batchSize);
+        }
+        assertTrue(expected.size() > initial.size());
+        assertEquals(expectedURIs.size(), result.size());
+        assertEquals(expectedURIs, new HashSet<>(result));
+    }
+
     /**
      * Test of update method, of class AbstractKAO.
      */
@@ -158,6 +544,105 @@ public class AbstractKAOTest {
         assertEquals(500, result.getFoafAge());
     }
 
+    /**
+     * Test of update method with an instance saved twice, of class
+     * AbstractKAO.
+     */
+    @Test
+    public void testUpdate_SavedTwice() {
+        kao.create(ontologyURI, instanceName, graphs);
+        Person person = kao.retrieveInstance(ontologyURI, instanceName, graphs);
+        person.setFoafAge(22);
+        person.setFoafGender("Feminino");
+        kao.update(person, graphs);
+        //only the changed value is sent in the second update
+        person.setFoafAge(30);
+        kao.update(person, graphs);
+        Person result = kao.retrieveInstance(ontologyURI, instanceName, graphs);
+        assertEquals(30, result.getFoafAge());
+        assertEquals("Feminino", result.getFoafGender());
+    }
+
+    /**
+     * Test of update method without graphs, of class AbstractKAO.
+     */
+    @Test
+    public void testUpdate_NoContexts() throws Exception {
+        RepositoryConnection connection = RepositoryFactory.getRepository().getConnection();
+        try {
+            Person person = kao.create(ontologyURI, instanceName);
+            person.setFoafAge(22);
+            person.setFoafGender("Feminino");
+            kao.update(person);
+            Person loaded = kao.retrieveInstance(ontologyURI, instanceName);
+            loaded.setFoafAge(30);
+            loaded.setFoafGender("Masculino");
+            kao.update(loaded);
+            Person result = kao.retrieveInstance(ontologyURI, instanceName);
+            assertEquals(30, result.getFoafAge());
+            assertEquals("Masculino", result.getFoafGender());
+            //the old values were removed from the default graph
+            ValueFactory f = connection.getValueFactory();
+            assertEquals(1, Iterations.asList(connection.getStatements(f.createURI(ontologyURI + instanceName),
+                    f.createURI("http://xmlns.com/foaf/0.1/age"), null, false)).size());
+        } finally {
+            kao.delete(ontologyURI, instanceName);
+            connection.close();
+        }
+    }
+
+    /**
+     * Test of update method with an instance saved in other graph than the
+     * one it was loaded from, of class AbstractKAO.
+     */
+    @Test
+    public void testUpdate_OtherGraph() {
+        Person person = kao.create(ontologyURI, instanceName, graphs);
+        Set<String> names = new HashSet<>();
+        names.add("Tereza");
+        names.add("Maria");
+        person.setFoafFirstName(names);
+        kao.update(person, foafGraph_A);
+        Person loaded = kao.retrieveInstance(ontologyURI, instanceName, foafGraph_A);
+        Set<Object> changed = new HashSet<>(loaded.getFoafFirstName());
+        changed.add("Ana");
+        loaded.setFoafFirstName(changed);
+        //the unchanged names are also saved in the other graph
+        kao.update(loaded, foafGraph_B);
+        Person result = kao.retrieveInstance(ontologyURI, instanceName, foafGraph_B);
+        assertEquals(3, result.getFoafFirstName().size());
+    }
+
+    /**
+     * Test of retrieveInstance method with the shared instance cache, of
+     * class AbstractKAO.
+     */
+    @Test
+    public void testRetrieveInstance_InstanceCache() {
+        InstanceCache.enable(100, 1, TimeUnit.MINUTES);
+        try {
+            Person person = kao.create(ontologyURI, instanceName, graphs);
+            person.setFoafAge(22);
+            kao.update(person, graphs);
+            Person first = kao.retrieveInstance(ontologyURI, instanceName, graphs);
+            Person second = kao.retrieveInstance(ontologyURI, instanceName, graphs);
+            //the second retrieval is a copy of the cached snapshot
+            assertNotSame(first, second);
+            assertEquals(22, second.getFoafAge());
+            assertEquals(1, InstanceCache.getInstance().getHits());
+            //the copies do not share their state
+            second.setFoafAge(30);
+            assertEquals(22, first.getFoafAge());
+            //the update drops the snapshot
+            kao.update(second, graphs);
+            assertEquals(30, kao.<Person>retrieveInstance(ontologyURI, instanceName, graphs).getFoafAge());
+            kao.delete(ontologyURI, instanceName, graphs);
+            assertNull(kao.retrieveInstance(ontologyURI, instanceName, graphs));
+        } finally {
+            InstanceCache.disable();
+        }
+    }
+
     /**
      * Test of executeSPARQLquerySingleResult method, of class AbstractKAO.
      */
@@ -193,6 +678,137 @@ public class AbstractKAOTest {
         assertEquals(expected.size(), result.size());
     }
 
+    /**
+     * Test of executeSPARQLqueryResultList method with many variables, of
+     * class AbstractKAO.
+     */
+    @Test
+    public void testExecuteSPARQLqueryResultList_Rows() {
+        Person p = kao.create(ontologyURI, instanceName, graphs);
+        p.setFoafAge(22);
+        kao.update(p, graphs);
+        String query = "select ?s ?age where {?s a foaf:Person. ?s foaf:age ?age. "
+                + "filter(?s = <" + p.toString() + ">)}";
+        List<Object[]> result = kao.executeSPARQLqueryResultList(query);
+        assertFalse(result.isEmpty());
+        for (Object[] row : result) {
+            //the rows of the same URI share the instance
+            assertSame(result.get(0)[0], row[0]);
+            assertEquals(p.toString(), row[0].toString());
+            assertEquals(22, row[1]);
+        }
+    }
+
+    /**
+     * Test of executeSPARQLtupleQueryAsJSONString method with a sink, of class
+     * AbstractKAO.
+     */
+    @Test
+    public void testExecuteSPARQLtupleQueryAsJSONString_Writer() throws Exception {
+        Person p = kao.create(ontologyURI, instanceName, graphs);
+        p.setFoafAge(22);
+        kao.update(p, graphs);
+        StringWriter out = new StringWriter();
+        assertTrue(kao.executeSPARQLtupleQueryAsJSONString("select ?s ?age where {?s foaf:age ?age. "
+                + "filter(?s = <" + p.toString() + ">)}", out));
+
+        JSONObject json = new JSONObject(out.toString());
+        assertEquals("s", json.getJSONObject("head").getJSONArray("vars").getString(0));
+        JSONArray bindings = json.getJSONObject("results").getJSONArray("bindings");
+        assertTrue(bindings.length() > 0);
+        JSONObject row = bindings.getJSONObject(0);
+        assertEquals("uri", row.getJSONObject("s").getString("type"));
+        assertEquals(p.toString(), row.getJSONObject("s").getString("value"));
+        assertEquals("literal", row.getJSONObject("age").getString("type"));
+        assertTrue(row.getJSONObject("age").has("datatype"));
+        //a failed query tells the caller to discard the output
+        assertFalse(kao.executeSPARQLtupleQueryAsJSONString("select ?s where {", new StringWriter()));
+    }
+
+    /**
+     * Test of executeSPARQLgraphQueryAsJSONLDString method streaming to a
+     * sink, of class AbstractKAO.
+     */
+    @Test
+    public void testExecuteSPARQLgraphQueryAsJSONLDString_Stream() throws Exception {
+        Person p = kao.create(ontologyURI, instanceName, graphs);
+        p.setFoafAge(22);
+        kao.update(p, graphs);
+        String query = "construct {?s ?p ?o} where {?s ?p ?o. filter(?s = <" + p.toString() + ">)}";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(kao.executeSPARQLgraphQueryAsJSONLDString(query, out, Feature.STREAM));
+
+        JSONObject json = new JSONObject(out.toString("UTF-8"));
+        JSONObject node = json.getJSONArray("@graph").getJSONObject(0);
+        assertEquals(p.toString(), node.getString("@id"));
+        assertTrue(node.has("age"));
+        assertEquals("http://xmlns.com/foaf/0.1/age", json.getJSONObject("@context").getJSONObject("age").getString("@id"));
+    }
+
+    /**
+     * Test of executeSPARQLgraphQueryAsJSONLDString method with the schema
+     * cache, of class AbstractKAO.
+     */
+    @Test
+    public void testExecuteSPARQLgraphQueryAsJSONLDString_SchemaCache() throws Exception {
+        Person p = kao.create(ontologyURI, instanceName, graphs);
+        p.setFoafAge(22);
+        kao.update(p, graphs);
+        String query = "construct {?s ?p ?o} where {?s ?p ?o. filter(?s = <" + p.toString() + ">)}";
+        SchemaCache.getInstance().invalidate();
+        JSONObject first = kao.executeSPARQLgraphQueryAsJSONLDString(query);
+        int cached = SchemaCache.getInstance().size();
+        assertTrue(cached > 0);
+
+        //the same predicates are not looked up again
+        JSONObject second = kao.executeSPARQLgraphQueryAsJSONLDString(query);
+        assertEquals(cached, SchemaCache.getInstance().size());
+        assertEquals(first.getJSONObject("@context").toString(), second.getJSONObject("@context").toString());
+
+        SchemaCache.getInstance().invalidate();
+        assertEquals(0, SchemaCache.getInstance().size());
+    }
+
+    /**
+     * Test of executeSPARQLqueryResultList method with the query result
+     * cache, of class AbstractKAO.
+     */
+    @Test
+    public void testExecuteSPARQLqueryResultList_QueryResultCache() {
+        QueryResultCache.enable(100, 1024 * 1024, 1, TimeUnit.MINUTES);
+        try {
+            String query = "select ?age where {?s foaf:age ?age.}";
+            List<?> first = kao.executeSPARQLqueryResultList(query, graphs);
+            //the white space does not change the key
+            List<?> second = kao.executeSPARQLqueryResultList("select ?age\n  where {?s  foaf:age ?age.}", graphs);
+            assertEquals(first, second);
+            assertEquals(1, QueryResultCache.getInstance().getHits());
+
+            //a write drops the results
+            Person p = kao.create(ontologyURI, instanceName, graphs);
+            p.setFoafAge(22);
+            kao.update(p, graphs);
+            List<?> third = kao.executeSPARQLqueryResultList(query, graphs);
+            assertTrue(third.size() > first.size());
+            assertEquals(1, QueryResultCache.getInstance().getHits());
+
+            //the instances are not cached, since the callers change them
+            String instances = "select ?s where {?s a foaf:Person.}";
+            kao.executeSPARQLqueryResultList(instances, graphs);
+            kao.executeSPARQLqueryResultList(instances, graphs);
+            assertEquals(1, QueryResultCache.getInstance().getHits());
+
+            //an opted out query is not cached
+            String excluded = query + " " + QueryResultCache.NO_CACHE_HINT;
+            kao.executeSPARQLqueryResultList(excluded, graphs);
+            kao.executeSPARQLqueryResultList(excluded, graphs);
+            assertEquals(1, QueryResultCache.getInstance().getHits());
+            assertTrue(QueryResultCache.getInstance().getHitRatio() > 0);
+        } finally {
+            QueryResultCache.disable();
+        }
+    }
+
     /**
      * Test of executeQueryAsIterator method, of class AbstractKAO.
      */
@@ -0,0 +1,82 @@
+package wwwc.nees.joint.module.kao;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import joint.codegen.foaf.Person;
+
+/**
+ * Throughput of a single KAO shared by 1 to 64 threads retrieving instances.
+ * It is not part of the test suite; run its main method against the
+ * repository configured for the tests.
+ *
+ * @author Olavo
+ */
+public class AbstractKAOThroughputBenchmark {
+
+    private static final int[] THREADS = {1, 2, 4, 8, 16, 32, 64};
+    private static final int OPERATIONS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        String ontologyURI = "http://xmlns.com/foaf/0.1/";
+        final AbstractKAOImpl kao = new AbstractKAOImpl(Person.class);
+        final URI graph = URI.create(ontologyURI + "Throughput/");
+        final List<String> uris = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            uris.add(ontologyURI + "Throughput_" + i);
+        }
+        try {
+            List<Person> created = kao.createAll(uris, graph);
+            for (Person p : created) {
+                p.setFoafAge(22);
+            }
+            kao.updateAll(created, graph);
+
+            for (int threads : THREADS) {
+                ExecutorService executor = Executors.newFixedThreadPool(threads);
+                List<Callable<Integer>> tasks = new ArrayList<>();
+                final int operations = OPERATIONS / threads;
+                for (int t = 0; t < threads; t++) {
+                    final int offset = t;
+                    tasks.add(new Callable<Integer>() {
+                        @Override
+                        public Integer call() {
+                            int found = 0;
+                            for (int i = 0; i < operations; i++) {
+                                String uri = uris.get((offset + i) % uris.size());
+                                if (kao.retrieveInstance(uri, graph) != null) {
+                                    found++;
+                                }
+                            }
+                            return found;
+                        }
+                    });
+                }
+                long start = System.nanoTime();
+                int found = 0;
+                for (Future<Integer> result : executor.invokeAll(tasks)) {
+                    found += result.get();
+                }
+                long elapsed = System.nanoTime() - start;
+                executor.shutdown();
+
+                System.out.println(String.format("%2d threads: %8.1f retrievals/s (%d of %d found)", threads,
+                        found / (elapsed / 1e9), found, operations * threads));
+            }
+        } finally {
+            kao.executeBooleanQuery("clear graph <" + graph.toString() + ">");
+        }
+    }
+
+    public static class AbstractKAOImpl extends AbstractKAO {
+
+        public <T> AbstractKAOImpl(Class<T> classe) {
+            super(classe);
+        }
+
+    }
+}
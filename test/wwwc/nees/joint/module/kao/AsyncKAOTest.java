@@ -0,0 +1,105 @@
+package wwwc.nees.joint.module.kao;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import joint.codegen.foaf.Person;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * @author Olavo
+ */
+public class AsyncKAOTest {
+
+    private AbstractKAOImpl kao;
+    private AsyncKAO async;
+    private String ontologyURI;
+    private URI graph;
+
+    @Before
+    public void setUp() {
+        ontologyURI = "http://xmlns.com/foaf/0.1/";
+        graph = URI.create(ontologyURI + "Async/");
+        kao = new AbstractKAOImpl(Person.class);
+        async = new AsyncKAO(kao, 4, 100);
+    }
+
+    @After
+    public void tearDown() {
+        async.shutdown();
+        kao.executeBooleanQuery("clear graph <" + graph.toString() + ">");
+        kao = null;
+        async = null;
+    }
+
+    /**
+     * Test of retrieveInstance method issued in parallel, of class AsyncKAO.
+     */
+    @Test
+    public void testRetrieveInstance_Parallel() {
+        List<String> uris = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            uris.add(ontologyURI + "Async_" + i);
+        }
+        kao.createAll(uris, graph);
+
+        List<CompletableFuture<Person>> futures = new ArrayList<>();
+        for (String uri : uris) {
+            futures.add(async.<Person>retrieveInstance(uri, graph));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()])).join();
+        for (int i = 0; i < uris.size(); i++) {
+            assertEquals(uris.get(i), futures.get(i).join().toString());
+        }
+        assertEquals(0, async.getQueueDepth());
+    }
+
+    /**
+     * Test of submit method with a full queue, of class AsyncKAO.
+     */
+    @Test
+    public void testSubmit_QueueFull() throws Exception {
+        AsyncKAO bounded = new AsyncKAO(kao, 1, 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Callable<Void> blocked = new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                release.await();
+                return null;
+            }
+        };
+        try {
+            CompletableFuture<Void> running = bounded.submit(blocked);
+            CompletableFuture<Void> waiting = bounded.submit(blocked);
+            CompletableFuture<Void> rejected = bounded.submit(blocked);
+            try {
+                rejected.get();
+                fail("The third operation should be rejected");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RejectedExecutionException);
+            }
+            release.countDown();
+            running.get();
+            waiting.get();
+        } finally {
+            release.countDown();
+            bounded.shutdown();
+        }
+    }
+
+    public class AbstractKAOImpl extends AbstractKAO {
+
+        public <T> AbstractKAOImpl(Class<T> classe) {
+            super(classe);
+        }
+
+    }
+}
@@ -0,0 +1,94 @@
+package wwwc.nees.joint.module.kao.retrieve;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import joint.codegen.foaf.Person;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.repository.RepositoryConnection;
+import wwwc.nees.joint.model.JOINTResource;
+import wwwc.nees.joint.module.kao.RepositoryFactory;
+
+/**
+ * Resolution of the classes of the instances referenced while hydrating.
+ *
+ * @author Olavo
+ */
+public class HydrationContextTest {
+
+    private static final String FOAF = "http://xmlns.com/foaf/0.1/";
+
+    private RepositoryConnection connection;
+    private ValueFactory f;
+    private URI graph;
+
+    @Before
+    public void setUp() throws Exception {
+        connection = RepositoryFactory.getRepository().getConnection();
+        f = connection.getValueFactory();
+        graph = f.createURI(FOAF + "HydrationContext/");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (connection.isOpen()) {
+            connection.close();
+        }
+        RepositoryConnection con = RepositoryFactory.getRepository().getConnection();
+        try {
+            con.clear(graph);
+        } finally {
+            con.close();
+        }
+    }
+
+    /**
+     * Test of resolveClasses method, of class HydrationContext.
+     */
+    @Test
+    public void testResolveClasses() throws Exception {
+        URI unmapped = f.createURI("http://example.org/Unmapped");
+        //a person which also has a type without concept
+        URI person = f.createURI(FOAF + "HydrationContext_Person");
+        connection.add(person, RDF.TYPE, unmapped, graph);
+        connection.add(person, RDF.TYPE, f.createURI(FOAF + "Person"), graph);
+        //an instance with only types without concept
+        URI thing = f.createURI(FOAF + "HydrationContext_Thing");
+        connection.add(thing, RDF.TYPE, unmapped, graph);
+        //a linked object without type
+        URI untyped = f.createURI(FOAF + "HydrationContext_Untyped");
+        connection.add(untyped, f.createURI(FOAF + "name"), f.createLiteral("Untyped"), graph);
+
+        int batchSize = RetrieveOperations.getBatchSize();
+        //the types are read in two batches
+        RetrieveOperations.setBatchSize(2);
+        HydrationContext context = new HydrationContext(connection, graph);
+        try {
+            context.resolveClasses(Arrays.asList(person.stringValue(), thing.stringValue(), untyped.stringValue()));
+        } finally {
+            RetrieveOperations.setBatchSize(batchSize);
+        }
+
+        Map<String, String> classNames = context.getClassNames();
+        assertEquals(3, classNames.size());
+        assertEquals(Person.class.getName(), classNames.get(person.stringValue()));
+        assertEquals(Object.class.getName(), classNames.get(thing.stringValue()));
+        assertEquals(Object.class.getName(), classNames.get(untyped.stringValue()));
+
+        //the conversions use the resolved classes, without other queries
+        connection.close();
+        Object linkedPerson = context.toObject(Collections.<Value>singletonList(person), Object.class);
+        assertTrue(linkedPerson instanceof Person);
+        assertFalse(((JOINTResource) linkedPerson).isLazyLoaded());
+        Object linkedUntyped = context.toObject(Collections.<Value>singletonList(untyped), Object.class);
+        assertSame(JOINTResource.class, linkedUntyped.getClass());
+        assertEquals(untyped.stringValue(), linkedUntyped.toString());
+    }
+}
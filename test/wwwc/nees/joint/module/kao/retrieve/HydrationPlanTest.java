@@ -0,0 +1,101 @@
+package wwwc.nees.joint.module.kao.retrieve;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import joint.codegen.foaf.Person;
+import joint.codegen.foaf.PersonImpl;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import wwwc.nees.joint.compiler.annotations.Iri;
+import wwwc.nees.joint.model.JOINTResource;
+
+/**
+ * Plans of the concrete classes generated by the compiler.
+ *
+ * @author Olavo
+ */
+public class HydrationPlanTest {
+
+    private static final String FOAF = "http://xmlns.com/foaf/0.1/";
+
+    /**
+     * Test of forImplClass and forConcept methods, of class HydrationPlan.
+     */
+    @Test
+    public void testForImplClass_Cached() throws Exception {
+        HydrationPlan plan = HydrationPlan.forImplClass(PersonImpl.class);
+        assertSame(plan, HydrationPlan.forImplClass(PersonImpl.class));
+        assertSame(plan, HydrationPlan.forConcept(Person.class));
+        assertSame(plan, HydrationPlan.forConcept(Person.class.getName()));
+        assertSame(PersonImpl.class, plan.getImplClass());
+        assertNotSame(plan, HydrationPlan.forConcept("joint.codegen.foaf.Agent"));
+    }
+
+    /**
+     * Test of the bindings of the properties, of class HydrationPlan.
+     */
+    @Test
+    public void testProperties_Accessors() throws Exception {
+        HydrationPlan plan = HydrationPlan.forImplClass(PersonImpl.class);
+        Object person = plan.newInstance();
+        ((JOINTResource) person).setLazyLoaded(true);
+        ((JOINTResource) person).setInnerModifiedFields(new ArrayList<String>());
+
+        int setters = 0;
+        for (Method method : PersonImpl.class.getMethods()) {
+            Iri iri = method.getAnnotation(Iri.class);
+            if (iri == null || !method.getName().startsWith("set")) {
+                continue;
+            }
+            setters++;
+            String field = method.getName().substring(3);
+            HydrationPlan.PropertyBinding binding = plan.getField(field);
+            assertNotNull(field, binding);
+            assertSame(binding, plan.getProperty(iri.value()));
+            assertEquals(iri.value(), binding.getPredicate());
+            //the getter of every property is bound too
+            binding.get(person);
+        }
+        assertTrue(setters > 0);
+        assertEquals(setters, plan.getProperties().size());
+
+        plan.getProperty(FOAF + "age").set(person, 22);
+        assertEquals(22, ((Person) person).getFoafAge());
+        assertEquals(22, plan.getProperty(FOAF + "age").get(person));
+    }
+
+    /**
+     * Test of populate method without a generated hydrator, of class
+     * RetrieveOperations.
+     */
+    @Test
+    public void testPopulate_ReflectiveFallback() throws Exception {
+        //the classes in foaf.jar were compiled without hydrators
+        HydrationPlan plan = HydrationPlan.forImplClass(PersonImpl.class);
+        assertNull(plan.getHydrator());
+
+        ValueFactory f = ValueFactoryImpl.getInstance();
+        Map<String, List<Value>> properties = new HashMap<>();
+        properties.put(FOAF + "age", Collections.<Value>singletonList(f.createLiteral(22)));
+        properties.put(FOAF + "gender", Collections.<Value>singletonList(f.createLiteral("Feminino")));
+        properties.put(FOAF + "firstName", Collections.<Value>singletonList(f.createLiteral("Tereza")));
+
+        Object person = plan.newInstance();
+        ((JOINTResource) person).setLazyLoaded(true);
+        ((JOINTResource) person).setInnerModifiedFields(new ArrayList<String>());
+        RetrieveOperations retrieveOp = new RetrieveOperations();
+        retrieveOp.populate(person, plan, properties,
+                new HydrationContext(retrieveOp, Collections.<String, String>emptyMap()));
+
+        assertEquals(22, ((Person) person).getFoafAge());
+        assertEquals("Feminino", ((Person) person).getFoafGender());
+        assertEquals(Collections.singleton("Tereza"), ((Person) person).getFoafFirstName());
+    }
+}
@@ -0,0 +1,141 @@
+package wwwc.nees.joint.module.kao.retrieve;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.jar.JarFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.model.vocabulary.XMLSchema;
+import wwwc.nees.joint.model.JOINTResource;
+import wwwc.nees.joint.module.ontology.operations.OntologyCompiler;
+
+/**
+ * Hydrators generated by the compiler, compared with the reflective
+ * population of the same concept.
+ *
+ * @author Olavo
+ */
+public class HydratorCompilerTest {
+
+    private static final String NS = "http://example.org/hydration#";
+    private static final String PKG = "joint/codegen/ex/";
+
+    private File ontology;
+    private File jar;
+
+    @Before
+    public void setUp() throws IOException {
+        ontology = File.createTempFile("hydration", ".ttl");
+        try (PrintWriter w = new PrintWriter(ontology, "UTF-8")) {
+            w.println("@prefix rdfs: <http://www.w3.org/2000/01/rdf-schema#> .");
+            w.println("@prefix owl: <http://www.w3.org/2002/07/owl#> .");
+            w.println("@prefix xsd: <http://www.w3.org/2001/XMLSchema#> .");
+            w.println("@prefix ex: <" + NS + "> .");
+            w.println("<http://example.org/hydration> a owl:Ontology .");
+            w.println("ex:Member a owl:Class .");
+            w.println("ex:age a owl:DatatypeProperty, owl:FunctionalProperty ; rdfs:domain ex:Member ; rdfs:range xsd:int .");
+            w.println("ex:active a owl:DatatypeProperty, owl:FunctionalProperty ; rdfs:domain ex:Member ; rdfs:range xsd:boolean .");
+            w.println("ex:weight a owl:DatatypeProperty, owl:FunctionalProperty ; rdfs:domain ex:Member ; rdfs:range xsd:double .");
+            w.println("ex:nick a owl:DatatypeProperty ; rdfs:domain ex:Member ; rdfs:range xsd:string .");
+            w.println("ex:knows a owl:ObjectProperty ; rdfs:domain ex:Member ; rdfs:range ex:Member .");
+        }
+        jar = File.createTempFile("hydration", ".jar");
+        jar.delete();
+        new OntologyCompiler(jar.getPath(), Collections.singletonList(ontology.getPath())).compile();
+    }
+
+    @After
+    public void tearDown() {
+        ontology.delete();
+        jar.delete();
+    }
+
+    /**
+     * Test of the generated hydrator source, of class RDFClass.
+     */
+    @Test
+    public void testGenerateHydratorSourceCode() throws Exception {
+        assertTrue("the concepts were not compiled", jar.exists());
+        try (JarFile file = new JarFile(jar)) {
+            assertNotNull(file.getEntry(PKG + "MemberHydrator.class"));
+            String source;
+            try (InputStream in = file.getInputStream(file.getEntry(PKG + "MemberHydrator.java"));
+                    Scanner scanner = new Scanner(in, "UTF-8")) {
+                source = scanner.useDelimiter("\\A").next();
+            }
+            assertTrue(source.contains("public class MemberHydrator implements Hydrator"));
+            //a case for each predicate, setting the accessor of its field
+            assertTrue(source.contains("case \"" + NS + "age\":"));
+            assertTrue(source.contains("impl.setExAge("));
+            assertTrue(source.contains("case \"ExAge\":"));
+        }
+    }
+
+    /**
+     * Test of the generated hydrator against the reflective population of
+     * the same values.
+     */
+    @Test
+    public void testHydrator_SameAsReflective() throws Exception {
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{jar.toURI().toURL()},
+                getClass().getClassLoader())) {
+            HydrationPlan plan = HydrationPlan.forImplClass(loader.loadClass("joint.codegen.ex.MemberImpl"));
+            assertNotNull(plan.getHydrator());
+
+            ValueFactory f = ValueFactoryImpl.getInstance();
+            Map<String, List<Value>> properties = new HashMap<>();
+            properties.put(NS + "age", Collections.<Value>singletonList(f.createLiteral("42", XMLSchema.INT)));
+            properties.put(NS + "active", Collections.<Value>singletonList(f.createLiteral(true)));
+            //a plain literal is converted to the type of the property
+            properties.put(NS + "weight", Collections.<Value>singletonList(f.createLiteral("1.5")));
+            properties.put(NS + "nick", Arrays.<Value>asList(f.createLiteral("Tete"), f.createLiteral("Teca")));
+
+            RetrieveOperations retrieveOp = new RetrieveOperations();
+            HydrationContext context = new HydrationContext(retrieveOp, Collections.<String, String>emptyMap());
+            Object generated = newInstance(plan);
+            plan.getHydrator().hydrate(generated, properties, context);
+            Object reflective = newInstance(plan);
+            for (HydrationPlan.PropertyBinding property : plan.getProperties()) {
+                retrieveOp.populateProperty(reflective, property, properties.get(property.getPredicate()), context);
+            }
+
+            for (HydrationPlan.PropertyBinding property : plan.getProperties()) {
+                assertEquals(property.getFieldName(), property.get(reflective), property.get(generated));
+            }
+            assertEquals(42, plan.getProperty(NS + "age").get(generated));
+            assertEquals(true, plan.getProperty(NS + "active").get(generated));
+            assertEquals(1.5, plan.getProperty(NS + "weight").get(generated));
+            assertEquals(new HashSet<>(Arrays.asList("Tete", "Teca")), plan.getProperty(NS + "nick").get(generated));
+            assertEquals(Collections.emptySet(), plan.getProperty(NS + "knows").get(generated));
+
+            //a primitive type is converted as the wrapper the hydrators pass
+            List<Value> plain = Collections.<Value>singletonList(f.createLiteral("42"));
+            assertEquals(42, context.toObject(plain, Integer.class));
+            assertEquals(42, context.toObject(plain, int.class));
+        }
+    }
+
+    private static Object newInstance(HydrationPlan plan) throws Exception {
+        Object instance = plan.newInstance();
+        ((JOINTResource) instance).setLazyLoaded(true);
+        ((JOINTResource) instance).setInnerModifiedFields(new ArrayList<String>());
+        return instance;
+    }
+}
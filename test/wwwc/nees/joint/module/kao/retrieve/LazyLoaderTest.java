@@ -0,0 +1,114 @@
+package wwwc.nees.joint.module.kao.retrieve;
+
+import java.util.ArrayList;
+import java.util.List;
+import joint.codegen.foaf.Person;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.vocabulary.RDF;
+import org.openrdf.repository.RepositoryConnection;
+import wwwc.nees.joint.model.JOINTResource;
+import wwwc.nees.joint.module.kao.RepositoryFactory;
+
+/**
+ * Lazy loading of the not loaded instances and of their fetch groups.
+ *
+ * @author Olavo
+ */
+public class LazyLoaderTest {
+
+    private static final String FOAF = "http://xmlns.com/foaf/0.1/";
+
+    private URI graph;
+    private List<JOINTResource> people;
+    private FetchGroup group;
+
+    @Before
+    public void setUp() throws Exception {
+        RepositoryConnection connection = RepositoryFactory.getRepository().getConnection();
+        try {
+            ValueFactory f = connection.getValueFactory();
+            graph = f.createURI(FOAF + "LazyLoader/");
+            //three not loaded siblings, as the hydration creates them
+            people = new ArrayList<>();
+            group = new FetchGroup(LazyLoader.getBatchSize());
+            HydrationPlan plan = HydrationPlan.forConcept(Person.class);
+            for (int i = 0; i < 3; i++) {
+                URI uri = f.createURI(FOAF + "LazyLoader_" + i);
+                connection.add(uri, RDF.TYPE, f.createURI(FOAF + "Person"), graph);
+                connection.add(uri, f.createURI(FOAF + "age"), f.createLiteral(20 + i), graph);
+
+                JOINTResource person = (JOINTResource) plan.newInstance();
+                person.setURI(uri.stringValue());
+                person.setLazyLoaded(false);
+                assertTrue(group.add(person));
+                people.add(person);
+            }
+        } finally {
+            connection.close();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        RepositoryConnection connection = RepositoryFactory.getRepository().getConnection();
+        try {
+            connection.clear(graph);
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Test of loadObject method with a fetch group, of class LazyLoader.
+     */
+    @Test
+    public void testLoadObject_FetchGroup() {
+        //the access to one instance, as its getters do, loads its siblings
+        JOINTResource first = people.get(0);
+        LazyLoader.loadObject(first, first.getClass().getName());
+        for (int i = 0; i < people.size(); i++) {
+            JOINTResource person = people.get(i);
+            assertTrue(person.isLazyLoaded());
+            assertNull(person.fetchGroup());
+            assertEquals(20 + i, ((Person) person).getFoafAge());
+        }
+        //the group was claimed by the batch
+        assertFalse(group.isFull());
+    }
+
+    /**
+     * Test of lazyLoadObjects method when the query fails, of class
+     * LazyLoader.
+     */
+    @Test
+    public void testLazyLoadObjects_Failure() throws Exception {
+        List<JOINTResource> batch = group.claim(people.get(0));
+        assertEquals(people.size(), batch.size());
+
+        RepositoryConnection connection = RepositoryFactory.getRepository().getConnection();
+        LazyLoader lazyLoader = new LazyLoader(connection);
+        //the query fails on the closed connection
+        connection.close();
+        lazyLoader.lazyLoadObjects(batch);
+        for (JOINTResource person : batch) {
+            assertFalse(person.isLazyLoaded());
+        }
+
+        //the instances are loaded on their next access
+        connection = RepositoryFactory.getRepository().getConnection();
+        try {
+            new LazyLoader(connection).lazyLoadObjects(batch);
+        } finally {
+            connection.close();
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            assertTrue(batch.get(i).isLazyLoaded());
+            assertEquals(20 + i, ((Person) batch.get(i)).getFoafAge());
+        }
+    }
+}